@@ -0,0 +1,239 @@
+package ai;
+
+import core.Board;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Random;
+
+/**
+ * Plays uniformly random games to the end from a set of starting positions, many at once, for Monte Carlo players
+ * and outcome statistics. Instead of a Connect4 and a Board per game, each game in flight is a lane in a few
+ * primitive arrays: the chips of the player to move and the mask of all chips, in Board's bitboard layout, plus a
+ * ply count and a random state. Every step plays one random move in every lane, then checks all lanes for a win
+ * with the Vector API. A lane whose game has ended is recorded and restarted on the next playout still owed, so the
+ * lanes stay busy until the work runs out.
+ *
+ * The win check uses jdk.incubator.vector, an incubator module, so compiling and running code which uses this class
+ * needs --add-modules jdk.incubator.vector; like NeuralEvaluator it lives in the src-vector source root so the rest
+ * of the tree builds without it. A simulator holds its lanes between calls, so use one per thread.
+ *
+ * @version 1.0
+ */
+public class BatchPlayouts {
+    /** The vector shape used for the win check **/
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+    /** Board size, as in Board **/
+    private static final int ROWS = 6, COLUMNS = 7;
+    /** The bottom cell of every column **/
+    private static final long BOTTOM = bottomMask();
+    /** Every cell on the board, leaving out the spare bit above each column **/
+    private static final long BOARD = BOTTOM * ((1L << ROWS) - 1);
+    /** Cells on a full board **/
+    private static final int CELLS = ROWS * COLUMNS;
+
+    /**
+     * Win, loss and draw counts for one starting position.
+     */
+    public static class Outcome {
+        /** Games won by the first player **/
+        public long player1Wins;
+        /** Games won by the second player **/
+        public long player2Wins;
+        /** Games drawn **/
+        public long draws;
+
+        /**
+         * Get the number of games played
+         * @return the total of wins and draws
+         */
+        public long total() { return player1Wins + player2Wins + draws; }
+
+        @Override
+        public String toString() {
+            return String.format("%d games: first %d, second %d, drawn %d", total(), player1Wins, player2Wins, draws);
+        }
+    }
+
+    /** Number of games in flight, a whole number of vectors **/
+    private final int lanes;
+    /** Chips of the player to move, per lane **/
+    private final long[] current;
+    /** All chips, per lane **/
+    private final long[] mask;
+    /** Non-zero where the last move in a lane made four in a row **/
+    private final long[] won;
+    /** Chips on the board, per lane **/
+    private final int[] plies;
+    /** The starting position each lane is playing out, or -1 for an idle lane **/
+    private final int[] start;
+    /** Random state, per lane **/
+    private final long[] random;
+
+    /**
+     * Create a simulator
+     * @param lanes the number of games to play at once, rounded up to a whole number of vectors
+     * @param seed seeds every lane's random numbers
+     */
+    public BatchPlayouts(int lanes, long seed) {
+        this.lanes = SPECIES.loopBound(Math.max(1, lanes) + SPECIES.length() - 1);
+        current = new long[this.lanes];
+        mask = new long[this.lanes];
+        won = new long[this.lanes];
+        plies = new int[this.lanes];
+        start = new int[this.lanes];
+        random = new long[this.lanes];
+        Random seeds = new Random(seed);
+        for(int i=0; i<this.lanes; i++) random[i] = seeds.nextLong() | 1;
+    }
+
+    /**
+     * Play random games from each starting position.
+     * @param starts the positions; they are read, not modified. A position which is already over counts its result
+     *               once per playout without playing
+     * @param playouts the number of games to play from each position
+     * @return the results, one per starting position
+     */
+    public Outcome[] run(Board[] starts, int playouts) {
+        int n = starts.length;
+        Outcome[] outcomes = new Outcome[n];
+        long[] startCurrent = new long[n], startMask = new long[n];
+        int[] startPlies = new int[n];
+        int[] owed = new int[n];
+        for(int s=0; s<n; s++) {
+            Board board = starts[s];
+            outcomes[s] = new Outcome();
+            long player1 = board.getBitboard(board.PLAYER1), player2 = board.getBitboard(board.PLAYER2);
+            startMask[s] = player1 | player2;
+            startPlies[s] = Long.bitCount(startMask[s]);
+            startCurrent[s] = board.getNextPlayer() == board.PLAYER1 ? player1 : player2;
+            if(board.getWinner() != board.NONE) record(outcomes[s], board.getWinner() == board.PLAYER1, playouts);
+            else if(!board.isPlayable()) outcomes[s].draws += playouts;
+            else owed[s] = playouts;
+        }
+
+        int next = 0;
+        int active = 0;
+        for(int i=0; i<lanes; i++) {
+            while(next < n && owed[next] == 0) next++;
+            if(next == n) {
+                start[i] = -1;
+                continue;
+            }
+            owed[next]--;
+            load(i, next, startCurrent, startMask, startPlies);
+            active++;
+        }
+
+        while(active > 0) {
+            for(int i=0; i<lanes; i++) if(start[i] != -1) play(i);
+            checkWins();
+            for(int i=0; i<lanes; i++) {
+                int s = start[i];
+                if(s == -1) continue;
+                boolean win = won[i] != 0;
+                if(!win && plies[i] < CELLS) continue;
+                // the player who just moved is the first player after an odd number of chips
+                if(win) record(outcomes[s], (plies[i] & 1) == 1, 1);
+                else outcomes[s].draws++;
+
+                while(next < n && owed[next] == 0) next++;
+                if(next == n) {
+                    start[i] = -1;
+                    active--;
+                } else {
+                    owed[next]--;
+                    load(i, next, startCurrent, startMask, startPlies);
+                }
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * Start a lane on a new playout
+     * @param lane the lane
+     * @param s the starting position's index
+     * @param startCurrent chips of the player to move in each starting position
+     * @param startMask all chips in each starting position
+     * @param startPlies chip counts of each starting position
+     */
+    private void load(int lane, int s, long[] startCurrent, long[] startMask, int[] startPlies) {
+        start[lane] = s;
+        current[lane] = startCurrent[s];
+        mask[lane] = startMask[s];
+        plies[lane] = startPlies[s];
+    }
+
+    /**
+     * Play a uniformly random legal move in a lane. A legal move is the cell just above each column's top chip,
+     * which adding BOTTOM to the mask finds for every column at once; a full column carries into its spare bit.
+     * @param lane the lane
+     */
+    private void play(int lane) {
+        long m = mask[lane];
+        long moves = (m + BOTTOM) & BOARD;
+        long r = random[lane];
+        r ^= r >>> 12;
+        r ^= r << 25;
+        r ^= r >>> 27;
+        random[lane] = r;
+        int pick = (int) ((((r * 0x2545F4914F6CDD1DL) >>> 32) * Long.bitCount(moves)) >>> 32);
+        for(int k=0; k<pick; k++) moves &= moves - 1;
+        current[lane] ^= m;
+        mask[lane] = m | Long.lowestOneBit(moves);
+        plies[lane]++;
+    }
+
+    /**
+     * Check every lane for four in a row by the player who just moved, whose chips are the mask less the chips of
+     * the player now to move. Shifting by 1, 7, 6 and 8 lines up neighbours vertically, horizontally and along both
+     * diagonals; the spare bit above each column stops lines wrapping between columns.
+     */
+    private void checkWins() {
+        for(int i=0; i<lanes; i+=SPECIES.length()) {
+            LongVector mover = LongVector.fromArray(SPECIES, current, i)
+                    .lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, mask, i));
+            fours(mover, 1).or(fours(mover, 7)).or(fours(mover, 6)).or(fours(mover, 8)).intoArray(won, i);
+        }
+    }
+
+    /**
+     * Find four in a row in one direction
+     * @param chips one player's chips in each lane
+     * @param shift the distance between neighbouring cells in that direction
+     * @return the lowest cell of each line of four, non-zero in lanes which have one
+     */
+    private static LongVector fours(LongVector chips, int shift) {
+        LongVector pairs = chips.and(chips.lanewise(VectorOperators.LSHR, shift));
+        return pairs.and(pairs.lanewise(VectorOperators.LSHR, 2 * shift));
+    }
+
+    /**
+     * Count wins
+     * @param outcome the starting position's results
+     * @param player1 true if the first player won
+     * @param games how many games
+     */
+    private static void record(Outcome outcome, boolean player1, long games) {
+        if(player1) outcome.player1Wins += games;
+        else outcome.player2Wins += games;
+    }
+
+    /**
+     * Build the mask of every column's bottom cell
+     * @return the mask
+     */
+    private static long bottomMask() {
+        long bottom = 0;
+        for(int c=0; c<COLUMNS; c++) bottom |= 1L << (7 * c);
+        return bottom;
+    }
+
+    /**
+     * Get the number of games played at once
+     * @return the lane count
+     */
+    public int getLanes() { return lanes; }
+}
@@ -0,0 +1,332 @@
+package ai;
+
+import core.Board;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * A small multi-layer perceptron evaluator: 85 binary inputs (the 42 cells of each player's bitboard, from the point
+ * of view of the player to move, and whether that player moved first), two ReLU hidden layers and a linear output.
+ * Weights are loaded from a file and are usually trained offline on data from tools.TrainingExporter.
+ *
+ * Inference uses the Vector API. The first layer is sparse, since inputs are 0 or 1: it adds one weight row per
+ * chip instead of multiplying. The second layer works the same way from the other side: each active first-layer
+ * unit adds its scaled weight row, so the half or so of units that ReLU zeroes cost nothing. Hidden layers are
+ * padded to a whole number of vectors. Activations live in buffers allocated once per evaluator, so an evaluator
+ * must not be shared between threads; the Weights it reads can be.
+ *
+ * jdk.incubator.vector is an incubator module, so compiling and running code which uses this class needs
+ * --add-modules jdk.incubator.vector. To keep the rest of the tree building without it, this class lives in the
+ * src-vector source root, compiled after src with src's classes on the class path, and PlayerSpecs finds it by name.
+ *
+ * Weight file layout (big-endian): magic "C4NN", input count (85), first and second hidden layer sizes, output
+ * scale, then as floats: first layer weights by input then hidden unit, first layer biases, second layer weights by
+ * first-layer unit then second-layer unit, second layer biases, output weights, output bias.
+ *
+ * @version 1.0
+ */
+public class NeuralEvaluator implements BatchEvaluator {
+    /** Identifies a weight file **/
+    static final int MAGIC = 0x43344E4E; // "C4NN"
+    /** Cells per player in the input **/
+    static final int CELLS = 42;
+    /** Inputs: both players' cells, then the parity input **/
+    static final int INPUTS = 2 * CELLS + 1;
+    /** The vector shape used for every layer **/
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    /**
+     * A network's parameters. Immutable once loaded, so any number of evaluators may share them.
+     */
+    public static class Weights {
+        /** Hidden layer sizes as stored in the file **/
+        final int size1, size2;
+        /** First hidden layer size, rounded up to whole vectors **/
+        final int hidden1;
+        /** Second hidden layer size, rounded up to whole vectors **/
+        final int hidden2;
+        /** Multiplies the network output to give a score **/
+        final float scale;
+        /** First layer weights, hidden1 per input **/
+        final float[] w1;
+        /** First layer biases **/
+        final float[] b1;
+        /** Second layer weights, hidden2 per first-layer unit **/
+        final float[] w2;
+        /** Second layer biases **/
+        final float[] b2;
+        /** Output weights **/
+        final float[] w3;
+        /** Output bias **/
+        final float b3;
+
+        /**
+         * Allocate zeroed, padded parameters
+         * @param hidden1 first hidden layer size before padding
+         * @param hidden2 second hidden layer size before padding
+         * @param scale the output scale
+         * @param b3 the output bias
+         */
+        private Weights(int hidden1, int hidden2, float scale, float b3) {
+            this.size1 = hidden1;
+            this.size2 = hidden2;
+            this.hidden1 = SPECIES.loopBound(hidden1 + SPECIES.length() - 1);
+            this.hidden2 = SPECIES.loopBound(hidden2 + SPECIES.length() - 1);
+            this.scale = scale;
+            this.b3 = b3;
+            w1 = new float[INPUTS * this.hidden1];
+            b1 = new float[this.hidden1];
+            w2 = new float[this.hidden1 * this.hidden2];
+            b2 = new float[this.hidden2];
+            w3 = new float[this.hidden2];
+        }
+
+        /**
+         * Load weights from a file.
+         * @param file a weight file
+         * @return the weights
+         * @throws IOException if the file can't be read or isn't a weight file
+         */
+        public static Weights load(Path file) throws IOException {
+            try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if(in.readInt() != MAGIC || in.readInt() != INPUTS) {
+                    throw new IOException(file + " is not a weight file");
+                }
+                int h1 = in.readInt(), h2 = in.readInt();
+                float scale = in.readFloat();
+                float[] w1 = read(in, INPUTS * h1), b1 = read(in, h1), w2 = read(in, h1 * h2), b2 = read(in, h2);
+                float[] w3 = read(in, h2);
+                Weights weights = new Weights(h1, h2, scale, in.readFloat());
+                weights.fill(h1, h2, w1, b1, w2, b2, w3);
+                return weights;
+            }
+        }
+
+        /**
+         * Make randomly initialized weights, for benchmarking and as a starting point for training.
+         * @param hidden1 first hidden layer size
+         * @param hidden2 second hidden layer size
+         * @param seed the random seed
+         * @return the weights
+         */
+        public static Weights random(int hidden1, int hidden2, long seed) {
+            Random random = new Random(seed);
+            float[] w1 = gaussian(random, INPUTS * hidden1, Math.sqrt(2.0 / INPUTS));
+            float[] w2 = gaussian(random, hidden1 * hidden2, Math.sqrt(2.0 / hidden1));
+            float[] w3 = gaussian(random, hidden2, Math.sqrt(1.0 / hidden2));
+            Weights weights = new Weights(hidden1, hidden2, 100f, 0f);
+            weights.fill(hidden1, hidden2, w1, new float[hidden1], w2, new float[hidden2], w3);
+            return weights;
+        }
+
+        /**
+         * Write weights in the file layout that load() reads.
+         * @param file where to write
+         * @throws IOException if the file can't be written
+         */
+        public void write(Path file) throws IOException {
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(INPUTS);
+                out.writeInt(size1);
+                out.writeInt(size2);
+                out.writeFloat(scale);
+                for(int i=0; i<INPUTS; i++) for(int j=0; j<size1; j++) out.writeFloat(w1[i * hidden1 + j]);
+                for(int j=0; j<size1; j++) out.writeFloat(b1[j]);
+                for(int j=0; j<size1; j++) for(int k=0; k<size2; k++) out.writeFloat(w2[j * hidden2 + k]);
+                for(int k=0; k<size2; k++) out.writeFloat(b2[k]);
+                for(int k=0; k<size2; k++) out.writeFloat(w3[k]);
+                out.writeFloat(b3);
+            }
+        }
+
+        /**
+         * Copy unpadded parameters into the padded arrays; padding stays zero so it never affects a result.
+         * @param h1 the unpadded first hidden layer size
+         * @param h2 the unpadded second hidden layer size
+         * @param w1 first layer weights, h1 per input
+         * @param b1 first layer biases
+         * @param w2 second layer weights, h2 per first-layer unit
+         * @param b2 second layer biases
+         * @param w3 output weights
+         */
+        private void fill(int h1, int h2, float[] w1, float[] b1, float[] w2, float[] b2, float[] w3) {
+            for(int i=0; i<INPUTS; i++) System.arraycopy(w1, i * h1, this.w1, i * hidden1, h1);
+            System.arraycopy(b1, 0, this.b1, 0, h1);
+            for(int j=0; j<h1; j++) System.arraycopy(w2, j * h2, this.w2, j * hidden2, h2);
+            System.arraycopy(b2, 0, this.b2, 0, h2);
+            System.arraycopy(w3, 0, this.w3, 0, h2);
+        }
+
+        /**
+         * Read an array of floats
+         * @param in the stream
+         * @param n how many
+         * @return the floats
+         * @throws IOException if the stream ends early
+         */
+        private static float[] read(DataInputStream in, int n) throws IOException {
+            float[] values = new float[n];
+            for(int i=0; i<n; i++) values[i] = in.readFloat();
+            return values;
+        }
+
+        /**
+         * Draw normally distributed floats
+         * @param random the source
+         * @param n how many
+         * @param sd the standard deviation
+         * @return the floats
+         */
+        private static float[] gaussian(Random random, int n, double sd) {
+            float[] values = new float[n];
+            for(int i=0; i<n; i++) values[i] = (float) (random.nextGaussian() * sd);
+            return values;
+        }
+    }
+
+    /** The network **/
+    private final Weights weights;
+    /** First hidden layer activations, one row per batch position **/
+    private final float[] hidden1;
+    /** Second hidden layer activations for one position **/
+    private final float[] hidden2;
+    /** Single-position arguments for evaluate(Board), reused **/
+    private final long[] oneMine = new long[1], oneTheirs = new long[1];
+    private final boolean[] oneFirst = new boolean[1];
+    private final int[] oneScore = new int[1];
+
+    /**
+     * Load a weight file and make evaluators which share it, one per caller. PlayerSpecs calls this by reflection.
+     * @param file the weight file
+     * @return a supplier of new evaluators
+     * @throws IOException if the file can't be read or isn't a weight file
+     */
+    public static Supplier<Evaluator> factory(Path file) throws IOException {
+        Weights weights = Weights.load(file);
+        return () -> new NeuralEvaluator(weights);
+    }
+
+    /**
+     * Create an evaluator with its own activation buffers
+     * @param weights the network, which may be shared
+     */
+    public NeuralEvaluator(Weights weights) {
+        this.weights = weights;
+        this.hidden1 = new float[MAX_BATCH * weights.hidden1];
+        this.hidden2 = new float[weights.hidden2];
+    }
+
+    @Override
+    public int evaluate(Board board) {
+        boolean firstToMove = board.getNextPlayer() == board.PLAYER1;
+        oneMine[0] = board.getBitboard(firstToMove ? board.PLAYER1 : board.PLAYER2);
+        oneTheirs[0] = board.getBitboard(firstToMove ? board.PLAYER2 : board.PLAYER1);
+        oneFirst[0] = firstToMove;
+        evaluate(oneMine, oneTheirs, oneFirst, 1, oneScore);
+        return oneScore[0];
+    }
+
+    /**
+     * Score positions, MAX_BATCH at a time. Each layer runs over the whole batch before the next starts, so a
+     * layer's weights are read from cache for every position after the first.
+     */
+    @Override
+    public void evaluate(long[] mine, long[] theirs, boolean[] firstToMove, int count, int[] scores) {
+        for(int from=0; from<count; from+=MAX_BATCH) {
+            int n = Math.min(MAX_BATCH, count - from);
+            for(int p=0; p<n; p++) layer1(mine[from + p], theirs[from + p], firstToMove[from + p], p);
+            for(int p=0; p<n; p++) scores[from + p] = layers2And3(p);
+        }
+    }
+
+    /**
+     * Compute the first hidden layer for one position: the biases plus the weight row of every input that is set,
+     * then ReLU.
+     * @param mine the chips of the player to move
+     * @param theirs the opponent's chips
+     * @param firstToMove true if the player to move moved first
+     * @param slot the position's row in the activation buffer
+     */
+    private void layer1(long mine, long theirs, boolean firstToMove, int slot) {
+        int h = weights.hidden1;
+        float[] w = weights.w1;
+        int base = slot * h;
+        System.arraycopy(weights.b1, 0, hidden1, base, h);
+        for(long bits = mine; bits != 0; bits &= bits - 1) addRow(w, cell(bits), base, h);
+        for(long bits = theirs; bits != 0; bits &= bits - 1) addRow(w, CELLS + cell(bits), base, h);
+        if(firstToMove) addRow(w, 2 * CELLS, base, h);
+        for(int j=0; j<h; j+=SPECIES.length()) {
+            FloatVector.fromArray(SPECIES, hidden1, base + j).max(0f).intoArray(hidden1, base + j);
+        }
+    }
+
+    /**
+     * Add one input's weight row into a position's first-layer activations.
+     * @param w the first layer weights
+     * @param input the input index
+     * @param base the position's offset in the activation buffer
+     * @param h the padded layer size
+     */
+    private void addRow(float[] w, int input, int base, int h) {
+        int row = input * h;
+        for(int j=0; j<h; j+=SPECIES.length()) {
+            FloatVector.fromArray(SPECIES, hidden1, base + j)
+                    .add(FloatVector.fromArray(SPECIES, w, row + j))
+                    .intoArray(hidden1, base + j);
+        }
+    }
+
+    /**
+     * Compute the second hidden layer and the output for one position.
+     * @param slot the position's row in the first-layer activation buffer
+     * @return the score
+     */
+    private int layers2And3(int slot) {
+        int h1 = weights.hidden1, h2 = weights.hidden2;
+        float[] w2 = weights.w2, b2 = weights.b2;
+        int base = slot * h1;
+        System.arraycopy(b2, 0, hidden2, 0, h2);
+        for(int j=0; j<h1; j++) {
+            float activation = hidden1[base + j];
+            if(activation == 0f) continue;
+            FloatVector scale = FloatVector.broadcast(SPECIES, activation);
+            int row = j * h2;
+            for(int k=0; k<h2; k+=SPECIES.length()) {
+                FloatVector.fromArray(SPECIES, w2, row + k).fma(scale, FloatVector.fromArray(SPECIES, hidden2, k))
+                        .intoArray(hidden2, k);
+            }
+        }
+        for(int k=0; k<h2; k+=SPECIES.length()) {
+            FloatVector.fromArray(SPECIES, hidden2, k).max(0f).intoArray(hidden2, k);
+        }
+
+        FloatVector sum = FloatVector.zero(SPECIES);
+        for(int k=0; k<h2; k+=SPECIES.length()) {
+            sum = FloatVector.fromArray(SPECIES, weights.w3, k).fma(FloatVector.fromArray(SPECIES, hidden2, k), sum);
+        }
+        float out = (sum.reduceLanes(VectorOperators.ADD) + weights.b3) * weights.scale;
+        return Math.max(-AlphaBeta.WIN_SCORE / 2, Math.min(AlphaBeta.WIN_SCORE / 2, Math.round(out)));
+    }
+
+    /**
+     * Map a bitboard's lowest set bit to a cell index, column by column from the bottom.
+     * @param bits a non-empty bitboard
+     * @return the cell index, 0 to 41
+     */
+    private static int cell(long bits) {
+        int bit = Long.numberOfTrailingZeros(bits);
+        return (bit / 7) * 6 + bit % 7;
+    }
+}
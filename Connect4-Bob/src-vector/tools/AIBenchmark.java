@@ -0,0 +1,182 @@
+package tools;
+
+import ai.AlphaBeta;
+import ai.BatchEvaluator;
+import ai.Evaluator;
+import ai.MoveOrdering;
+import ai.NeuralEvaluator;
+import ai.ThreatEvaluator;
+import ai.TranspositionTable;
+import core.Board;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks AI components in isolation on a fixed, reproducible set of positions reached by seeded random play.
+ *
+ * Options:
+ *   --positions n    positions in the benchmark set (default 10000)
+ *   --seed s         seed for generating the set (default 42)
+ *   --rounds n       passes over the set when timing the evaluator (default 50)
+ *   --depth d        search depth for the search benchmark (default 7)
+ *   --searches n     positions from the set to search (default 200)
+ *   --weights file   NeuralEvaluator weights (default: random weights of the default shape, which time the same)
+ *
+ * The neural evaluator uses the Vector API, so this tool is built from src-vector, and compiling and running it need
+ * --add-modules jdk.incubator.vector.
+ *
+ * @version 1.0
+ */
+public class AIBenchmark {
+
+    /**
+     * Run the benchmarks from the command line.
+     * @param args see the class description
+     * @throws IOException if the weights can't be read
+     */
+    public static void main(String[] args) throws IOException {
+        int positions = 10000;
+        long seed = 42;
+        int rounds = 50;
+        int depth = 7;
+        int searches = 200;
+        String weightsFile = null;
+
+        for(int i=0; i<args.length; i++) {
+            switch(args[i]) {
+                case "--positions": positions = Integer.parseInt(args[++i]); break;
+                case "--seed":      seed = Long.parseLong(args[++i]); break;
+                case "--rounds":    rounds = Integer.parseInt(args[++i]); break;
+                case "--depth":     depth = Integer.parseInt(args[++i]); break;
+                case "--searches":  searches = Integer.parseInt(args[++i]); break;
+                case "--weights":   weightsFile = args[++i]; break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        List<Board> set = positionSet(positions, seed);
+        System.out.println("Benchmark set: " + set.size() + " positions, seed " + seed);
+
+        NeuralEvaluator.Weights weights = weightsFile != null ? NeuralEvaluator.Weights.load(Paths.get(weightsFile))
+                : NeuralEvaluator.Weights.random(64, 32, seed);
+
+        benchmarkEvaluator("threat", new ThreatEvaluator(), set, rounds);
+        benchmarkEvaluator("neural", new NeuralEvaluator(weights), set, rounds);
+        benchmarkBatch("neural", new NeuralEvaluator(weights), set, rounds);
+        List<Board> searchSet = set.subList(0, Math.min(searches, set.size()));
+        benchmarkSearch("plain", new AlphaBeta(new ThreatEvaluator(), null, null), searchSet, depth);
+        benchmarkSearch("ordered", new AlphaBeta(new ThreatEvaluator(), null, new MoveOrdering()), searchSet, depth);
+        benchmarkSearch("ordered+tt",
+                new AlphaBeta(new ThreatEvaluator(), new TranspositionTable(20), new MoveOrdering()), searchSet, depth);
+        benchmarkSearch("neural",
+                new AlphaBeta(new NeuralEvaluator(weights), new TranspositionTable(20), new MoveOrdering()), searchSet,
+                depth);
+    }
+
+    /**
+     * Generate positions by seeded random play, each stopped at a random ply while still in play.
+     * @param count the number of positions
+     * @param seed the random seed
+     * @return the positions
+     */
+    static List<Board> positionSet(int count, long seed) {
+        Random random = new Random(seed);
+        List<Board> set = new ArrayList<>(count);
+        while(set.size() < count) {
+            Board board = new Board();
+            int plies = 4 + random.nextInt(27);
+            for(int p=0; p<plies && board.isPlayable(); p++) {
+                int[] columns = board.getPlayableColumnsArray();
+                board.insertAt(board.getNextPlayer(), columns[random.nextInt(columns.length)]);
+            }
+            if(board.isPlayable()) set.add(board);
+        }
+        return set;
+    }
+
+    /**
+     * Time an evaluator over the benchmark set.
+     * @param name a label for the output
+     * @param evaluator the evaluator to time
+     * @param set the positions
+     * @param rounds passes over the set, after an equal number of warm-up passes
+     */
+    static void benchmarkEvaluator(String name, Evaluator evaluator, List<Board> set, int rounds) {
+        long checksum = 0;
+        for(int r=0; r<rounds; r++) for(Board b : set) checksum += evaluator.evaluate(b);
+
+        long start = System.nanoTime();
+        for(int r=0; r<rounds; r++) for(Board b : set) checksum += evaluator.evaluate(b);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long evaluations = (long) rounds * set.size();
+        System.out.println(String.format("Evaluator %-10s %12.0f evals/s  %8.1f ns/eval  (checksum %d)",
+                name, evaluations / seconds, seconds * 1e9 / evaluations, checksum));
+    }
+
+    /**
+     * Time a batch evaluator over the benchmark set, MAX_BATCH positions per call as AlphaBeta uses it.
+     * @param name a label for the output
+     * @param evaluator the evaluator to time
+     * @param set the positions
+     * @param rounds passes over the set, after an equal number of warm-up passes
+     */
+    static void benchmarkBatch(String name, BatchEvaluator evaluator, List<Board> set, int rounds) {
+        int n = set.size();
+        long[] mine = new long[n], theirs = new long[n];
+        boolean[] first = new boolean[n];
+        for(int i=0; i<n; i++) {
+            Board b = set.get(i);
+            first[i] = b.getNextPlayer() == b.PLAYER1;
+            mine[i] = b.getBitboard(first[i] ? b.PLAYER1 : b.PLAYER2);
+            theirs[i] = b.getBitboard(first[i] ? b.PLAYER2 : b.PLAYER1);
+        }
+        int batch = BatchEvaluator.MAX_BATCH;
+        long[] m = new long[batch], t = new long[batch];
+        boolean[] f = new boolean[batch];
+        int[] scores = new int[batch];
+
+        long checksum = 0;
+        long start = 0;
+        for(int r=0; r<rounds*2; r++) {
+            if(r == rounds) start = System.nanoTime();
+            for(int from=0; from<n; from+=batch) {
+                int count = Math.min(batch, n - from);
+                System.arraycopy(mine, from, m, 0, count);
+                System.arraycopy(theirs, from, t, 0, count);
+                System.arraycopy(first, from, f, 0, count);
+                evaluator.evaluate(m, t, f, count, scores);
+                for(int i=0; i<count; i++) checksum += scores[i];
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long evaluations = (long) rounds * n;
+        System.out.println(String.format("Evaluator %-10s %12.0f evals/s  %8.1f ns/eval  (batches of %d, checksum %d)",
+                name, evaluations / seconds, seconds * 1e9 / evaluations, batch, checksum / 2));
+    }
+
+    /**
+     * Search each position in a set and report node counts and speed.
+     * @param name a label for the output
+     * @param search the configured search
+     * @param set the positions
+     * @param depth the search depth
+     */
+    static void benchmarkSearch(String name, AlphaBeta search, List<Board> set, int depth) {
+        long nodes = 0;
+        long start = System.nanoTime();
+        for(Board b : set) {
+            search.search(b.copy(), depth);
+            nodes += search.getNodes();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("Search    %-10s depth %d: %d positions, %d nodes, %.0f nodes/s, %.2f ms/position",
+                name, depth, set.size(), nodes, nodes / seconds, seconds * 1e3 / set.size()));
+    }
+}
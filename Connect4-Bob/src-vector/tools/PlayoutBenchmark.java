@@ -0,0 +1,121 @@
+package tools;
+
+import ai.BatchPlayouts;
+import core.Board;
+import core.ComputerPlayer;
+import core.Connect4;
+
+/**
+ * Times random playouts two ways: one Connect4 game with two ComputerPlayers per playout, as simulation jobs have
+ * done so far, and BatchPlayouts. The starting positions are every move from a base position, and the win rates
+ * from both are printed side by side so they can be seen to agree.
+ *
+ * Options:
+ *   --moves s        base position as 1-based column digits (default empty board)
+ *   --playouts n     BatchPlayouts games per starting position (default 200000)
+ *   --games n        Connect4 games per starting position (default 10000)
+ *   --lanes n        games BatchPlayouts plays at once (default 256)
+ *   --seed s         BatchPlayouts random seed (default 42)
+ *
+ * The simulator uses the Vector API, so this tool is built from src-vector, and compiling and running it need
+ * --add-modules jdk.incubator.vector.
+ *
+ * @version 1.0
+ */
+public class PlayoutBenchmark {
+
+    /**
+     * Run the benchmark from the command line.
+     * @param args see the class description
+     */
+    public static void main(String[] args) {
+        String moves = "";
+        int playouts = 200000;
+        int games = 10000;
+        int lanes = 256;
+        long seed = 42;
+
+        for(int i=0; i<args.length; i++) {
+            switch(args[i]) {
+                case "--moves":    moves = args[++i]; break;
+                case "--playouts": playouts = Integer.parseInt(args[++i]); break;
+                case "--games":    games = Integer.parseInt(args[++i]); break;
+                case "--lanes":    lanes = Integer.parseInt(args[++i]); break;
+                case "--seed":     seed = Long.parseLong(args[++i]); break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Board base = new Board();
+        if(base.playMoves(moves) == -1 || !base.isPlayable()) {
+            System.out.println("Base position is illegal or already over: " + moves);
+            System.exit(1);
+        }
+        int[] columns = base.getPlayableColumnsArray();
+        Board[] starts = new Board[columns.length];
+        String[] startMoves = new String[columns.length];
+        for(int i=0; i<columns.length; i++) {
+            starts[i] = base.copy();
+            starts[i].insertAt(starts[i].getNextPlayer(), columns[i]);
+            startMoves[i] = moves + (columns[i] + 1);
+        }
+
+        // warm up both, then time them
+        loopGames(startMoves, Math.max(1, games / 10));
+        long start = System.nanoTime();
+        BatchPlayouts.Outcome[] looped = loopGames(startMoves, games);
+        double loopSeconds = (System.nanoTime() - start) / 1e9;
+
+        BatchPlayouts simulator = new BatchPlayouts(lanes, seed);
+        simulator.run(starts, Math.max(1, playouts / 10));
+        start = System.nanoTime();
+        BatchPlayouts.Outcome[] batched = simulator.run(starts, playouts);
+        double batchSeconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println("Start      Connect4 first/second/draw     BatchPlayouts first/second/draw");
+        for(int i=0; i<starts.length; i++) {
+            System.out.println(String.format("%-10s %s     %s", startMoves[i].isEmpty() ? "-" : startMoves[i],
+                    rates(looped[i]), rates(batched[i])));
+        }
+        double loopRate = (double) games * starts.length / loopSeconds;
+        double batchRate = (double) playouts * starts.length / batchSeconds;
+        System.out.println(String.format("Connect4 loop   %12.0f playouts/s", loopRate));
+        System.out.println(String.format("BatchPlayouts   %12.0f playouts/s  (%d lanes, %.1fx)",
+                batchRate, simulator.getLanes(), batchRate / loopRate));
+    }
+
+    /**
+     * Play random games the old way, one Connect4 per game.
+     * @param startMoves each starting position as 1-based column digits
+     * @param games games per starting position
+     * @return the results, one per starting position
+     */
+    static BatchPlayouts.Outcome[] loopGames(String[] startMoves, int games) {
+        BatchPlayouts.Outcome[] outcomes = new BatchPlayouts.Outcome[startMoves.length];
+        for(int s=0; s<startMoves.length; s++) {
+            outcomes[s] = new BatchPlayouts.Outcome();
+            for(int g=0; g<games; g++) {
+                ComputerPlayer p1 = new ComputerPlayer(), p2 = new ComputerPlayer();
+                Connect4 game = new Connect4(p1, p2);
+                for(int i=0; i<startMoves[s].length(); i++) game.makeMove(startMoves[s].charAt(i) - '1');
+                while(game.isPlayable()) game.makeMove(game.getCurrentPlayer().getMove());
+                if(game.isDraw()) outcomes[s].draws++;
+                else if(game.getWinner() == p1) outcomes[s].player1Wins++;
+                else outcomes[s].player2Wins++;
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * Format an outcome as percentages
+     * @param outcome the results
+     * @return first player, second player and draw percentages
+     */
+    private static String rates(BatchPlayouts.Outcome outcome) {
+        double total = Math.max(1, outcome.total());
+        return String.format("%5.1f%% %5.1f%% %5.1f%%", 100 * outcome.player1Wins / total,
+                100 * outcome.player2Wins / total, 100 * outcome.draws / total);
+    }
+}
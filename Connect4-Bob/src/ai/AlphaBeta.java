@@ -0,0 +1,336 @@
+package ai;
+
+import core.Board;
+
+/**
+ * A depth-limited negamax search with alpha-beta pruning over Board's make/unmake moves, run by iterative deepening.
+ * Positions at the depth limit are scored by a pluggable Evaluator; wins are scored so that quicker wins and slower
+ * losses are preferred. An optional transposition table (which may be shared between threads) and move ordering
+ * (killers, history and center-first, one per thread) cut the number of positions visited. An evaluator which
+ * implements BatchEvaluator is handed all the leaves below a node in one call.
+ * A searcher keeps statistics between calls, so use one per thread.
+ *
+ * @version 1.1
+ */
+public class AlphaBeta {
+    /** Score of a win on the next move; wins further away score one less per ply **/
+    public static final int WIN_SCORE = 1_000_000;
+    /** Larger than any score **/
+    static final int INFINITY = WIN_SCORE + 1;
+    /** Scores within this distance of WIN_SCORE are wins or losses a known number of plies away **/
+    private static final int WIN_RANGE = 100;
+
+    /** Scores positions at the depth limit **/
+    private final Evaluator evaluator;
+    /** Remembers results between positions and iterations, or null **/
+    private final TranspositionTable table;
+    /** Orders moves, or null to try columns left to right **/
+    private final MoveOrdering ordering;
+    /** Moves in plain left-to-right order, for searching without ordering **/
+    private final int[][] plainMoves = new int[MoveOrdering.MAX_PLY][7];
+    /** The evaluator, if it scores leaves faster in batches, or null **/
+    private final BatchEvaluator batchEvaluator;
+    /** Leaf batch buffers, reused at every node one ply above the depth limit **/
+    private final long[] leafMine = new long[BatchEvaluator.MAX_BATCH], leafTheirs = new long[BatchEvaluator.MAX_BATCH];
+    private final boolean[] leafFirst = new boolean[BatchEvaluator.MAX_BATCH];
+    private final int[] leafColumns = new int[BatchEvaluator.MAX_BATCH], leafScores = new int[BatchEvaluator.MAX_BATCH];
+
+    /** Positions visited by the last search **/
+    private long nodes;
+    /** Score of the move chosen by the last search **/
+    private int lastScore;
+
+    /**
+     * Create a searcher with its own small transposition table and move ordering
+     * @param evaluator scores positions at the depth limit
+     */
+    public AlphaBeta(Evaluator evaluator) {
+        this(evaluator, new TranspositionTable(16), new MoveOrdering());
+    }
+
+    /**
+     * Create a searcher
+     * @param evaluator scores positions at the depth limit
+     * @param table a transposition table, possibly shared with other searchers, or null for none
+     * @param ordering move ordering for this searcher's use only, or null to try columns left to right
+     */
+    public AlphaBeta(Evaluator evaluator, TranspositionTable table, MoveOrdering ordering) {
+        this.evaluator = evaluator;
+        this.batchEvaluator = evaluator instanceof BatchEvaluator ? (BatchEvaluator) evaluator : null;
+        this.table = table;
+        this.ordering = ordering;
+    }
+
+    /**
+     * Find the best move in a position which is still in play, deepening one ply at a time up to the given depth.
+     * @param board the position; it is searched in place and left as it was found
+     * @param depth the number of plies to search
+     * @return the best column, or -1 if there are no legal moves
+     */
+    public int search(Board board, int depth) {
+        nodes = 0;
+        if(ordering != null) ordering.age();
+        int best = -1;
+        for(int d = (table != null ? 1 : depth); d <= depth; d++) {
+            best = searchRoot(board, d, best);
+            if(Math.abs(lastScore) >= WIN_SCORE - WIN_RANGE) break;
+        }
+        return best;
+    }
+
+    /**
+     * Score every move in a position which is still in play. The position is searched first so that the
+     * transposition table and move ordering are warm, then each move is searched with a full window, so every score
+     * is exact rather than just a bound.
+     * @param board the position; it is searched in place and left as it was found
+     * @param depth the number of plies to search
+     * @param scores filled with each column's score for the player to move; full columns are left untouched
+     * @return the best column, or -1 if there are no legal moves
+     */
+    public int analyze(Board board, int depth, int[] scores) {
+        int best = search(board, depth);
+        int[] columns = board.getPlayableColumnsArray();
+        for(int column : columns) scores[column] = scoreMove(board, column, depth, -INFINITY, INFINITY, 0);
+        for(int column : columns) if(scores[column] > scores[best]) best = column;
+        if(best != -1) lastScore = scores[best];
+        return best;
+    }
+
+    /**
+     * Search every move at the root to a fixed depth.
+     * @param board the position
+     * @param depth the number of plies to search
+     * @param previousBest the best move from the previous iteration, tried first, or -1
+     * @return the best column
+     */
+    private int searchRoot(Board board, int depth, int previousBest) {
+        int count = orderMoves(board, 0, previousBest);
+        int[] moves = movesAt(0);
+        int best = -1;
+        int alpha = -INFINITY;
+        for(int i=0; i<count; i++) {
+            int column = moves[i];
+            int score = scoreMove(board, column, depth, alpha, INFINITY, 0);
+            if(score > alpha || best == -1) {
+                alpha = score;
+                best = column;
+            }
+        }
+        lastScore = alpha;
+        if(table != null && best != -1) store(board, depth, TranspositionTable.EXACT, alpha, best, 0);
+        return best;
+    }
+
+    /**
+     * Play a move, score it from the mover's point of view and take it back.
+     * @param board the position
+     * @param column the move to score
+     * @param depth plies remaining including this move
+     * @param alpha the score the mover is already guaranteed
+     * @param beta the score beyond which the opponent will avoid this line
+     * @param ply the distance of the position from the root
+     * @return the score of the move for the player making it
+     */
+    int scoreMove(Board board, int column, int depth, int alpha, int beta, int ply) {
+        board.insertAt(board.getNextPlayer(), column);
+        int score;
+        if(board.getWinner() != board.NONE) score = WIN_SCORE - ply;
+        else if(!board.isPlayable()) score = 0;
+        else score = -negamax(board, depth - 1, -beta, -alpha, ply + 1);
+        board.unmake(column);
+        return score;
+    }
+
+    /**
+     * Score a position which is still in play from the point of view of the player to move.
+     * @param board the position
+     * @param depth plies remaining
+     * @param alpha the score the player to move is already guaranteed
+     * @param beta the score beyond which the opponent will avoid this position
+     * @param ply the distance of the position from the root
+     * @return the position's score
+     */
+    private int negamax(Board board, int depth, int alpha, int beta, int ply) {
+        nodes++;
+
+        int ttMove = -1;
+        if(table != null) {
+            long entry = table.probe(board.getCanonicalKey());
+            if(entry != 0) {
+                ttMove = TranspositionTable.move(entry);
+                if(ttMove != -1 && board.isCanonicalMirrored()) ttMove = board.mirrorColumn(ttMove);
+                if(TranspositionTable.depth(entry) >= depth) {
+                    int score = fromTable(TranspositionTable.score(entry), ply);
+                    switch(TranspositionTable.bound(entry)) {
+                        case TranspositionTable.EXACT: return score;
+                        case TranspositionTable.LOWER: alpha = Math.max(alpha, score); break;
+                        case TranspositionTable.UPPER: beta = Math.min(beta, score); break;
+                    }
+                    if(alpha >= beta) return score;
+                }
+            }
+        }
+
+        if(depth == 0) return evaluator.evaluate(board);
+        if(depth == 1 && batchEvaluator != null) return leaves(board, beta, ply);
+
+        int originalAlpha = alpha;
+        int best = -INFINITY;
+        int bestMove = -1;
+        int count = orderMoves(board, ply, ttMove);
+        int[] moves = movesAt(ply);
+        for(int i=0; i<count; i++) {
+            int column = moves[i];
+            int score = scoreMove(board, column, depth, alpha, beta, ply);
+            if(score > best) {
+                best = score;
+                bestMove = column;
+                if(score > alpha) {
+                    alpha = score;
+                    if(alpha >= beta) {
+                        if(ordering != null) ordering.recordCutoff(board, ply, column, depth);
+                        break;
+                    }
+                }
+            }
+        }
+
+        if(table != null) {
+            int bound = best <= originalAlpha ? TranspositionTable.UPPER
+                    : best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+            store(board, depth, bound, best, bestMove, ply);
+        }
+        return best;
+    }
+
+    /**
+     * Score a position one ply above the depth limit by evaluating all of its leaves in one batch. Every leaf is
+     * scored, so there are no cutoffs among them, but the result is exact.
+     * @param board the position
+     * @param beta the score beyond which the opponent will avoid this position, for recording cutoffs
+     * @param ply the distance of the position from the root
+     * @return the position's score
+     */
+    private int leaves(Board board, int beta, int ply) {
+        char mover = board.getNextPlayer();
+        int best = -INFINITY;
+        int bestMove = -1;
+        int count = 0;
+        for(int column=0; column<board.getColumns(); column++) {
+            if(board.playableCellInColumn(column) == -1) continue;
+            board.insertAt(mover, column);
+            if(board.getWinner() != board.NONE) {
+                board.unmake(column);
+                best = WIN_SCORE - ply;
+                bestMove = column;
+                count = 0;
+                break;
+            }
+            if(!board.isPlayable()) {
+                if(0 > best) {
+                    best = 0;
+                    bestMove = column;
+                }
+            } else {
+                nodes++;
+                char next = board.getNextPlayer();
+                leafMine[count] = board.getBitboard(next);
+                leafTheirs[count] = board.getBitboard(mover);
+                leafFirst[count] = next == board.PLAYER1;
+                leafColumns[count++] = column;
+            }
+            board.unmake(column);
+        }
+
+        if(count > 0) {
+            batchEvaluator.evaluate(leafMine, leafTheirs, leafFirst, count, leafScores);
+            for(int i=0; i<count; i++) {
+                if(-leafScores[i] > best) {
+                    best = -leafScores[i];
+                    bestMove = leafColumns[i];
+                }
+            }
+        }
+
+        if(ordering != null && best >= beta) ordering.recordCutoff(board, ply, bestMove, 1);
+        if(table != null) store(board, 1, TranspositionTable.EXACT, best, bestMove, ply);
+        return best;
+    }
+
+    /**
+     * Fill the move buffer for a ply.
+     * @param board the position
+     * @param ply the distance from the root
+     * @param firstMove a move to try first, or -1
+     * @return the number of moves
+     */
+    private int orderMoves(Board board, int ply, int firstMove) {
+        if(ordering != null) return ordering.order(board, ply, firstMove);
+        int[] m = plainMoves[ply];
+        int count = 0;
+        if(firstMove != -1) m[count++] = firstMove;
+        for(int c=0; c<board.getColumns(); c++) {
+            if(c != firstMove && board.playableCellInColumn(c) != -1) m[count++] = c;
+        }
+        return count;
+    }
+
+    /**
+     * Get the move buffer filled by orderMoves for a ply
+     * @param ply the distance from the root
+     * @return the moves
+     */
+    private int[] movesAt(int ply) {
+        return ordering != null ? ordering.moves(ply) : plainMoves[ply];
+    }
+
+    /**
+     * Record a result in the transposition table in canonical orientation.
+     * @param board the position
+     * @param depth the depth searched
+     * @param bound EXACT, LOWER or UPPER
+     * @param score the score relative to the root
+     * @param move the best move found
+     * @param ply the distance from the root
+     */
+    private void store(Board board, int depth, int bound, int score, int move, int ply) {
+        if(move != -1 && board.isCanonicalMirrored()) move = board.mirrorColumn(move);
+        table.store(board.getCanonicalKey(), depth, bound, toTable(score, ply), move);
+    }
+
+    /**
+     * Make a win or loss score relative to the position rather than the root, for storing.
+     * @param score a score relative to the root
+     * @param ply the position's distance from the root
+     * @return the score to store
+     */
+    private static int toTable(int score, int ply) {
+        if(score >= WIN_SCORE - WIN_RANGE) return score + ply;
+        if(score <= -WIN_SCORE + WIN_RANGE) return score - ply;
+        return score;
+    }
+
+    /**
+     * Turn a stored win or loss score back into one relative to the root.
+     * @param score the stored score
+     * @param ply the position's distance from the root
+     * @return the score relative to the root
+     */
+    private static int fromTable(int score, int ply) {
+        if(score >= WIN_SCORE - WIN_RANGE) return score - ply;
+        if(score <= -WIN_SCORE + WIN_RANGE) return score + ply;
+        return score;
+    }
+
+    /**
+     * Get the number of positions visited by the last search
+     * @return the node count
+     */
+    public long getNodes() { return nodes; }
+
+    /**
+     * Get the score of the move chosen by the last search
+     * @return the score from the point of view of the player who was to move
+     */
+    public int getLastScore() { return lastScore; }
+}
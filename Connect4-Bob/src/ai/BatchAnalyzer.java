@@ -0,0 +1,153 @@
+package ai;
+
+import core.Board;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Scores large numbers of positions outside of any game. Positions are grouped into batches and searched on a pool
+ * of worker threads; every worker has its own searcher and move ordering, but they all share one transposition
+ * table, so positions from the same opening reuse each other's work. Results come back in input order, and only a
+ * bounded window of batches is in flight at once, so an input stream of any length can be analyzed in constant
+ * memory.
+ *
+ * @version 1.0
+ */
+public class BatchAnalyzer implements AutoCloseable {
+    /** Marks a full column in Analysis scores **/
+    public static final int NO_SCORE = Integer.MIN_VALUE;
+    /** The bestMove of a position whose moves can't be played, such as into a full column or after a win **/
+    public static final int INVALID = -2;
+
+    /**
+     * The result of analyzing one position.
+     */
+    public static class Analysis {
+        /** The position, as 1-based column digits **/
+        public final String moves;
+        /** Each column's score for the player to move (NO_SCORE if full), or null for a finished or invalid
+         * position **/
+        public final int[] scores;
+        /** The best column, 0-based, -1 if the game is over, or INVALID if the moves can't be played **/
+        public final int bestMove;
+
+        /**
+         * Create a result
+         * @param moves the position
+         * @param scores the score of each column, or null
+         * @param bestMove the best column, -1 or INVALID
+         */
+        Analysis(String moves, int[] scores, int bestMove) {
+            this.moves = moves;
+            this.scores = scores;
+            this.bestMove = bestMove;
+        }
+
+        /**
+         * Check whether the position could be played at all
+         * @return false if its moves aren't a legal game
+         */
+        public boolean isValid() { return bestMove != INVALID; }
+    }
+
+    /** Plies to search each position **/
+    private final int depth;
+    /** Positions per task **/
+    private final int batchSize;
+    /** Batches which may be queued or running at once **/
+    private final int window;
+    /** Shared by every worker **/
+    private final TranspositionTable table;
+    /** The workers **/
+    private final ExecutorService pool;
+    /** Each worker's searcher **/
+    private final ThreadLocal<AlphaBeta> searchers;
+
+    /**
+     * Start an analyzer.
+     * @param threads the number of worker threads
+     * @param depth plies to search each position
+     * @param batchSize positions per task
+     * @param tableSizeBits log2 of the number of shared transposition table entries
+     */
+    public BatchAnalyzer(int threads, int depth, int batchSize, int tableSizeBits) {
+        this.depth = depth;
+        this.batchSize = batchSize;
+        this.window = threads * 4;
+        this.table = new TranspositionTable(tableSizeBits);
+        this.searchers = ThreadLocal.withInitial(() -> new AlphaBeta(new ThreatEvaluator(), table, new MoveOrdering()));
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "analyzer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Analyze a single position on the calling thread.
+     * @param moves the position as 1-based column digits
+     * @return the analysis
+     */
+    public Analysis analyze(String moves) {
+        Board board = new Board();
+        if(board.playMoves(moves) == -1) return new Analysis(moves, null, INVALID);
+        if(!board.isPlayable()) return new Analysis(moves, null, -1);
+        int[] scores = new int[board.getColumns()];
+        Arrays.fill(scores, NO_SCORE);
+        int best = searchers.get().analyze(board, depth, scores);
+        return new Analysis(moves, scores, best);
+    }
+
+    /**
+     * Analyze a stream of positions, handing each result to a sink in input order. The input is read lazily, so it
+     * may be longer than would fit in memory; the sink is called on the calling thread.
+     * @param positions positions as 1-based column digits
+     * @param sink receives each result
+     * @throws InterruptedException if interrupted while waiting for results
+     */
+    public void analyze(Iterator<String> positions, Consumer<Analysis> sink) throws InterruptedException {
+        ArrayDeque<Future<List<Analysis>>> inFlight = new ArrayDeque<>();
+        while(positions.hasNext()) {
+            List<String> batch = new ArrayList<>(batchSize);
+            while(batch.size() < batchSize && positions.hasNext()) batch.add(positions.next());
+            inFlight.add(pool.submit(() -> {
+                List<Analysis> results = new ArrayList<>(batch.size());
+                for(String moves : batch) results.add(analyze(moves));
+                return results;
+            }));
+            if(inFlight.size() >= window) drain(inFlight.poll(), sink);
+        }
+        while(!inFlight.isEmpty()) drain(inFlight.poll(), sink);
+    }
+
+    /**
+     * Wait for a batch and pass its results on.
+     * @param batch the batch's results
+     * @param sink receives each result
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static void drain(Future<List<Analysis>> batch, Consumer<Analysis> sink) throws InterruptedException {
+        try {
+            for(Analysis analysis : batch.get()) sink.accept(analysis);
+        } catch(ExecutionException ex) {
+            throw new IllegalStateException("Analysis failed", ex.getCause());
+        }
+    }
+
+    /**
+     * Stop the worker threads.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,23 @@
+package ai;
+
+/**
+ * An evaluator which is cheaper per position when given several positions at once, such as a neural network whose
+ * weights stay in cache across the batch. AlphaBeta hands such an evaluator all the leaves below a node one ply from
+ * the depth limit in a single call.
+ *
+ * @version 1.0
+ */
+public interface BatchEvaluator extends Evaluator {
+    /** The most positions AlphaBeta passes in one call: one per column **/
+    int MAX_BATCH = 7;
+
+    /**
+     * Score a batch of positions which are still in play, given as bitboards.
+     * @param mine for each position, the chips of the player to move
+     * @param theirs for each position, the opponent's chips
+     * @param firstToMove for each position, true if the player to move is the one who moved first
+     * @param count the number of positions
+     * @param scores receives each position's score from the point of view of its player to move
+     */
+    void evaluate(long[] mine, long[] theirs, boolean[] firstToMove, int count, int[] scores);
+}
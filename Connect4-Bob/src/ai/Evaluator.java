@@ -0,0 +1,18 @@
+package ai;
+
+import core.Board;
+
+/**
+ * A static evaluation of a position, used at the leaves of a depth-limited search.
+ *
+ * @version 1.0
+ */
+public interface Evaluator {
+    /**
+     * Score a position which is still in play.
+     * @param board the position, which must not be modified
+     * @return a score from the point of view of the player to move; positive is good for them, and magnitudes stay
+     * well below AlphaBeta.WIN_SCORE
+     */
+    int evaluate(Board board);
+}
@@ -0,0 +1,114 @@
+package ai;
+
+import core.Board;
+
+import java.util.Arrays;
+
+/**
+ * Orders moves for alpha-beta search: the transposition table's best move first, then this ply's killer moves, then
+ * by history score, with ties broken center-first. Everything lives in primitive arrays allocated once and reused
+ * across searches, so ordering allocates nothing per node. Like the search that owns it, one instance per thread.
+ *
+ * @version 1.0
+ */
+public class MoveOrdering {
+    /** Deepest ply the buffers cover **/
+    static final int MAX_PLY = 64;
+    /** Columns on the board **/
+    private static final int COLUMNS = 7;
+    /** Columns from the center outwards **/
+    static final int[] CENTER_FIRST = { 3, 2, 4, 1, 5, 0, 6 };
+
+    /** Ordering keys that outrank any history score **/
+    private static final int TT_MOVE = 1 << 30, KILLER_1 = 1 << 29, KILLER_2 = 1 << 28;
+
+    /** Per ply, the last two moves which caused a cutoff **/
+    private final int[][] killers = new int[MAX_PLY][2];
+    /** Per side to move and column, accumulated cutoff credit **/
+    private final int[][] history = new int[2][COLUMNS];
+    /** Per ply, the ordered moves **/
+    private final int[][] moves = new int[MAX_PLY][COLUMNS];
+    /** Per ply, the ordering key of each move **/
+    private final int[][] keys = new int[MAX_PLY][COLUMNS];
+
+    /**
+     * Create an ordering with empty tables
+     */
+    public MoveOrdering() {
+        clear();
+    }
+
+    /**
+     * Forget killers and history, e.g. before searching an unrelated position.
+     */
+    public void clear() {
+        for(int[] k : killers) { k[0] = -1; k[1] = -1; }
+        for(int[] h : history) Arrays.fill(h, 0);
+    }
+
+    /**
+     * Halve the history scores, so older searches count for less than recent ones.
+     */
+    public void age() {
+        for(int[] h : history) for(int c=0; c<COLUMNS; c++) h[c] >>= 1;
+    }
+
+    /**
+     * Order the playable moves of a position into the buffer for its ply.
+     * @param board the position
+     * @param ply the distance from the root
+     * @param ttMove the transposition table's best move for the position, or -1
+     * @return the number of moves, which are then available from moves(ply)
+     */
+    public int order(Board board, int ply, int ttMove) {
+        int[] m = moves[ply], k = keys[ply];
+        int[] h = history[board.getNextPlayer() == board.PLAYER1 ? 0 : 1];
+        int killer1 = killers[ply][0], killer2 = killers[ply][1];
+        int count = 0;
+        for(int rank=0; rank<COLUMNS; rank++) {
+            int column = CENTER_FIRST[rank];
+            if(board.playableCellInColumn(column) == -1) continue;
+            int key;
+            if(column == ttMove) key = TT_MOVE;
+            else if(column == killer1) key = KILLER_1;
+            else if(column == killer2) key = KILLER_2;
+            else key = h[column];
+
+            // Insertion sort, stable so equal keys stay center-first
+            int i = count++;
+            while(i > 0 && k[i-1] < key) {
+                m[i] = m[i-1];
+                k[i] = k[i-1];
+                i--;
+            }
+            m[i] = column;
+            k[i] = key;
+        }
+        return count;
+    }
+
+    /**
+     * Get the buffer of ordered moves for a ply, as filled by the last call to order() for that ply.
+     * @param ply the distance from the root
+     * @return the moves, best first
+     */
+    public int[] moves(int ply) { return moves[ply]; }
+
+    /**
+     * Credit a move which caused a beta cutoff.
+     * @param board the position, with the player who made the move to move
+     * @param ply the distance from the root
+     * @param column the move
+     * @param depth the remaining depth at the cutoff; deeper cutoffs earn more history
+     */
+    public void recordCutoff(Board board, int ply, int column, int depth) {
+        int[] k = killers[ply];
+        if(k[0] != column) {
+            k[1] = k[0];
+            k[0] = column;
+        }
+        int[] h = history[board.getNextPlayer() == board.PLAYER1 ? 0 : 1];
+        h[column] += depth * depth;
+        if(h[column] > KILLER_2 / 2) age();
+    }
+}
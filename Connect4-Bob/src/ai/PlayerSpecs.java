@@ -0,0 +1,114 @@
+package ai;
+
+import core.ComputerPlayer;
+import core.Player;
+import engine.EnginePool;
+import engine.ExternalEnginePlayer;
+import metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Turns short player descriptions used on tool command lines into player factories. Each factory returns a fresh
+ * player, so every game (and every thread) gets its own instance.
+ *
+ * Known specs:
+ *   random            ComputerPlayer, uniformly random legal moves
+ *   search:d          SearchPlayer, alpha-beta to depth d with the threat evaluator (default depth 6)
+ *   search:d:file     SearchPlayer as above, playing perfectly from the tablebase in file once the game reaches it
+ *   neural:d:file     SearchPlayer to depth d with a NeuralEvaluator using the weights in file; needs the classes
+ *                     built from src-vector on the class path and --add-modules jdk.incubator.vector
+ *   engine:command    ExternalEnginePlayer, asking a pool of engine processes started with the given command line;
+ *                     the pool size comes from connect4.engine.pool (default: available processors) and the time
+ *                     per move in milliseconds from connect4.engine.movetime (default 100)
+ *
+ * @version 1.0
+ */
+public final class PlayerSpecs {
+    /** Built from src-vector, so it is looked up by name rather than linked against **/
+    private static final String NEURAL_EVALUATOR = "ai.NeuralEvaluator";
+
+    /** Static helpers only **/
+    private PlayerSpecs() {}
+
+    /**
+     * Build a factory for the described player.
+     * @param spec a player description such as "random"
+     * @return a supplier of new players matching the spec
+     * @throws IllegalArgumentException if the spec isn't recognized
+     */
+    public static Supplier<Player> parse(String spec) {
+        return parse(spec, new ServerMetrics());
+    }
+
+    /**
+     * Build a factory for the described player, recording engine pool statistics in the given metrics.
+     * @param spec a player description such as "random"
+     * @param metrics where engine players record latency and pool saturation
+     * @return a supplier of new players matching the spec
+     * @throws IllegalArgumentException if the spec isn't recognized
+     */
+    public static Supplier<Player> parse(String spec, ServerMetrics metrics) {
+        String[] parts = spec.split(":", 3);
+        switch(parts[0]) {
+            case "random":
+                return ComputerPlayer::new;
+            case "search":
+                int depth = parts.length > 1 ? Integer.parseInt(parts[1]) : 6;
+                if(parts.length < 3) return () -> new SearchPlayer(depth);
+                Tablebase tablebase;
+                try {
+                    tablebase = new Tablebase(Paths.get(parts[2]));
+                } catch(IOException e) {
+                    throw new IllegalArgumentException("Can't open tablebase " + parts[2], e);
+                }
+                return () -> new SearchPlayer(depth, new ThreatEvaluator(), tablebase);
+            case "neural":
+                if(parts.length < 3) throw new IllegalArgumentException("No weight file in " + spec);
+                int neuralDepth = Integer.parseInt(parts[1]);
+                Supplier<?> evaluators = neuralEvaluators(Paths.get(parts[2]));
+                return () -> new SearchPlayer(neuralDepth, (Evaluator) evaluators.get());
+            case "engine":
+                if(parts.length < 2) throw new IllegalArgumentException("No engine command in " + spec);
+                String command = spec.substring("engine:".length());
+                int size = Integer.getInteger("connect4.engine.pool", Runtime.getRuntime().availableProcessors());
+                long moveTime = Long.getLong("connect4.engine.movetime", 100);
+                EnginePool pool;
+                try {
+                    pool = new EnginePool(Arrays.asList(command.trim().split("\\s+")), size, moveTime, metrics);
+                } catch(IOException e) {
+                    throw new IllegalArgumentException("Can't start engine " + command, e);
+                }
+                return () -> new ExternalEnginePlayer(pool);
+            default:
+                throw new IllegalArgumentException("Unknown player spec " + spec);
+        }
+    }
+
+    /**
+     * Load a weight file through NeuralEvaluator.factory(). NeuralEvaluator uses the Vector API, an incubator module,
+     * so it is kept out of src and found by name here; nothing else needs the module to build or run.
+     * @param weights the weight file
+     * @return a supplier of new NeuralEvaluators sharing the weights
+     * @throws IllegalArgumentException if NeuralEvaluator isn't available or the weights can't be loaded
+     */
+    private static Supplier<?> neuralEvaluators(Path weights) {
+        try {
+            Method factory = Class.forName(NEURAL_EVALUATOR).getMethod("factory", Path.class);
+            return (Supplier<?>) factory.invoke(null, weights);
+        } catch(ClassNotFoundException | LinkageError e) {
+            throw new IllegalArgumentException("Neural players need the classes built from src-vector and "
+                    + "--add-modules jdk.incubator.vector", e);
+        } catch(InvocationTargetException e) {
+            throw new IllegalArgumentException("Can't load weights " + weights, e.getCause());
+        } catch(ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Can't load weights " + weights, e);
+        }
+    }
+}
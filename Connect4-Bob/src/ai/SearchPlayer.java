@@ -0,0 +1,74 @@
+package ai;
+
+import core.Board;
+import core.ComputerPlayer;
+import metrics.MoveSelectionEvent;
+
+/**
+ * A computer player which chooses moves with a depth-limited alpha-beta search and a pluggable static evaluator.
+ *
+ * @version 1.0
+ */
+public class SearchPlayer extends ComputerPlayer {
+
+    /** Plies to search for each move **/
+    private final int depth;
+    /** The search, reused from move to move **/
+    private final AlphaBeta search;
+    /** Perfect results for the endgame, or null **/
+    private final Tablebase tablebase;
+
+    /**
+     * Create a player with the default threat evaluator
+     * @param depth plies to search for each move
+     */
+    public SearchPlayer(int depth) {
+        this(depth, new ThreatEvaluator());
+    }
+
+    /**
+     * Create a player with a particular evaluator
+     * @param depth plies to search for each move
+     * @param evaluator scores positions at the depth limit
+     */
+    public SearchPlayer(int depth, Evaluator evaluator) {
+        this(depth, evaluator, null);
+    }
+
+    /**
+     * Create a player which plays perfectly once the game reaches its tablebase
+     * @param depth plies to search for each move before the tablebase applies
+     * @param evaluator scores positions at the depth limit
+     * @param tablebase endgame results to play from, or null
+     */
+    public SearchPlayer(int depth, Evaluator evaluator, Tablebase tablebase) {
+        super();
+        this.depth = depth;
+        this.search = new AlphaBeta(evaluator);
+        this.tablebase = tablebase;
+        setName("Computer player (depth " + depth + ")");
+    }
+
+    /**
+     * Play from the tablebase when every move's result is known there; otherwise search the current position and
+     * return the best column found.
+     * @return an integer representing the column number
+     */
+    @Override
+    public int getMove() {
+        MoveSelectionEvent event = new MoveSelectionEvent();
+        event.begin();
+        Board board = getBoard().copy();
+        int choice = tablebase == null ? -1 : tablebase.bestMove(board);
+        if(choice == -1) choice = search.search(board, depth);
+        if(event.shouldCommit()) {
+            event.sessionId = getSessionId();
+            event.ply = board.getMoveCount();
+            event.depth = depth;
+            event.nodes = search.getNodes();
+            event.column = choice;
+            event.commit();
+        }
+        return choice;
+    }
+}
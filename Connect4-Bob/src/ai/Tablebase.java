@@ -0,0 +1,293 @@
+package ai;
+
+import core.Board;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only, memory-mapped endgame tablebase giving the perfect result of positions with few empty cells. Results
+ * are packed at 2 bits per slot and found through a perfect hash of canonical position keys: one
+ * lookup of the key's bucket seed, one of a 16-bit fingerprint and one of the result, so a probe is O(1) and touches
+ * at most three cache lines. The fingerprint rejects all but 1 in 65536 positions which were never in the table, such
+ * as those off the root's opening line; a wrong answer for one of those would be played as if it were perfect.
+ *
+ * File layout (big-endian): magic, version, maximum empty cells, bucket count, slot count, position count, then a
+ * 16-bit seed per bucket, a 16-bit fingerprint per slot and the 2-bit results.
+ *
+ * Tablebases are built by tools.TablebaseGenerator.
+ *
+ * @version 1.0
+ */
+public class Tablebase {
+    /** No result is known for the position **/
+    public static final int UNKNOWN = 0;
+    /** The player to move wins with perfect play **/
+    public static final int WIN = 1;
+    /** The game is drawn with perfect play **/
+    public static final int DRAW = 2;
+    /** The player to move loses with perfect play **/
+    public static final int LOSS = 3;
+
+    /** Identifies a tablebase file **/
+    static final int MAGIC = 0x43345442; // "C4TB"
+    /** File format version **/
+    static final int VERSION = 2;
+    /** Bytes before the seeds **/
+    static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 4 + 8;
+
+    /** The mapped file **/
+    private final MappedByteBuffer buffer;
+    /** Positions with more empty cells than this are never in the table **/
+    private final int maxEmpty;
+    /** Number of hash buckets **/
+    private final int buckets;
+    /** Number of result slots **/
+    private final int slots;
+    /** Number of positions stored **/
+    private final long positions;
+    /** Offset of the fingerprints in the file **/
+    private final int fingerprintOffset;
+    /** Offset of the packed results in the file **/
+    private final int resultOffset;
+
+    /**
+     * Map a tablebase file.
+     * @param file the file written by TablebaseGenerator
+     * @throws IOException if the file can't be read or isn't a tablebase
+     */
+    public Tablebase(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) throw new IOException(file + " is not a tablebase");
+        maxEmpty = buffer.getInt(8);
+        buckets = buffer.getInt(12);
+        slots = buffer.getInt(16);
+        positions = buffer.getLong(20);
+        fingerprintOffset = HEADER_SIZE + 2 * buckets;
+        resultOffset = fingerprintOffset + 2 * slots;
+    }
+
+    /**
+     * Get the largest number of empty cells a stored position can have
+     * @return the empty-cell limit
+     */
+    public int getMaxEmpty() { return maxEmpty; }
+
+    /**
+     * Get the number of positions stored
+     * @return the position count
+     */
+    public long getPositions() { return positions; }
+
+    /**
+     * Look up the result of a position which is still in play.
+     * @param board the position
+     * @return WIN, DRAW or LOSS for the player to move, or UNKNOWN if the position isn't in the table
+     */
+    public int probe(Board board) {
+        if(board.getColumns() * board.getRows() - board.getMoveCount() > maxEmpty) return UNKNOWN;
+        return probe(board.getCanonicalKey());
+    }
+
+    /**
+     * Look up the result of a position by canonical key.
+     * @param key the position's canonical key
+     * @return WIN, DRAW or LOSS for the player to move, or UNKNOWN if the position isn't in the table
+     */
+    public int probe(long key) {
+        int seed = buffer.getShort(HEADER_SIZE + 2 * bucket(key, buckets)) & 0xFFFF;
+        int slot = slot(key, seed, slots);
+        if((buffer.getShort(fingerprintOffset + 2 * slot) & 0xFFFF) != fingerprint(key)) return UNKNOWN;
+        return (buffer.get(resultOffset + (slot >>> 2)) >>> ((slot & 3) * 2)) & 3;
+    }
+
+    /**
+     * Choose a move with the best result, if the position's children are all known.
+     * @param board the position, which is left as it was found
+     * @return the best column, or -1 if any move's result is unknown
+     */
+    public int bestMove(Board board) {
+        int best = -1, bestResult = 0;
+        for(int column : board.getPlayableColumnsArray()) {
+            board.insertAt(board.getNextPlayer(), column);
+            int result;
+            if(board.getWinner() != board.NONE) result = WIN;
+            else if(!board.isPlayable()) result = DRAW;
+            else result = negate(probe(board));
+            board.unmake(column);
+
+            if(result == UNKNOWN) return -1;
+            if(best == -1 || rank(result) > rank(bestResult)) {
+                best = column;
+                bestResult = result;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Turn a result for one player into the result for the other.
+     * @param result WIN, DRAW, LOSS or UNKNOWN
+     * @return the opponent's result
+     */
+    public static int negate(int result) {
+        switch(result) {
+            case WIN:  return LOSS;
+            case LOSS: return WIN;
+            default:   return result;
+        }
+    }
+
+    /**
+     * Order results from worst to best.
+     * @param result WIN, DRAW or LOSS
+     * @return a number which is higher for better results
+     */
+    static int rank(int result) {
+        switch(result) {
+            case WIN:  return 3;
+            case DRAW: return 2;
+            case LOSS: return 1;
+            default:   return 0;
+        }
+    }
+
+    /**
+     * Write a tablebase file, building its perfect hash.
+     * @param file where to write
+     * @param maxEmpty the empty-cell limit of the stored positions
+     * @param keys canonical keys of the positions, without duplicates
+     * @param results the result of each position
+     * @throws IOException if the file can't be written
+     * @throws IllegalStateException if no perfect hash could be found
+     */
+    public static void write(Path file, int maxEmpty, long[] keys, byte[] results) throws IOException {
+        int n = keys.length;
+        int buckets = Math.max(1, n / 4);
+        int[] seeds = null;
+        int slots = 0;
+        for(double load = 0.8; seeds == null && load > 0.4; load -= 0.1) {
+            slots = Math.max(4, (int) Math.ceil(n / load));
+            seeds = buildHash(keys, buckets, slots);
+        }
+        if(seeds == null) throw new IllegalStateException("Could not build a perfect hash for " + n + " positions");
+
+        int fingerprintOffset = HEADER_SIZE + 2 * buckets;
+        int resultOffset = fingerprintOffset + 2 * slots;
+        int size = resultOffset + (slots + 3) / 4;
+        ByteBuffer out = ByteBuffer.allocate(size).order(ByteOrder.BIG_ENDIAN);
+        out.putInt(MAGIC).putInt(VERSION).putInt(maxEmpty).putInt(buckets).putInt(slots).putLong(n);
+        for(int seed : seeds) out.putShort((short) seed);
+        for(int i=0; i<n; i++) {
+            long key = keys[i];
+            int slot = slot(key, seeds[bucket(key, buckets)], slots);
+            out.putShort(fingerprintOffset + 2 * slot, (short) fingerprint(key));
+            int at = resultOffset + (slot >>> 2);
+            out.put(at, (byte) (out.get(at) | (results[i] & 3) << ((slot & 3) * 2)));
+        }
+
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.rewind();
+            while(out.hasRemaining()) channel.write(out);
+        }
+    }
+
+    /**
+     * Find a seed for every bucket such that all keys land in distinct slots, placing the largest buckets first.
+     * @param keys the keys to place
+     * @param buckets the number of buckets
+     * @param slots the number of slots
+     * @return the seed of each bucket, or null if some bucket couldn't be placed
+     */
+    private static int[] buildHash(long[] keys, int buckets, int slots) {
+        // Counting sort of key indexes by bucket
+        int[] start = new int[buckets + 1];
+        for(long key : keys) start[bucket(key, buckets) + 1]++;
+        for(int b=0; b<buckets; b++) start[b+1] += start[b];
+        int[] members = new int[keys.length];
+        int[] fill = start.clone();
+        for(int i=0; i<keys.length; i++) members[fill[bucket(keys[i], buckets)]++] = i;
+
+        // Buckets from largest to smallest
+        int maxSize = 0;
+        for(int b=0; b<buckets; b++) maxSize = Math.max(maxSize, start[b+1] - start[b]);
+        int[] order = new int[buckets];
+        int o = 0;
+        for(int size=maxSize; size>0; size--)
+            for(int b=0; b<buckets; b++) if(start[b+1] - start[b] == size) order[o++] = b;
+
+        int[] seeds = new int[buckets];
+        boolean[] taken = new boolean[slots];
+        int[] placed = new int[maxSize];
+        for(int k=0; k<o; k++) {
+            int b = order[k];
+            boolean found = false;
+            for(int seed=0; seed<=0xFFFF && !found; seed++) {
+                int count = 0;
+                boolean ok = true;
+                for(int m=start[b]; m<start[b+1] && ok; m++) {
+                    int slot = slot(keys[members[m]], seed, slots);
+                    if(taken[slot]) ok = false;
+                    for(int p=0; p<count && ok; p++) if(placed[p] == slot) ok = false;
+                    placed[count++] = slot;
+                }
+                if(ok) {
+                    for(int p=0; p<count; p++) taken[placed[p]] = true;
+                    seeds[b] = seed;
+                    found = true;
+                }
+            }
+            if(!found) return null;
+        }
+        return seeds;
+    }
+
+    /**
+     * Scramble a key; the SplitMix64 finalizer.
+     * @param x a value
+     * @return a well-mixed hash of it
+     */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    /**
+     * Find a key's bucket.
+     * @param key a canonical key
+     * @param buckets the number of buckets
+     * @return the bucket index
+     */
+    private static int bucket(long key, int buckets) {
+        return (int) Long.remainderUnsigned(mix(key), buckets);
+    }
+
+    /**
+     * Find a key's slot given its bucket's seed.
+     * @param key a canonical key
+     * @param seed the seed of the key's bucket
+     * @param slots the number of slots
+     * @return the slot index
+     */
+    private static int slot(long key, int seed, int slots) {
+        return (int) Long.remainderUnsigned(mix(key ^ (0x9E3779B97F4A7C15L * (seed + 1))), slots);
+    }
+
+    /**
+     * Compute a key's fingerprint, independent of its bucket and slot.
+     * @param key a canonical key
+     * @return 16 bits identifying the key
+     */
+    private static int fingerprint(long key) {
+        return (int) (mix(key + 0x632BE59BD9B4E019L) >>> 48);
+    }
+}
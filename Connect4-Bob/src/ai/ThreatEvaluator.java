@@ -0,0 +1,138 @@
+package ai;
+
+import core.Board;
+
+import java.util.Arrays;
+
+/**
+ * A static evaluator which scores open lines, threats and their odd/even parity, and center control. All 69 winning
+ * lines are precomputed as bitmasks over Board's bitboard layout, so an evaluation is a fixed number of mask-and-count
+ * operations rather than directional walks over the grid.
+ *
+ * A threat is an empty cell which would complete four for one player. The first player can usually only cash in
+ * threats on odd rows (counting from 1 at the bottom) and the second player on even rows, so threats on a player's
+ * own parity are worth more.
+ *
+ * @version 1.0
+ */
+public class ThreatEvaluator implements Evaluator {
+    /** Board dimensions, matching Board **/
+    static final int COLUMNS = 7, ROWS = 6;
+    /** Bits per column in Board's bitboard layout **/
+    static final int COLUMN_BITS = 7;
+
+    /** Every winning line as a bitmask **/
+    static final long[] LINES;
+    /** For each bit position, how many winning lines pass through it; a measure of how central it is **/
+    static final int[] CELL_WEIGHT;
+    /** The bottom cell of every column **/
+    static final long BOTTOM;
+    /** Every cell on the board **/
+    static final long BOARD_MASK;
+    /** Cells on rows 1, 3 and 5, counting from 1 at the bottom **/
+    static final long ODD_ROWS;
+
+    /** Score for each own chip in a line the opponent hasn't blocked, by number of chips **/
+    private static final int[] LINE_SCORE = { 0, 1, 4, 16, 0 };
+    /** Score for a threat on the owner's own parity **/
+    private static final int GOOD_THREAT = 60;
+    /** Score for a threat on the other parity **/
+    private static final int OTHER_THREAT = 25;
+    /** Score for the player to move having a threat they can play right now **/
+    private static final int IMMEDIATE_WIN = 5000;
+    /** Score against the player to move when the opponent has two threats they can't both block **/
+    private static final int DOUBLE_THREAT = 2500;
+
+    static {
+        int[][] directions = { { 1, 0 }, { 0, 1 }, { 1, 1 }, { 1, -1 } };
+        long[] lines = new long[100];
+        int count = 0;
+        for(int[] d : directions) {
+            for(int c=0; c<COLUMNS; c++) {
+                for(int r=0; r<ROWS; r++) {
+                    int endC = c + 3 * d[0], endR = r + 3 * d[1];
+                    if(endC < 0 || endC >= COLUMNS || endR < 0 || endR >= ROWS) continue;
+                    long line = 0;
+                    for(int i=0; i<4; i++) line |= bit(c + i * d[0], r + i * d[1]);
+                    lines[count++] = line;
+                }
+            }
+        }
+        LINES = Arrays.copyOf(lines, count);
+
+        CELL_WEIGHT = new int[COLUMNS * COLUMN_BITS];
+        long bottom = 0, all = 0, odd = 0;
+        for(int c=0; c<COLUMNS; c++) {
+            bottom |= bit(c, 0);
+            for(int r=0; r<ROWS; r++) {
+                all |= bit(c, r);
+                if(r % 2 == 0) odd |= bit(c, r);
+                int through = 0;
+                for(long line : LINES) if((line & bit(c, r)) != 0) through++;
+                CELL_WEIGHT[c * COLUMN_BITS + r] = through;
+            }
+        }
+        BOTTOM = bottom;
+        BOARD_MASK = all;
+        ODD_ROWS = odd;
+    }
+
+    /**
+     * Get the bit for a cell in Board's bitboard layout
+     * @param column the cell's column
+     * @param row the cell's row, 0 at the bottom
+     * @return a single-bit mask
+     */
+    static long bit(int column, int row) {
+        return 1L << (column * COLUMN_BITS + row);
+    }
+
+    @Override
+    public int evaluate(Board board) {
+        boolean firstToMove = board.getNextPlayer() == board.PLAYER1;
+        long mine = board.getBitboard(firstToMove ? board.PLAYER1 : board.PLAYER2);
+        long theirs = board.getBitboard(firstToMove ? board.PLAYER2 : board.PLAYER1);
+        return evaluate(mine, theirs, firstToMove);
+    }
+
+    /**
+     * Score a position given as bitboards.
+     * @param mine the chips of the player to move
+     * @param theirs the opponent's chips
+     * @param firstToMove true if the player to move is the one who moved first
+     * @return a score from the point of view of the player to move
+     */
+    public int evaluate(long mine, long theirs, boolean firstToMove) {
+        long occupied = mine | theirs;
+        long empty = BOARD_MASK & ~occupied;
+        long playable = (occupied + BOTTOM) & BOARD_MASK;
+
+        int score = 0;
+        long myThreats = 0, theirThreats = 0;
+        for(long line : LINES) {
+            long m = line & mine, t = line & theirs;
+            if(t == 0) {
+                int n = Long.bitCount(m);
+                score += LINE_SCORE[n];
+                if(n == 3) myThreats |= line & empty;
+            } else if(m == 0) {
+                int n = Long.bitCount(t);
+                score -= LINE_SCORE[n];
+                if(n == 3) theirThreats |= line & empty;
+            }
+        }
+
+        if((myThreats & playable) != 0) return IMMEDIATE_WIN;
+        if(Long.bitCount(theirThreats & playable) > 1) return -DOUBLE_THREAT;
+
+        long myParity = firstToMove ? ODD_ROWS : ~ODD_ROWS;
+        long theirParity = ~myParity;
+        score += GOOD_THREAT * Long.bitCount(myThreats & myParity) + OTHER_THREAT * Long.bitCount(myThreats & ~myParity);
+        score -= GOOD_THREAT * Long.bitCount(theirThreats & theirParity) + OTHER_THREAT * Long.bitCount(theirThreats & ~theirParity);
+
+        for(long b = mine; b != 0; b &= b - 1) score += CELL_WEIGHT[Long.numberOfTrailingZeros(b)];
+        for(long b = theirs; b != 0; b &= b - 1) score -= CELL_WEIGHT[Long.numberOfTrailingZeros(b)];
+
+        return score;
+    }
+}
@@ -0,0 +1,119 @@
+package ai;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size transposition table keyed by Board's canonical (mirror-reduced) keys. Each slot is a pair of longs:
+ * the packed entry and the key XORed with it. A reader only accepts an entry whose two halves agree, so the table can
+ * be shared by any number of searching threads without locks; a torn write just looks like a miss.
+ *
+ * Entries pack the score (32 bits), the depth it was searched to (8 bits), the bound type (2 bits) and the best move
+ * (4 bits, in canonical orientation).
+ *
+ * @version 1.0
+ */
+public class TranspositionTable {
+    /** The stored score is exact **/
+    public static final int EXACT = 1;
+    /** The stored score is a lower bound: the search failed high **/
+    public static final int LOWER = 2;
+    /** The stored score is an upper bound: the search failed low **/
+    public static final int UPPER = 3;
+    /** Move field value meaning no best move is known **/
+    private static final int NO_MOVE = 15;
+
+    /** Key XOR entry, per slot **/
+    private final long[] checks;
+    /** Packed entries, per slot **/
+    private final long[] entries;
+    /** Mask for turning a key into a slot index **/
+    private final int mask;
+
+    /**
+     * Create a table.
+     * @param sizeBits log2 of the number of slots; each slot takes 16 bytes
+     */
+    public TranspositionTable(int sizeBits) {
+        checks = new long[1 << sizeBits];
+        entries = new long[1 << sizeBits];
+        mask = (1 << sizeBits) - 1;
+    }
+
+    /**
+     * Spread a key's bits over the slot index.
+     * @param key a canonical position key
+     * @return the slot for the key
+     */
+    private int index(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+    /**
+     * Look up a position.
+     * @param key the position's canonical key
+     * @return the packed entry, or 0 if the position isn't in the table
+     */
+    public long probe(long key) {
+        int i = index(key);
+        long entry = entries[i];
+        return entry != 0 && (checks[i] ^ entry) == key ? entry : 0;
+    }
+
+    /**
+     * Store a position, replacing whatever was in its slot.
+     * @param key the position's canonical key
+     * @param depth the depth the position was searched to
+     * @param bound EXACT, LOWER or UPPER
+     * @param score the score, already adjusted to be independent of the distance from the root
+     * @param move the best move in canonical orientation, or -1 if unknown
+     */
+    public void store(long key, int depth, int bound, int score, int move) {
+        long entry = (score & 0xFFFFFFFFL)
+                | ((long) (depth & 0xFF) << 32)
+                | ((long) bound << 40)
+                | ((long) (move < 0 ? NO_MOVE : move) << 42);
+        int i = index(key);
+        entries[i] = entry;
+        checks[i] = key ^ entry;
+    }
+
+    /**
+     * Remove every entry.
+     */
+    public void clear() {
+        Arrays.fill(entries, 0);
+        Arrays.fill(checks, 0);
+    }
+
+    /**
+     * Unpack the score of an entry
+     * @param entry a packed entry
+     * @return its score
+     */
+    public static int score(long entry) { return (int) entry; }
+
+    /**
+     * Unpack the search depth of an entry
+     * @param entry a packed entry
+     * @return the depth it was searched to
+     */
+    public static int depth(long entry) { return (int) (entry >>> 32) & 0xFF; }
+
+    /**
+     * Unpack the bound type of an entry
+     * @param entry a packed entry
+     * @return EXACT, LOWER or UPPER
+     */
+    public static int bound(long entry) { return (int) (entry >>> 40) & 0x3; }
+
+    /**
+     * Unpack the best move of an entry
+     * @param entry a packed entry
+     * @return the best move in canonical orientation, or -1 if none
+     */
+    public static int move(long entry) {
+        int move = (int) (entry >>> 42) & 0xF;
+        return move == NO_MOVE ? -1 : move;
+    }
+}
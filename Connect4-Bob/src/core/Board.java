@@ -1,6 +1,7 @@
 package core;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Manages the board and legal moves in a game of Connect4. Responsible for determining "game over" states including wins.
@@ -34,6 +35,28 @@ public class Board {
 
     private int[][] mWinSeries;
 
+    /** The columns played so far, in order, so moves can be taken back **/
+    private int[] mMoves;
+    /** The value of WINNER before each move in mMoves **/
+    private char[] mWinnerBefore;
+    /** The value of mWinSeries before each move in mMoves **/
+    private int[][][] mWinSeriesBefore;
+    /** The number of moves in mMoves **/
+    private int mMoveCount = 0;
+
+    /**
+     * A key uniquely identifying the arrangement of chips. Each column takes 7 bits, starting at bit 7*column: one bit
+     * per occupied cell from the bottom up, set for PLAYER1 and clear for PLAYER2, then a marker bit just above the
+     * top chip. Kept up to date incrementally by insertAt and unmake.
+     **/
+    private long mKey;
+    /** The key of this position's mirror image about the center column **/
+    private long mMirrorKey;
+    /** One bit per cell holding PLAYER1's chips, in the same layout as mKey: bit 7*column + row **/
+    private long mPlayer1Bits;
+    /** One bit per cell holding PLAYER2's chips, in the same layout as mKey **/
+    private long mPlayer2Bits;
+
     /**
      * Default constructor which initializes instance variables to sane defaults
      */
@@ -41,6 +64,9 @@ public class Board {
         mGrid = new char[mColumns][mRows];
         mValidColumns = new ArrayList<>();
         mColumnPointers = new int[mColumns];
+        mMoves = new int[mColumns * mRows];
+        mWinnerBefore = new char[mColumns * mRows];
+        mWinSeriesBefore = new int[mColumns * mRows][][];
 
         for(int c=0; c<mColumns; c++) {
             mValidColumns.add(c);
@@ -49,6 +75,71 @@ public class Board {
                 mGrid[c][r] = NONE;
             }
         }
+        recomputeKeys();
+    }
+
+    /**
+     * Copy constructor, used by copy()
+     * @param other the board to duplicate
+     */
+    private Board(Board other) {
+        mColumns = other.mColumns;
+        mRows = other.mRows;
+        mGrid = new char[mColumns][];
+        for(int c=0; c<mColumns; c++) mGrid[c] = other.mGrid[c].clone();
+        mColumnPointers = other.mColumnPointers.clone();
+        mValidColumns = new ArrayList<>(other.mValidColumns);
+        WINNER = other.WINNER;
+        mWinSeries = other.mWinSeries;
+        mMoves = other.mMoves.clone();
+        mWinnerBefore = other.mWinnerBefore.clone();
+        mWinSeriesBefore = other.mWinSeriesBefore.clone();
+        mMoveCount = other.mMoveCount;
+        mKey = other.mKey;
+        mMirrorKey = other.mMirrorKey;
+        mPlayer1Bits = other.mPlayer1Bits;
+        mPlayer2Bits = other.mPlayer2Bits;
+    }
+
+    /**
+     * Rebuild a position from its key, as returned by getKey() or getCanonicalKey(). The order in which the chips were
+     * played can't be known, so they can't be taken back with undo(), but moves made on the rebuilt board can.
+     * @param key a position key
+     * @return a board holding the position, or null if the key isn't a well-formed position
+     */
+    public static Board fromKey(long key) {
+        Board board = new Board();
+        int chips = 0;
+        for(int c=0; c<board.mColumns; c++) {
+            int bits = (int) (key >>> (7 * c)) & 0x7F;
+            if(bits == 0) return null;
+            int height = 31 - Integer.numberOfLeadingZeros(bits);
+            if(height > board.mRows) return null;
+            for(int r=0; r<height; r++) {
+                board.mGrid[c][r] = (bits & (1 << r)) != 0 ? board.PLAYER1 : board.PLAYER2;
+            }
+            board.mColumnPointers[c] = height;
+            if(height == board.mRows) board.mValidColumns.remove((Integer) c);
+            chips += height;
+        }
+        if((key >>> (7 * board.mColumns)) != 0) return null;
+
+        Arrays.fill(board.mMoves, 0, chips, -1);
+        board.mMoveCount = chips;
+        board.recomputeKeys();
+        for(int c=0; c<board.mColumns && board.WINNER == board.NONE; c++) {
+            for(int r=0; r<board.mColumnPointers[c] && board.WINNER == board.NONE; r++) board.checkForWinAt(c, r);
+        }
+        return board;
+    }
+
+    /**
+     * Make an independent duplicate of this board, including its move history, e.g. to hand a position to another
+     * thread. Win series arrays are never modified once built, so they are shared rather than copied.
+     * @return a new board in the same state as this one
+     */
+    public Board copy() {
+        return new Board(this);
     }
 
     /**
@@ -70,7 +161,13 @@ public class Board {
      */
     public int insertAt(char player, int column) {
         if(columnIsPlayable(column)) {
+            mMoves[mMoveCount] = column;
+            mWinnerBefore[mMoveCount] = WINNER;
+            mWinSeriesBefore[mMoveCount] = mWinSeries;
+            mMoveCount++;
+
             mGrid[column][mColumnPointers[column]] = player;
+            toggleKeys(player, column, mColumnPointers[column]);
 
             checkForWinAt(column,mColumnPointers[column]);
 
@@ -84,6 +181,174 @@ public class Board {
         return -1;
     }
 
+    /**
+     * Take back the most recent move, which must have been played in the given column. Restores the grid, the column
+     * pointer, the list of playable columns, the winner and the win series in constant time.
+     * @param column the column of the most recent move
+     * @return the row that was cleared, or -1 if the most recent move wasn't in this column or isn't known
+     */
+    public int unmake(int column) {
+        if(column < 0 || mMoveCount == 0 || mMoves[mMoveCount-1] != column) return -1;
+
+        mMoveCount--;
+        int row = --mColumnPointers[column];
+        toggleKeys(mGrid[column][row], column, row);
+        mGrid[column][row] = NONE;
+
+        if(row == mRows - 1) {
+            // The column was full; put it back in its place, keeping the list in column order
+            int i = 0;
+            while(i < mValidColumns.size() && mValidColumns.get(i) < column) i++;
+            mValidColumns.add(i, column);
+        }
+
+        WINNER = mWinnerBefore[mMoveCount];
+        mWinSeries = mWinSeriesBefore[mMoveCount];
+        mWinSeriesBefore[mMoveCount] = null;
+
+        return row;
+    }
+
+    /**
+     * Take back the most recent move, whichever column it was in.
+     * @return the column of the move taken back, or -1 if no moves have been made or the last one isn't known, as
+     * on a board rebuilt by fromKey()
+     */
+    public int undo() {
+        if(mMoveCount == 0) return -1;
+        int column = mMoves[mMoveCount-1];
+        if(column < 0) return -1;
+        unmake(column);
+        return column;
+    }
+
+    /**
+     * Move the marker bit of a column's key past a chip, or back again; the operation is its own inverse.
+     * @param player the chip being added or removed
+     * @param column the chip's column
+     * @param row the chip's row
+     */
+    private void toggleKeys(char player, int column, int row) {
+        int shift = 7 * column + row;
+        mKey ^= (2L << shift) | (player == PLAYER1 ? 0 : 1L << shift);
+        if(player == PLAYER1) mPlayer1Bits ^= 1L << shift;
+        else mPlayer2Bits ^= 1L << shift;
+        int mirrorShift = 7 * mirrorColumn(column) + row;
+        mMirrorKey ^= (2L << mirrorShift) | (player == PLAYER1 ? 0 : 1L << mirrorShift);
+    }
+
+    /**
+     * Rebuild both keys and the bitboards from the grid, for when cells have been set directly rather than played.
+     */
+    private void recomputeKeys() {
+        mKey = 0;
+        mMirrorKey = 0;
+        mPlayer1Bits = 0;
+        mPlayer2Bits = 0;
+        for(int c=0; c<mColumns; c++) {
+            long bits = 0;
+            int height = 0;
+            while(height < mRows && mGrid[c][height] != NONE) {
+                if(mGrid[c][height] == PLAYER1) bits |= 1L << height;
+                else mPlayer2Bits |= 1L << (7 * c + height);
+                height++;
+            }
+            mPlayer1Bits |= bits << (7 * c);
+            bits |= 1L << height;
+            mKey |= bits << (7 * c);
+            mMirrorKey |= bits << (7 * mirrorColumn(c));
+        }
+    }
+
+    /**
+     * Get the key identifying this exact arrangement of chips
+     * @return the position key
+     */
+    public long getKey() { return mKey; }
+
+    /**
+     * Get a bitboard of one player's chips, one bit per cell at bit 7*column + row
+     * @param player PLAYER1 or PLAYER2
+     * @return the cells holding that player's chips
+     */
+    public long getBitboard(char player) { return player == PLAYER1 ? mPlayer1Bits : mPlayer2Bits; }
+
+    /**
+     * Get the key of this position's mirror image
+     * @return the mirrored position key
+     */
+    public long getMirrorKey() { return mMirrorKey; }
+
+    /**
+     * Get a key shared by this position and its mirror image, for caches, books and transposition tables. Moves
+     * stored against a canonical key should be passed through mirrorColumn() when isCanonicalMirrored() is true,
+     * both when storing and when reading back.
+     * @return the smaller of the position's key and its mirror image's key
+     */
+    public long getCanonicalKey() { return Math.min(mKey, mMirrorKey); }
+
+    /**
+     * Is the canonical key that of the mirror image rather than this position?
+     * @return true if moves need mirroring to and from canonical orientation
+     */
+    public boolean isCanonicalMirrored() { return mMirrorKey < mKey; }
+
+    /**
+     * Get the column which mirrors the given one about the center column
+     * @param column a column on the board
+     * @return the mirrored column
+     */
+    public int mirrorColumn(int column) { return mColumns - 1 - column; }
+
+    /**
+     * Get the number of moves made through insertAt and not taken back
+     * @return the number of chips played
+     */
+    public int getMoveCount() { return mMoveCount; }
+
+    /**
+     * Get the symbol of the player whose turn it is, assuming PLAYER1 moved first and players alternated
+     * @return PLAYER1 or PLAYER2
+     */
+    public char getNextPlayer() { return mMoveCount % 2 == 0 ? PLAYER1 : PLAYER2; }
+
+    /**
+     * Play a sequence of moves given as 1-based column digits, e.g. "4453", alternating players from whoever is next.
+     * Stops at the first illegal move or if the game is won before the sequence ends.
+     * @param moves the columns to play
+     * @return the number of moves played, or -1 if the sequence couldn't be played in full
+     */
+    public int playMoves(String moves) {
+        for(int i=0; i<moves.length(); i++) {
+            if(WINNER != NONE) return -1;
+            if(insertAt(getNextPlayer(), moves.charAt(i) - '1') == -1) return -1;
+        }
+        return moves.length();
+    }
+
+    /**
+     * Get the column of the most recent move
+     * @return the column, or -1 if no moves have been made
+     */
+    public int getLastMove() { return mMoveCount == 0 ? -1 : mMoves[mMoveCount-1]; }
+
+    /**
+     * Get one move from the history without copying it
+     * @param ply the index of the move, from 0 to getMoveCount()-1
+     * @return the column played, or -1 if the board was rebuilt by fromKey and the order isn't known
+     */
+    public int getMoveAt(int ply) { return mMoves[ply]; }
+
+    /**
+     * Get the columns played so far, in order
+     * @return a copy of the move history
+     */
+    public int[] getMoveHistory() {
+        int[] moves = new int[mMoveCount];
+        System.arraycopy(mMoves, 0, moves, 0, mMoveCount);
+        return moves;
+    }
+
     /**
      * Look for a win starting at the given cell
      * @param column Column at which to start search
@@ -250,13 +515,20 @@ public class Board {
     }
 
     /**
-     * Set a cell's contents directly, as by a call from the server in an online game
+     * Set a cell's contents directly, as by a call from the server in an online game. Placing a token in the next
+     * free cell of a column is treated as an ordinary move, so it can be taken back with undo().
      * @param token a char indicating which token to place
      * @param column the column in which to place the token
      * @param row the row in which to place the token
      */
     public void setCell(char token, int column, int row) {
+        if(token != NONE && columnIsPlayable(column) && row == mColumnPointers[column]) {
+            insertAt(token, column);
+            return;
+        }
+
         if(cellIsValid(column, row)) mGrid[column][row] = token;
+        recomputeKeys();
 
         // Update the column pointer
         for(int r=getRows()-1; r>0; r--) {
@@ -1,4 +1,6 @@
 package core;
+import metrics.MoveSelectionEvent;
+
 import java.util.Random;
 
 /**
@@ -29,8 +31,19 @@ public class ComputerPlayer extends Player {
      */
     @Override
     public int getMove() {
+        MoveSelectionEvent event = new MoveSelectionEvent();
+        event.begin();
         int[] moves = getBoard().getPlayableColumnsArray();
         int choice = moves[random.nextInt(moves.length)];
+        if(event.shouldCommit()) {
+            event.sessionId = getSessionId();
+            event.ply = getBoard().getMoveCount();
+            event.depth = 1;
+            event.nodes = moves.length;
+            event.column = choice;
+            event.commit();
+        }
         return choice;
     }
+
 }
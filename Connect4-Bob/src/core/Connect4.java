@@ -1,5 +1,7 @@
 package core;
 
+import metrics.MoveEvent;
+
 /**
  * Manages the state of play in a game of Connect4
  *
@@ -34,6 +36,10 @@ public class Connect4 {
     player2;
     /** Index of the current player, alternates between 0 (player 1) and 1 (player 2) **/
     private int currentPlayer = 0;
+    /** The number of legal moves made so far **/
+    private int moveCount = 0;
+    /** Identifies this game in diagnostics, such as the server's session number **/
+    private long sessionId;
 
     /**
      * Default constructor, initializing instance variables to sane defaults
@@ -45,8 +51,10 @@ public class Connect4 {
         board = new Board();
 
         player1 = p1;
+        p1.setSymbol(board.PLAYER1);
         p1.setBoard(board);
         player2 = p2;
+        p2.setSymbol(board.PLAYER2);
         p2.setBoard(board);
 
         GameState = GAME_STATE.PLAYING;
@@ -67,10 +75,22 @@ public class Connect4 {
      */
     public int makeMove(int column) {
         if(GameState == GameState.OVER) return -1;
-        int result = board.insertAt(getCurrentPlayer().getSymbol(),column);
+        MoveEvent event = new MoveEvent();
+        event.begin();
+        char symbol = getCurrentPlayer().getSymbol();
+        int result = board.insertAt(symbol,column);
         if(result != -1) {
+            moveCount++;
             updateGameState();
         }
+        if(event.shouldCommit()) {
+            event.sessionId = sessionId;
+            event.ply = result != -1 ? moveCount - 1 : moveCount;
+            event.player = symbol;
+            event.column = column;
+            event.row = result;
+            event.commit();
+        }
         return result ;
     }
 
@@ -127,6 +147,28 @@ public class Connect4 {
      */
     public Board getBoard() { return board; }
 
+    /**
+     * Get the number of legal moves made so far
+     * @return the number of chips on the board
+     */
+    public int getMoveCount() { return moveCount; }
+
+    /**
+     * Tag this game and its players with an identifier for diagnostics
+     * @param id the session id
+     */
+    public void setSessionId(long id) {
+        sessionId = id;
+        player1.setSessionId(id);
+        player2.setSessionId(id);
+    }
+
+    /**
+     * Get the identifier used for this game in diagnostics
+     * @return the session id, or 0 if none has been set
+     */
+    public long getSessionId() { return sessionId; }
+
     public int getColumns() { return board.getColumns(); }
     public int getRows() { return board.getRows(); }
 
@@ -0,0 +1,165 @@
+package core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary encodings of positions and games, for journals, snapshots, caches and the network. Everything
+ * reads and writes a caller's ByteBuffer at its current position and allocates nothing beyond the boards it is
+ * asked to build.
+ *
+ * A position is its Board key, a single long: 7 bits per column, one bit per chip (set for X) under a marker bit.
+ * Keys are unique per arrangement of chips, so they also work as cache keys; the order in which the chips were
+ * played is not kept.
+ *
+ * A game is its move sequence: one byte holding the number of moves, then the columns packed two to a byte, the
+ * earlier move in the high nibble. A full 42-move game takes 22 bytes.
+ *
+ * @version 1.0
+ */
+public final class GameCodec {
+    /** Bytes taken by an encoded position **/
+    public static final int POSITION_BYTES = Long.BYTES;
+    /** The most bytes an encoded game can take **/
+    public static final int MAX_GAME_BYTES = gameBytes(7 * 6);
+
+    /** Static helpers only **/
+    private GameCodec() {}
+
+    /**
+     * Pack a position into a long
+     * @param board the position
+     * @return the position's key
+     */
+    public static long encodePosition(Board board) {
+        return board.getKey();
+    }
+
+    /**
+     * Unpack a position
+     * @param position a key from encodePosition
+     * @return a new board holding the position, or null if the key isn't a position
+     */
+    public static Board decodePosition(long position) {
+        return Board.fromKey(position);
+    }
+
+    /**
+     * Unpack one player's chips from a position without building a board, for evaluators and caches that work on
+     * bitboards
+     * @param position a key from encodePosition
+     * @param player1 true for PLAYER1's chips, false for PLAYER2's
+     * @return a bitboard in the layout of Board.getBitboard()
+     */
+    public static long decodeBitboard(long position, boolean player1) {
+        long bits = 0;
+        for(int c=0; c<7; c++) {
+            int column = (int) (position >>> (7 * c)) & 0x7F;
+            int below = column == 0 ? 0 : Integer.highestOneBit(column) - 1;
+            bits |= (long) ((player1 ? column : ~column) & below) << (7 * c);
+        }
+        return bits;
+    }
+
+    /**
+     * Write a position
+     * @param buffer where to write, advanced by POSITION_BYTES
+     * @param board the position
+     */
+    public static void putPosition(ByteBuffer buffer, Board board) {
+        buffer.putLong(board.getKey());
+    }
+
+    /**
+     * Read a position
+     * @param buffer where to read, advanced by POSITION_BYTES
+     * @return a new board holding the position, or null if the bytes aren't a position
+     */
+    public static Board getPosition(ByteBuffer buffer) {
+        return Board.fromKey(buffer.getLong());
+    }
+
+    /**
+     * Get the size of an encoded game
+     * @param moves the number of moves in the game
+     * @return the number of bytes putGame writes
+     */
+    public static int gameBytes(int moves) {
+        return 1 + (moves + 1) / 2;
+    }
+
+    /**
+     * Write the moves played on a board
+     * @param buffer where to write, advanced by gameBytes(board.getMoveCount())
+     * @param board a board whose moves were all made with insertAt
+     */
+    public static void putGame(ByteBuffer buffer, Board board) {
+        int count = board.getMoveCount();
+        buffer.put((byte) count);
+        for(int i=0; i<count; i+=2) {
+            int high = board.getMoveAt(i);
+            int low = i + 1 < count ? board.getMoveAt(i + 1) : 0;
+            buffer.put((byte) (high << 4 | low));
+        }
+    }
+
+    /**
+     * Write a move sequence
+     * @param buffer where to write, advanced by gameBytes(count)
+     * @param moves 0-based columns
+     * @param count the number of moves to write
+     */
+    public static void putGame(ByteBuffer buffer, int[] moves, int count) {
+        buffer.put((byte) count);
+        for(int i=0; i<count; i+=2) {
+            int low = i + 1 < count ? moves[i + 1] : 0;
+            buffer.put((byte) (moves[i] << 4 | low));
+        }
+    }
+
+    /**
+     * Read a move sequence
+     * @param buffer where to read, advanced past the game
+     * @param moves receives the 0-based columns; must hold at least 42
+     * @return the number of moves read, or -1 if there were more than moves can hold
+     */
+    public static int getGame(ByteBuffer buffer, int[] moves) {
+        int count = buffer.get() & 0xFF;
+        if(count > moves.length) {
+            buffer.position(buffer.position() + (count + 1) / 2);
+            return -1;
+        }
+        for(int i=0; i<count; i+=2) {
+            int packed = buffer.get() & 0xFF;
+            moves[i] = packed >>> 4;
+            if(i + 1 < count) moves[i + 1] = packed & 0xF;
+        }
+        return count;
+    }
+
+    /**
+     * Read a game, replaying its moves onto a board
+     * @param buffer where to read, advanced past the game even if it can't be replayed
+     * @param board an empty board to play the moves on
+     * @return the number of moves played, or -1 if some move was illegal
+     */
+    public static int getGame(ByteBuffer buffer, Board board) {
+        int count = buffer.get() & 0xFF;
+        int played = 0;
+        for(int i=0; i<count; i+=2) {
+            int packed = buffer.get() & 0xFF;
+            if(played == i && play(board, packed >>> 4)) played++;
+            if(i + 1 < count && played == i + 1 && play(board, packed & 0xF)) played++;
+        }
+        return played == count ? count : -1;
+    }
+
+    /**
+     * Play a decoded move for whoever is next
+     * @param board the board
+     * @param column the column
+     * @return true if the move was legal
+     */
+    private static boolean play(Board board, int column) {
+        return board.getWinner() == board.NONE && board.insertAt(board.getNextPlayer(), column) != -1;
+    }
+}
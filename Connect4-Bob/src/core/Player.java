@@ -22,6 +22,9 @@ public abstract class Player {
     /** A pointer to the current game board object **/
     private Board board;
 
+    /** Identifies the session this player is playing in, for diagnostics **/
+    private long sessionId;
+
     /**
      * The default constructor, initializing the player's symbol to the next one available
      */
@@ -35,6 +38,13 @@ public abstract class Player {
      */
     public char getSymbol() { return mSymbol; }
 
+    /**
+     * Set the player's marker symbol. The game does this for both players, so that symbols don't depend on the order
+     * in which players happened to be created across threads.
+     * @param symbol the char representing the player on the board
+     */
+    void setSymbol(char symbol) { mSymbol = symbol; }
+
     /**
      * Get the player's name
      * @return a String of the player's name (not yet implemented)
@@ -61,6 +71,18 @@ public abstract class Player {
         board = b;
     }
 
+    /**
+     * Set the identifier of the session this player is playing in
+     * @param id the session id
+     */
+    public void setSessionId(long id) { sessionId = id; }
+
+    /**
+     * Get the identifier of the session this player is playing in
+     * @return the session id, or 0 if none has been set
+     */
+    public long getSessionId() { return sessionId; }
+
     /**
      * Get a pointer to the game's board
      * @return the board on which this player is currently playing
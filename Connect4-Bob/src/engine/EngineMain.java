@@ -0,0 +1,84 @@
+package engine;
+
+import ai.AlphaBeta;
+import ai.ThreatEvaluator;
+import core.Board;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+
+/**
+ * A reference engine speaking the EngineProcess protocol on standard input and output, backed by the built-in
+ * alpha-beta search. It deepens one ply at a time until the next iteration would likely overrun the move time.
+ * Useful as a baseline, and as a template for engines written in other languages.
+ *
+ *   java engine.EngineMain
+ *
+ * @version 1.0
+ */
+public class EngineMain {
+
+    /**
+     * Answer protocol commands until told to quit or input ends.
+     * @param args unused
+     * @throws IOException if standard input can't be read
+     */
+    public static void main(String[] args) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        PrintStream out = System.out;
+        AlphaBeta search = new AlphaBeta(new ThreatEvaluator());
+        Board board = new Board();
+
+        String line;
+        while((line = in.readLine()) != null) {
+            String[] words = line.trim().split("\\s+");
+            switch(words[0]) {
+                case "isready":
+                    out.println("readyok");
+                    break;
+                case "position":
+                    board = new Board();
+                    if(words.length > 1 && board.playMoves(words[1]) == -1) board = new Board();
+                    break;
+                case "go":
+                    long moveTime = words.length > 2 && words[1].equals("movetime") ? Long.parseLong(words[2]) : 100;
+                    out.println("bestmove " + (think(search, board, moveTime, out) + 1));
+                    break;
+                case "quit":
+                    return;
+                default:
+                    break;
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Search deeper and deeper within a time budget.
+     * @param search the searcher, whose transposition table carries over between iterations
+     * @param board the position
+     * @param moveTimeMillis the time budget
+     * @param out where to report progress
+     * @return the best 0-based column found
+     */
+    private static int think(AlphaBeta search, Board board, long moveTimeMillis, PrintStream out) {
+        long start = System.nanoTime();
+        long budget = moveTimeMillis * 1_000_000L;
+        int empty = board.getColumns() * board.getRows() - board.getMoveCount();
+        int best = -1;
+        for(int depth=1; depth<=empty; depth++) {
+            best = search.search(board, depth);
+            long elapsed = System.nanoTime() - start;
+            out.println("info depth " + depth + " score " + search.getLastScore() + " nodes " + search.getNodes());
+            // Each iteration costs a few times the last, so don't start one that can't finish
+            if(elapsed * 3 > budget || Math.abs(search.getLastScore()) >= AlphaBeta.WIN_SCORE - 100) break;
+        }
+        if(best == -1) {
+            int[] columns = board.getPlayableColumnsArray();
+            best = columns.length > 0 ? columns[0] : 0;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,188 @@
+package engine;
+
+import logging.Log;
+import metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed-size pool of warm engine processes, shared by every game on a server. Engines are started up front and
+ * borrowed one move at a time: since every request carries the whole move list, any engine can answer for any game,
+ * and a game never pays for spawning a process. An engine which dies or hangs is closed when it's returned and
+ * replaced on a background thread, so the game that found it broken doesn't wait for a new process to start; a
+ * replacement which fails to start is retried, backing off up to a minute between attempts, until it succeeds.
+ *
+ * Per-move latency, time spent waiting for an idle engine, how often the pool ran dry, and how many engines are
+ * running right now are recorded in the server metrics, so a pool losing engines faster than it can replace them
+ * shows up as a falling connect4_engine_pool_size.
+ *
+ * @version 1.0
+ */
+public class EnginePool {
+    /** How long a move waits for an idle engine before giving up **/
+    private static final long BORROW_TIMEOUT_MILLIS = 5000;
+    /** The first wait before retrying an engine which wouldn't start; it doubles with every failure **/
+    private static final long RETRY_MIN_MILLIS = 500;
+    /** The longest wait between attempts to start an engine **/
+    private static final long RETRY_MAX_MILLIS = 60000;
+
+    /** The engine program and its arguments **/
+    private final List<String> command;
+    /** How long engines think about each move **/
+    private final long moveTimeMillis;
+    /** Where pool statistics are recorded **/
+    private final ServerMetrics metrics;
+    /** Engines not currently answering a request **/
+    private final LinkedBlockingQueue<EngineProcess> idle = new LinkedBlockingQueue<>();
+    /** Every engine running, for shutdown and the pool size gauge **/
+    private final List<EngineProcess> all = new ArrayList<>();
+    /** Starts replacements for failed engines, off the game threads **/
+    private final ScheduledExecutorService restarter = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "engine-restarter");
+        t.setDaemon(true);
+        return t;
+    });
+    /** Set by close(), after which nothing is replaced **/
+    private volatile boolean closed;
+
+    /**
+     * Start a pool of engines.
+     * @param command the engine program and its arguments
+     * @param size the number of engines to keep running
+     * @param moveTimeMillis how long engines think about each move
+     * @param metrics where to record pool statistics
+     * @throws IOException if the first engine can't be started
+     */
+    public EnginePool(List<String> command, int size, long moveTimeMillis, ServerMetrics metrics) throws IOException {
+        this.command = new ArrayList<>(command);
+        this.moveTimeMillis = moveTimeMillis;
+        this.metrics = metrics;
+        for(int i=0; i<size; i++) {
+            EngineProcess engine = start();
+            if(engine == null) throw new IOException("Could not start engine " + command);
+            idle.add(engine);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "engine-pool-shutdown"));
+    }
+
+    /**
+     * Ask an idle engine for the best move, waiting for one to become free if they are all busy.
+     * @param moves every column played so far, 0-based, in order
+     * @return the 0-based column chosen, or -1 if no engine answered
+     */
+    public int bestMove(int[] moves) {
+        long waitStart = System.nanoTime();
+        EngineProcess engine = idle.poll();
+        if(engine == null) {
+            metrics.engineSaturated.increment();
+            try {
+                engine = idle.poll(BORROW_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        metrics.engineBorrowWait.recordSince(waitStart);
+        if(engine == null) {
+            metrics.engineFailures.increment();
+            return -1;
+        }
+
+        metrics.enginesBusy.incrementAndGet();
+        long moveStart = System.nanoTime();
+        int column = engine.bestMove(moves, moveTimeMillis);
+        metrics.engineMove.recordSince(moveStart);
+        metrics.enginesBusy.decrementAndGet();
+
+        if(column == -1 || !engine.isAlive()) {
+            metrics.engineFailures.increment();
+            Log.warn("Engine failed after {} moves; replacing it", moves.length);
+            retire(engine);
+            scheduleReplacement(0, RETRY_MIN_MILLIS);
+        } else {
+            idle.add(engine);
+        }
+        return column;
+    }
+
+    /**
+     * Close a failed engine and stop counting it.
+     * @param engine the engine
+     */
+    private void retire(EngineProcess engine) {
+        engine.close();
+        synchronized(all) {
+            all.remove(engine);
+            metrics.enginePoolSize.set(all.size());
+        }
+    }
+
+    /**
+     * Have the restarter start a replacement engine after a delay, unless the pool has been closed.
+     * @param delayMillis how long to wait first
+     * @param retryMillis how long to wait before the attempt after, if this one fails
+     */
+    private void scheduleReplacement(long delayMillis, long retryMillis) {
+        if(closed) return;
+        try {
+            restarter.schedule(() -> replace(retryMillis), delayMillis, TimeUnit.MILLISECONDS);
+        } catch(RejectedExecutionException ex) {
+            // closed in the meantime; there's nothing left to replace
+        }
+    }
+
+    /**
+     * Run on the restarter: start an engine to fill a failed one's place, or try again later if it won't start.
+     * @param retryMillis how long to wait before the next attempt if this one fails
+     */
+    private void replace(long retryMillis) {
+        EngineProcess engine = start();
+        if(engine != null) {
+            idle.add(engine);
+        } else if(!closed) {
+            Log.warn("Retrying the engine in {} ms", retryMillis);
+            scheduleReplacement(retryMillis, Math.min(retryMillis * 2, RETRY_MAX_MILLIS));
+        }
+    }
+
+    /**
+     * Stop every engine.
+     */
+    public void close() {
+        closed = true;
+        restarter.shutdownNow();
+        synchronized(all) {
+            for(EngineProcess engine : all) engine.close();
+            all.clear();
+            metrics.enginePoolSize.set(0);
+        }
+    }
+
+    /**
+     * Start one engine and track it.
+     * @return the running engine, or null if it couldn't be started
+     */
+    private EngineProcess start() {
+        try {
+            EngineProcess engine = new EngineProcess(command);
+            synchronized(all) {
+                if(closed) {
+                    engine.close();
+                    return null;
+                }
+                all.add(engine);
+                metrics.enginePoolSize.set(all.size());
+            }
+            return engine;
+        } catch(IOException ex) {
+            Log.error("Could not start engine: {}", ex.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A running external engine, spoken to over its standard input and output with a small line protocol in the style
+ * of UCI. The server sends:
+ *
+ *   isready                  answered with readyok once the engine can take commands
+ *   position [moves]         set the position; moves are 1-based column digits from the empty board, e.g. 4453
+ *   go movetime ms           search the current position for about ms milliseconds, answered with bestmove column
+ *   quit                     exit
+ *
+ * bestmove gives a 1-based column. Engines may print other lines (e.g. "info depth 9 score 12"), which are ignored.
+ * An engine which doesn't answer within its budget plus a grace period is killed, so a hung engine can't hang a game.
+ *
+ * @version 1.0
+ */
+public class EngineProcess {
+    /** Extra time allowed over the move time before an engine is presumed hung **/
+    static final long GRACE_MILLIS = 2000;
+
+    /** Kills engines which miss their deadlines **/
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "engine-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** The child process **/
+    private final Process process;
+    /** Commands to the engine **/
+    private final PrintWriter toEngine;
+    /** Replies from the engine **/
+    private final BufferedReader fromEngine;
+
+    /**
+     * Start an engine and wait until it's ready.
+     * @param command the program and its arguments
+     * @throws IOException if the engine can't be started or doesn't become ready
+     */
+    public EngineProcess(List<String> command) throws IOException {
+        process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        toEngine = new PrintWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.US_ASCII), false);
+        fromEngine = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII));
+
+        send("isready");
+        if(await("readyok", 0) == null) {
+            close();
+            throw new IOException("Engine " + command + " did not become ready");
+        }
+    }
+
+    /**
+     * Ask the engine for its move.
+     * @param moves every column played so far, 0-based, in order
+     * @param moveTimeMillis how long the engine should think
+     * @return the 0-based column chosen, or -1 if the engine failed to answer
+     */
+    public int bestMove(int[] moves, long moveTimeMillis) {
+        StringBuilder position = new StringBuilder(8 + moves.length).append("position");
+        if(moves.length > 0) position.append(' ');
+        for(int move : moves) position.append((char) ('1' + move));
+        send(position.toString());
+        send("go movetime " + moveTimeMillis);
+
+        String reply = await("bestmove", moveTimeMillis);
+        if(reply == null) return -1;
+        try {
+            return Integer.parseInt(reply.substring("bestmove".length()).trim()) - 1;
+        } catch(NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Check whether the engine is still running.
+     * @return true if the process hasn't exited
+     */
+    public boolean isAlive() {
+        return process.isAlive();
+    }
+
+    /**
+     * Ask the engine to quit, and kill it if it doesn't promptly.
+     */
+    public void close() {
+        if(process.isAlive()) {
+            send("quit");
+            try {
+                if(!process.waitFor(200, TimeUnit.MILLISECONDS)) process.destroyForcibly();
+            } catch(InterruptedException ex) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Send a command line.
+     * @param line the command
+     */
+    private void send(String line) {
+        toEngine.print(line);
+        toEngine.print('\n');
+        toEngine.flush();
+    }
+
+    /**
+     * Read lines until one starts with the given word, killing the engine if it takes too long.
+     * @param word the first word of the expected reply
+     * @param budgetMillis the time the engine was given, before the grace period
+     * @return the reply, or null if the engine exited or was killed first
+     */
+    private String await(String word, long budgetMillis) {
+        ScheduledFuture<?> kill = WATCHDOG.schedule(process::destroyForcibly, budgetMillis + GRACE_MILLIS,
+                TimeUnit.MILLISECONDS);
+        try {
+            String line;
+            while((line = fromEngine.readLine()) != null) {
+                if(line.startsWith(word)) return line;
+            }
+            return null;
+        } catch(IOException ex) {
+            return null;
+        } finally {
+            kill.cancel(false);
+        }
+    }
+}
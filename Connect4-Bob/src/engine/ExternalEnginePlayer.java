@@ -0,0 +1,52 @@
+package engine;
+
+import core.Board;
+import core.ComputerPlayer;
+import metrics.MoveSelectionEvent;
+
+/**
+ * A computer player whose moves come from an external engine process, borrowed from a pool for each move. If the
+ * engine fails to answer or answers with an illegal column, a random legal move is played instead, so a broken
+ * engine can lose a game but never stall one.
+ *
+ * @version 1.0
+ */
+public class ExternalEnginePlayer extends ComputerPlayer {
+
+    /** The engines to ask **/
+    private final EnginePool pool;
+
+    /**
+     * Create a player backed by a pool of engines
+     * @param pool the engines to ask
+     */
+    public ExternalEnginePlayer(EnginePool pool) {
+        super();
+        this.pool = pool;
+        setName("Engine player");
+    }
+
+    /**
+     * Ask an engine for its move in the current position.
+     * @return an integer representing the column number
+     */
+    @Override
+    public int getMove() {
+        MoveSelectionEvent event = new MoveSelectionEvent();
+        event.begin();
+        Board board = getBoard();
+        int choice = pool.bestMove(board.getMoveHistory());
+        if(choice < 0 || choice >= board.getColumns() || board.playableCellInColumn(choice) == -1) {
+            return super.getMove();
+        }
+        if(event.shouldCommit()) {
+            event.sessionId = getSessionId();
+            event.ply = board.getMoveCount();
+            event.depth = 0;
+            event.nodes = 0;
+            event.column = choice;
+            event.commit();
+        }
+        return choice;
+    }
+}
@@ -0,0 +1,190 @@
+package logging;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, multi-producer ring buffer of log events with a single background thread that formats and writes them.
+ * Every slot is preallocated, so publishing an event only copies references and primitives. If the writer falls so
+ * far behind that the ring is full, new events are dropped and counted rather than blocking the caller.
+ *
+ * @version 1.0
+ */
+class AsyncLogWriter implements Runnable {
+    /** Timestamp layout for written lines **/
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    /** Number of slots, always a power of two **/
+    private final int capacity;
+    /** Mask for turning a sequence into a slot index **/
+    private final int mask;
+
+    /** For each slot, one more than the sequence of the event last published into it **/
+    private final AtomicLongArray published;
+    private final Log.Level[] levels;
+    private final String[] templates;
+    private final String[] threads;
+    private final Object[] objects;
+    private final int[] argCounts;
+    private final long[] args;
+    private final long[] times;
+
+    /** The next sequence to hand to a producer **/
+    private final AtomicLong claimed = new AtomicLong();
+    /** The next sequence the writer will consume **/
+    private volatile long consumed = 0;
+    /** Events dropped because the ring was full **/
+    private final LongAdder dropped = new LongAdder();
+    /** Dropped count already reported **/
+    private long droppedReported = 0;
+
+    /** Destination of formatted lines **/
+    private final Writer out;
+    /** Reused for formatting each line **/
+    private final StringBuilder line = new StringBuilder(256);
+    /** The background thread **/
+    private final Thread thread;
+
+    /**
+     * Create the ring and start its writer thread.
+     * @param requestedCapacity the minimum number of events to buffer; rounded up to a power of two
+     * @param stream where formatted lines are written
+     */
+    AsyncLogWriter(int requestedCapacity, OutputStream stream) {
+        capacity = Integer.highestOneBit(Math.max(2, requestedCapacity - 1)) << 1;
+        mask = capacity - 1;
+        published = new AtomicLongArray(capacity);
+        levels = new Log.Level[capacity];
+        templates = new String[capacity];
+        threads = new String[capacity];
+        objects = new Object[capacity];
+        argCounts = new int[capacity];
+        args = new long[capacity * 3];
+        times = new long[capacity];
+        out = new BufferedWriter(new OutputStreamWriter(stream), 8192);
+
+        thread = new Thread(this, "log-writer");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "log-drain"));
+    }
+
+    /**
+     * Copy an event into the ring, or drop it if the ring is full.
+     * @param level the event's level
+     * @param template the message template
+     * @param o an optional object argument
+     * @param count how many long arguments are used
+     * @param a first long argument
+     * @param b second long argument
+     * @param c third long argument
+     */
+    void publish(Log.Level level, String template, Object o, int count, long a, long b, long c) {
+        long seq;
+        do {
+            seq = claimed.get();
+            if(seq - consumed >= capacity) {
+                dropped.increment();
+                return;
+            }
+        } while(!claimed.compareAndSet(seq, seq + 1));
+
+        int i = (int) (seq & mask);
+        levels[i] = level;
+        templates[i] = template;
+        threads[i] = Thread.currentThread().getName();
+        objects[i] = o;
+        argCounts[i] = count;
+        args[i * 3] = a;
+        args[i * 3 + 1] = b;
+        args[i * 3 + 2] = c;
+        times[i] = System.currentTimeMillis();
+        published.lazySet(i, seq + 1);
+    }
+
+    /**
+     * Writer loop: format and write events in sequence order, flushing whenever the ring runs dry.
+     */
+    @Override
+    public void run() {
+        long idleNanos = 0;
+        while(true) {
+            if(writeAvailable()) {
+                idleNanos = 0;
+            } else {
+                idleNanos = Math.min(Math.max(idleNanos * 2, 50_000), 10_000_000);
+                LockSupport.parkNanos(idleNanos);
+            }
+        }
+    }
+
+    /**
+     * Write every event published so far.
+     * @return true if anything was written
+     */
+    private synchronized boolean writeAvailable() {
+        boolean wrote = false;
+        try {
+            long seq = consumed;
+            while(published.get((int) (seq & mask)) == seq + 1) {
+                write((int) (seq & mask));
+                objects[(int) (seq & mask)] = null;
+                consumed = ++seq;
+                wrote = true;
+            }
+            long lost = dropped.sum();
+            if(lost != droppedReported) {
+                out.write("[log] " + (lost - droppedReported) + " events dropped, buffer full\n");
+                droppedReported = lost;
+                wrote = true;
+            }
+            if(wrote) out.flush();
+        } catch(IOException ex) {
+            // Nowhere left to report it
+        }
+        return wrote;
+    }
+
+    /**
+     * Write everything that has been published before returning.
+     */
+    void drain() {
+        writeAvailable();
+    }
+
+    /**
+     * Format a single event and write it.
+     * @param i the slot holding the event
+     * @throws IOException if the output fails
+     */
+    private void write(int i) throws IOException {
+        line.setLength(0);
+        TIME_FORMAT.formatTo(Instant.ofEpochMilli(times[i]), line);
+        line.append(' ').append(levels[i]).append(" [").append(threads[i]).append("] ");
+
+        String template = templates[i];
+        Object o = objects[i];
+        int next = o != null ? -1 : 0;
+        int from = 0, at;
+        while((at = template.indexOf("{}", from)) >= 0 && next < argCounts[i]) {
+            line.append(template, from, at);
+            if(next < 0) line.append(o);
+            else line.append(args[i * 3 + next]);
+            next++;
+            from = at + 2;
+        }
+        line.append(template, from, template.length()).append('\n');
+        out.append(line);
+    }
+}
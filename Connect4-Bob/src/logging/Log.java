@@ -0,0 +1,109 @@
+package logging;
+
+/**
+ * A small leveled logging facade. Events are copied into a ring buffer and formatted and written by a background
+ * thread, so logging never blocks a game thread on stdout. Messages are templates with {} placeholders; arguments
+ * are passed as primitives or existing objects, and a call at a disabled level returns before touching any of them,
+ * so per-move debug logging costs nothing when it's switched off.
+ *
+ * The threshold comes from the connect4.log.level system property (TRACE, DEBUG, INFO, WARN, ERROR or OFF; default
+ * INFO) and can be changed at runtime with setLevel().
+ *
+ * @version 1.0
+ */
+public final class Log {
+
+    /** Severity levels, from most to least verbose **/
+    public enum Level {
+        TRACE, DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    /** Ordinal of the least severe level which is written **/
+    private static volatile int threshold = Level.valueOf(System.getProperty("connect4.log.level", "INFO")).ordinal();
+
+    /** Lazily started on the first enabled event **/
+    private static volatile AsyncLogWriter writer;
+
+    /** Static facade only **/
+    private Log() {}
+
+    /**
+     * Change the logging threshold
+     * @param level the least severe level to write
+     */
+    public static void setLevel(Level level) { threshold = level.ordinal(); }
+
+    /**
+     * Check whether events at a level will be written, to guard any expensive argument preparation
+     * @param level the level to check
+     * @return true if events at this level are written
+     */
+    public static boolean isEnabled(Level level) { return level.ordinal() >= threshold; }
+
+    /**
+     * Check whether debug events will be written
+     * @return true if debug events are written
+     */
+    public static boolean isDebugEnabled() { return Level.DEBUG.ordinal() >= threshold; }
+
+    public static void debug(String template) { if(isDebugEnabled()) log(Level.DEBUG, template, null, 0, 0, 0, 0); }
+    public static void debug(String template, long a) { if(isDebugEnabled()) log(Level.DEBUG, template, null, 1, a, 0, 0); }
+    public static void debug(String template, long a, long b) { if(isDebugEnabled()) log(Level.DEBUG, template, null, 2, a, b, 0); }
+    public static void debug(String template, long a, long b, long c) { if(isDebugEnabled()) log(Level.DEBUG, template, null, 3, a, b, c); }
+    public static void debug(String template, Object o) { if(isDebugEnabled()) log(Level.DEBUG, template, o, 0, 0, 0, 0); }
+    public static void debug(String template, Object o, long a) { if(isDebugEnabled()) log(Level.DEBUG, template, o, 1, a, 0, 0); }
+
+    public static void info(String template) { if(isEnabled(Level.INFO)) log(Level.INFO, template, null, 0, 0, 0, 0); }
+    public static void info(String template, long a) { if(isEnabled(Level.INFO)) log(Level.INFO, template, null, 1, a, 0, 0); }
+    public static void info(String template, long a, long b) { if(isEnabled(Level.INFO)) log(Level.INFO, template, null, 2, a, b, 0); }
+    public static void info(String template, long a, long b, long c) { if(isEnabled(Level.INFO)) log(Level.INFO, template, null, 3, a, b, c); }
+    public static void info(String template, Object o) { if(isEnabled(Level.INFO)) log(Level.INFO, template, o, 0, 0, 0, 0); }
+    public static void info(String template, Object o, long a) { if(isEnabled(Level.INFO)) log(Level.INFO, template, o, 1, a, 0, 0); }
+
+    public static void warn(String template) { if(isEnabled(Level.WARN)) log(Level.WARN, template, null, 0, 0, 0, 0); }
+    public static void warn(String template, long a) { if(isEnabled(Level.WARN)) log(Level.WARN, template, null, 1, a, 0, 0); }
+    public static void warn(String template, long a, long b) { if(isEnabled(Level.WARN)) log(Level.WARN, template, null, 2, a, b, 0); }
+    public static void warn(String template, Object o) { if(isEnabled(Level.WARN)) log(Level.WARN, template, o, 0, 0, 0, 0); }
+    public static void warn(String template, Object o, long a) { if(isEnabled(Level.WARN)) log(Level.WARN, template, o, 1, a, 0, 0); }
+
+    public static void error(String template) { if(isEnabled(Level.ERROR)) log(Level.ERROR, template, null, 0, 0, 0, 0); }
+    public static void error(String template, long a) { if(isEnabled(Level.ERROR)) log(Level.ERROR, template, null, 1, a, 0, 0); }
+    public static void error(String template, Object o) { if(isEnabled(Level.ERROR)) log(Level.ERROR, template, o, 0, 0, 0, 0); }
+    public static void error(String template, Object o, long a) { if(isEnabled(Level.ERROR)) log(Level.ERROR, template, o, 1, a, 0, 0); }
+
+    /**
+     * Hand an enabled event to the background writer.
+     * @param level the event's level
+     * @param template the message, with {} placeholders filled by o first and then the long arguments
+     * @param o an optional object argument, or null
+     * @param count how many of a, b and c are used
+     * @param a first long argument
+     * @param b second long argument
+     * @param c third long argument
+     */
+    private static void log(Level level, String template, Object o, int count, long a, long b, long c) {
+        AsyncLogWriter w = writer;
+        if(w == null) w = startWriter();
+        w.publish(level, template, o, count, a, b, c);
+    }
+
+    /**
+     * Start the background writer if nobody has yet.
+     * @return the running writer
+     */
+    private static synchronized AsyncLogWriter startWriter() {
+        if(writer == null) {
+            int capacity = Integer.getInteger("connect4.log.buffer", 8192);
+            writer = new AsyncLogWriter(capacity, System.out);
+        }
+        return writer;
+    }
+
+    /**
+     * Block until everything logged so far has been written.
+     */
+    public static void flush() {
+        AsyncLogWriter w = writer;
+        if(w != null) w.drain();
+    }
+}
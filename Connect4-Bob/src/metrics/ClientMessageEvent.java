@@ -0,0 +1,30 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for the client handling one message from the server, excluding the time spent waiting for it
+ * to arrive. Disabled unless a recording turns it on.
+ *
+ * @version 1.0
+ */
+@Name("connect4.ClientMessage")
+@Label("Client Message")
+@Category({"Connect4", "Client"})
+@Description("The client handling a message from the server")
+@Enabled(false)
+@StackTrace(false)
+public class ClientMessageEvent extends Event {
+    @Label("Player Number")
+    public int playerNumber;
+
+    @Label("Status")
+    @Description("The Connect4Constants message code, or a row number for move results")
+    public int status;
+}
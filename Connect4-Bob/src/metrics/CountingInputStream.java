@@ -0,0 +1,48 @@
+package metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An input stream which adds the number of bytes read through it to a shared counter.
+ *
+ * @version 1.0
+ */
+public class CountingInputStream extends FilterInputStream {
+
+    /** The counter to which bytes read are added **/
+    private final LongAdder counter;
+
+    /**
+     * Wrap a stream so that reads are counted
+     * @param in the stream to read from
+     * @param counter the counter to add to
+     */
+    public CountingInputStream(InputStream in, LongAdder counter) {
+        super(in);
+        this.counter = counter;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if(b != -1) counter.increment();
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if(n > 0) counter.add(n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        counter.add(skipped);
+        return skipped;
+    }
+}
@@ -0,0 +1,39 @@
+package metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An output stream which adds the number of bytes written through it to a shared counter.
+ *
+ * @version 1.0
+ */
+public class CountingOutputStream extends FilterOutputStream {
+
+    /** The counter to which bytes written are added **/
+    private final LongAdder counter;
+
+    /**
+     * Wrap a stream so that writes are counted
+     * @param out the stream to write to
+     * @param counter the counter to add to
+     */
+    public CountingOutputStream(OutputStream out, LongAdder counter) {
+        super(out);
+        this.counter = counter;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        counter.increment();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        counter.add(len);
+    }
+}
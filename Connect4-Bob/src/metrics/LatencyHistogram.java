@@ -0,0 +1,204 @@
+package metrics;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free, fixed-footprint latency histogram in the style of HdrHistogram. Values are recorded into log-linear
+ * buckets: values below 128 are counted exactly, and every power-of-two range above that is split into 64 linear
+ * sub-buckets, for a worst-case relative error of about 1.6%. Any number of threads may record concurrently.
+ *
+ * @version 1.0
+ */
+public class LatencyHistogram {
+    /** Number of bits used for the exact, linear region at the bottom of the histogram **/
+    private static final int SUB_BUCKET_BITS = 7;
+    /** Values below this are counted in their own bucket **/
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /** Number of linear sub-buckets in each power-of-two range above the exact region **/
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    /** Largest value that can be told apart from its neighbours; anything above is clamped **/
+    private static final long HIGHEST_TRACKABLE = Long.MAX_VALUE >>> 1;
+    /** Total number of buckets needed to cover 0..HIGHEST_TRACKABLE **/
+    private static final int BUCKET_COUNT = bucketIndex(HIGHEST_TRACKABLE) + 1;
+
+    /** Per-bucket counts **/
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    /** Total number of recorded values **/
+    private final LongAdder totalCount = new LongAdder();
+    /** Sum of all recorded values, for the mean **/
+    private final LongAdder totalSum = new LongAdder();
+    /** The largest value recorded so far **/
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Record a single value, typically a duration in nanoseconds.
+     * @param value the value to record; negative values are recorded as 0
+     */
+    public void record(long value) {
+        if(value < 0) value = 0;
+        if(value > HIGHEST_TRACKABLE) value = HIGHEST_TRACKABLE;
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.increment();
+        totalSum.add(value);
+        long max;
+        while(value > (max = maxValue.get()) && !maxValue.compareAndSet(max, value));
+    }
+
+    /**
+     * Record the time elapsed since a start timestamp taken with System.nanoTime().
+     * @param startNanos the start of the interval
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Get the number of values recorded
+     * @return the total count
+     */
+    public long getCount() { return totalCount.sum(); }
+
+    /**
+     * Get the sum of all values recorded
+     * @return the total of all recorded values
+     */
+    public long getSum() { return totalSum.sum(); }
+
+    /**
+     * Get the largest value recorded
+     * @return the maximum, or 0 if nothing has been recorded
+     */
+    public long getMax() { return maxValue.get(); }
+
+    /**
+     * Get the arithmetic mean of the recorded values
+     * @return the mean, or 0 if nothing has been recorded
+     */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) getSum() / count;
+    }
+
+    /**
+     * Get the value at a given percentile. The result is the highest value equivalent to the bucket in which the
+     * percentile falls, so it never under-reports.
+     * @param percentile a percentile between 0 and 100
+     * @return the value at that percentile, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for(int i=0; i<BUCKET_COUNT; i++) total += counts.get(i);
+        if(total == 0) return 0;
+
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+        long seen = 0;
+        for(int i=0; i<BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if(seen >= target) return Math.min(highestEquivalentValue(i), getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * Add all of another histogram's recorded values to this one.
+     * @param other the histogram to merge in
+     */
+    public void add(LatencyHistogram other) {
+        for(int i=0; i<BUCKET_COUNT; i++) {
+            long c = other.counts.get(i);
+            if(c != 0) counts.addAndGet(i, c);
+        }
+        totalCount.add(other.getCount());
+        totalSum.add(other.getSum());
+        long value = other.getMax(), max;
+        while(value > (max = maxValue.get()) && !maxValue.compareAndSet(max, value));
+    }
+
+    /**
+     * Clear all recorded values. Not atomic with respect to concurrent recording.
+     */
+    public void reset() {
+        for(int i=0; i<BUCKET_COUNT; i++) counts.set(i, 0);
+        totalCount.reset();
+        totalSum.reset();
+        maxValue.set(0);
+    }
+
+    /**
+     * Print a percentile distribution in the same layout as HdrHistogram's outputPercentileDistribution, so the
+     * output can be fed to the usual HdrHistogram plotting tools.
+     * @param out the stream to print to
+     * @param ticksPerHalfDistance the number of reporting steps per halving of the remaining distance to 100%
+     * @param scale a divisor applied to every value, e.g. 1000.0 to report nanoseconds as microseconds
+     */
+    public void outputPercentileDistribution(PrintStream out, int ticksPerHalfDistance, double scale) {
+        out.println(String.format("%12s %14s %10s %14s", "Value", "Percentile", "TotalCount", "1/(1-Percentile)"));
+        out.println();
+
+        long total = getCount();
+        if(total > 0) {
+            double percentile = 0;
+            double halfDistance = 50;
+            while(true) {
+                long value = getValueAtPercentile(percentile);
+                long countAtValue = countAtOrBelow(value);
+                double fraction = percentile / 100.0;
+                if(fraction < 1.0) {
+                    out.println(String.format("%12.3f %2.12f %10d %14.2f",
+                            value / scale, fraction, countAtValue, 1 / (1 - fraction)));
+                } else {
+                    out.println(String.format("%12.3f %2.12f %10d", value / scale, fraction, countAtValue));
+                    break;
+                }
+                if(countAtValue >= total) {
+                    percentile = 100;
+                    continue;
+                }
+                percentile += halfDistance / ticksPerHalfDistance;
+                if(percentile >= 100 - halfDistance) halfDistance /= 2;
+            }
+        }
+
+        out.println(String.format("#[Mean    = %12.3f, Max     = %12.3f]", getMean() / scale, getMax() / scale));
+        out.println(String.format("#[Total count    = %12d]", total));
+    }
+
+    /**
+     * Count the recorded values which fall in buckets at or below the given value's bucket.
+     * @param value the value to count up to
+     * @return the number of recorded values at or below it
+     */
+    private long countAtOrBelow(long value) {
+        int last = bucketIndex(Math.min(value, HIGHEST_TRACKABLE));
+        long seen = 0;
+        for(int i=0; i<=last; i++) seen += counts.get(i);
+        return seen;
+    }
+
+    /**
+     * Map a value to its bucket.
+     * @param value a value between 0 and HIGHEST_TRACKABLE
+     * @return the index of the bucket counting that value
+     */
+    private static int bucketIndex(long value) {
+        if(value < SUB_BUCKET_COUNT) return (int) value;
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        int mantissa = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (mantissa - SUB_BUCKET_HALF);
+    }
+
+    /**
+     * Get the largest value which would be counted in the given bucket.
+     * @param index a bucket index
+     * @return the top of the bucket's value range
+     */
+    private static long highestEquivalentValue(int index) {
+        if(index < SUB_BUCKET_COUNT) return index;
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long mantissa = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,97 @@
+package metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+
+/**
+ * A tiny HTTP endpoint, bound to the loopback interface, serving server metrics at /metrics in the Prometheus text
+ * format. It runs on a single daemon thread of its own, so scrapes never touch game threads. Being loopback only, it
+ * can also carry operational controls such as draining the server.
+ *
+ * @version 1.0
+ */
+public class MetricsEndpoint {
+
+    /** The metrics to serve **/
+    private final ServerMetrics metrics;
+    /** The embedded HTTP server **/
+    private final HttpServer server;
+
+    /**
+     * Bind the endpoint; call start() to begin serving.
+     * @param metrics the metrics to serve
+     * @param port the local port to listen on
+     * @throws IOException if the port can't be bound
+     */
+    public MetricsEndpoint(ServerMetrics metrics, int port) throws IOException {
+        this.metrics = metrics;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this::handleMetrics);
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-endpoint");
+            t.setDaemon(true);
+            return t;
+        }));
+    }
+
+    /**
+     * Serve a control at a path. The action is given the request method and query string (null if there is none)
+     * and returns a plain text response.
+     * @param path the URL path, such as "/drain"
+     * @param action what to do for each request
+     */
+    public void addControl(String path, BiFunction<String, String, String> action) {
+        server.createContext(path, exchange -> {
+            int status = 200;
+            String text;
+            try {
+                text = action.apply(exchange.getRequestMethod(), exchange.getRequestURI().getQuery());
+            } catch(RuntimeException ex) {
+                status = 400;
+                text = ex + "\n";
+            }
+            byte[] body = text.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            try(OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+    }
+
+    /**
+     * Start serving requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stop serving requests.
+     */
+    public void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * Answer a scrape with the current metrics.
+     * @param exchange the HTTP request and response
+     * @throws IOException if the response can't be written
+     */
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        byte[] body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try(OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
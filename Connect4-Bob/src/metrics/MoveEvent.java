@@ -0,0 +1,39 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for a move applied through Connect4.makeMove. Disabled unless a recording turns it on.
+ *
+ * @version 1.0
+ */
+@Name("connect4.Move")
+@Label("Move")
+@Category({"Connect4", "Game"})
+@Description("A move applied to a game")
+@Enabled(false)
+@StackTrace(false)
+public class MoveEvent extends Event {
+    @Label("Session Id")
+    public long sessionId;
+
+    @Label("Ply")
+    @Description("Number of moves played before this one")
+    public int ply;
+
+    @Label("Player")
+    public char player;
+
+    @Label("Column")
+    public int column;
+
+    @Label("Row")
+    @Description("Row the chip landed in, or -1 if the move was illegal")
+    public int row;
+}
@@ -0,0 +1,39 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for a computer player choosing its move. Disabled unless a recording turns it on.
+ *
+ * @version 1.0
+ */
+@Name("connect4.MoveSelection")
+@Label("Move Selection")
+@Category({"Connect4", "AI"})
+@Description("A computer player choosing a move")
+@Enabled(false)
+@StackTrace(false)
+public class MoveSelectionEvent extends Event {
+    @Label("Session Id")
+    public long sessionId;
+
+    @Label("Ply")
+    @Description("Number of moves played before this one")
+    public int ply;
+
+    @Label("Search Depth")
+    public int depth;
+
+    @Label("Nodes")
+    @Description("Positions visited while choosing the move")
+    public long nodes;
+
+    @Label("Column")
+    public int column;
+}
@@ -0,0 +1,241 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms describing a running Connect4Server. Everything here is lock-free, so game threads
+ * can record into it on every move; readers get a slightly fuzzy but never blocking view.
+ *
+ * @version 1.0
+ */
+public class ServerMetrics {
+    /** Percentiles reported for every histogram **/
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    /** Sessions currently being played **/
+    public final AtomicLong activeSessions = new AtomicLong();
+    /** Sessions started since the server came up **/
+    public final LongAdder sessionsStarted = new LongAdder();
+    /** Connections accepted since the server came up **/
+    public final LongAdder connectionsAccepted = new LongAdder();
+    /** Connections closed for going silent **/
+    public final LongAdder connectionsReaped = new LongAdder();
+    /** Connections open now, admitted and not yet closed **/
+    public final AtomicLong connectionsOpen = new AtomicLong();
+    /** Connections turned away at accept time for being over a limit **/
+    public final LongAdder connectionsRejected = new LongAdder();
+    /** Connections closed for sending faster than their rate limit **/
+    public final LongAdder rateLimited = new LongAdder();
+    /** Connections closed for not reading what they were sent **/
+    public final LongAdder slowConsumers = new LongAdder();
+
+    /** Games won by player 1 **/
+    public final LongAdder player1Wins = new LongAdder();
+    /** Games won by player 2, human or computer **/
+    public final LongAdder player2Wins = new LongAdder();
+    /** Games ending in a draw **/
+    public final LongAdder draws = new LongAdder();
+    /** Games which ended because a connection failed **/
+    public final LongAdder abandoned = new LongAdder();
+    /** Games lost by a player whose clock ran out **/
+    public final LongAdder forfeits = new LongAdder();
+    /** Games cut short because a drain deadline passed **/
+    public final LongAdder drainedSessions = new LongAdder();
+
+    /** Bytes read from player sockets **/
+    public final LongAdder bytesIn = new LongAdder();
+    /** Bytes written to player sockets **/
+    public final LongAdder bytesOut = new LongAdder();
+
+    /** Nanoseconds from accepting player 1 to sending START **/
+    public final LatencyHistogram acceptToStart = new LatencyHistogram();
+    /** Nanoseconds spent validating and applying a move received from a player **/
+    public final LatencyHistogram moveValidation = new LatencyHistogram();
+    /** Nanoseconds spent choosing a computer move **/
+    public final LatencyHistogram aiCompute = new LatencyHistogram();
+
+    /** External engine processes running **/
+    public final AtomicLong enginePoolSize = new AtomicLong();
+    /** External engines currently answering a request **/
+    public final AtomicLong enginesBusy = new AtomicLong();
+    /** Engine requests which found no idle engine and had to wait **/
+    public final LongAdder engineSaturated = new LongAdder();
+    /** Engine requests which got no answer, or killed the engine **/
+    public final LongAdder engineFailures = new LongAdder();
+    /** Nanoseconds waiting for an idle engine **/
+    public final LatencyHistogram engineBorrowWait = new LatencyHistogram();
+    /** Nanoseconds from sending a position to an engine to reading its move **/
+    public final LatencyHistogram engineMove = new LatencyHistogram();
+
+    /** When the current drain's deadline passes, as a System.nanoTime() value, or 0 when not draining **/
+    private volatile long drainDeadlineNanos;
+
+    /** When these metrics were created, for uptime and average rates **/
+    private final long startNanos = System.nanoTime();
+
+    /** Finished game count at the previous scrape, for games per second **/
+    private long lastGames;
+    /** Time of the previous scrape **/
+    private long lastScrapeNanos = startNanos;
+
+    /**
+     * Get the number of games which have ended for any reason
+     * @return the total number of finished games
+     */
+    public long gamesFinished() {
+        return player1Wins.sum() + player2Wins.sum() + draws.sum() + abandoned.sum() + forfeits.sum()
+                + drainedSessions.sum();
+    }
+
+    /**
+     * Record that the server has started draining
+     * @param deadlineNanos when the drain deadline passes, as a System.nanoTime() value
+     */
+    public void drainDeadline(long deadlineNanos) {
+        drainDeadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Get the seconds left before the drain deadline
+     * @return the seconds left, 0 once the deadline has passed, or -1 when not draining
+     */
+    public double drainSecondsLeft() {
+        long deadline = drainDeadlineNanos;
+        if(deadline == 0) return -1;
+        return Math.max(0, deadline - System.nanoTime()) / 1e9;
+    }
+
+    /**
+     * Summarize drain progress, for the /drain endpoint
+     * @return one "name value" line each for the draining flag, seconds left and sessions still active
+     */
+    public String drainStatus() {
+        return "draining " + (drainDeadlineNanos != 0 ? 1 : 0) + "\n"
+                + "deadline_seconds " + String.format("%.1f", Math.max(0, drainSecondsLeft())) + "\n"
+                + "sessions_active " + activeSessions.get() + "\n";
+    }
+
+    /**
+     * Render every metric in the Prometheus text exposition format.
+     * @return the metrics, ready to serve from a /metrics endpoint
+     */
+    public synchronized String toPrometheus() {
+        StringBuilder sb = new StringBuilder(4096);
+        long now = System.nanoTime();
+
+        gauge(sb, "connect4_uptime_seconds", "Seconds since the server started", (now - startNanos) / 1e9);
+        gauge(sb, "connect4_sessions_active", "Sessions currently being played", activeSessions.get());
+        gauge(sb, "connect4_draining", "1 while the server is draining for a restart", drainDeadlineNanos != 0 ? 1 : 0);
+        gauge(sb, "connect4_drain_deadline_seconds", "Seconds left before a drain disconnects remaining games",
+                Math.max(0, drainSecondsLeft()));
+        counter(sb, "connect4_sessions_started_total", "Sessions started", sessionsStarted.sum());
+        counter(sb, "connect4_connections_accepted_total", "Player connections accepted", connectionsAccepted.sum());
+        counter(sb, "connect4_connections_reaped_total", "Player connections closed for missing heartbeats",
+                connectionsReaped.sum());
+        gauge(sb, "connect4_connections_open", "Player connections open", connectionsOpen.get());
+        counter(sb, "connect4_connections_rejected_total", "Player connections turned away by admission control",
+                connectionsRejected.sum());
+        counter(sb, "connect4_rate_limited_total", "Player connections closed for exceeding the message rate",
+                rateLimited.sum());
+        counter(sb, "connect4_slow_consumers_total", "Player connections closed for falling behind on reads",
+                slowConsumers.sum());
+
+        header(sb, "connect4_games_total", "Games finished, by outcome", "counter");
+        sample(sb, "connect4_games_total{outcome=\"player1\"}", player1Wins.sum());
+        sample(sb, "connect4_games_total{outcome=\"player2\"}", player2Wins.sum());
+        sample(sb, "connect4_games_total{outcome=\"draw\"}", draws.sum());
+        sample(sb, "connect4_games_total{outcome=\"abandoned\"}", abandoned.sum());
+        sample(sb, "connect4_games_total{outcome=\"forfeit\"}", forfeits.sum());
+        sample(sb, "connect4_games_total{outcome=\"drained\"}", drainedSessions.sum());
+
+        long games = gamesFinished();
+        double interval = (now - lastScrapeNanos) / 1e9;
+        gauge(sb, "connect4_games_per_second", "Games finished per second since the previous scrape",
+                interval > 0 ? (games - lastGames) / interval : 0);
+        lastGames = games;
+        lastScrapeNanos = now;
+
+        counter(sb, "connect4_bytes_in_total", "Bytes read from players", bytesIn.sum());
+        counter(sb, "connect4_bytes_out_total", "Bytes written to players", bytesOut.sum());
+
+        summary(sb, "connect4_accept_to_start_seconds", "Time from accepting player 1 to starting the game", acceptToStart);
+        summary(sb, "connect4_move_validation_seconds", "Time to validate and apply a player's move", moveValidation);
+        summary(sb, "connect4_ai_compute_seconds", "Time for the computer player to choose a move", aiCompute);
+
+        gauge(sb, "connect4_engine_pool_size", "External engine processes running", enginePoolSize.get());
+        gauge(sb, "connect4_engines_busy", "External engines answering a request", enginesBusy.get());
+        counter(sb, "connect4_engine_saturated_total", "Engine requests which had to wait for an idle engine",
+                engineSaturated.sum());
+        counter(sb, "connect4_engine_failures_total", "Engine requests which got no answer", engineFailures.sum());
+        summary(sb, "connect4_engine_borrow_wait_seconds", "Time waiting for an idle engine", engineBorrowWait);
+        summary(sb, "connect4_engine_move_seconds", "Time for an external engine to answer", engineMove);
+
+        return sb.toString();
+    }
+
+    /**
+     * Write the HELP and TYPE lines for a metric.
+     * @param sb the output
+     * @param name the metric name
+     * @param help a description of the metric
+     * @param type the Prometheus metric type
+     */
+    static void header(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Write a single sample line.
+     * @param sb the output
+     * @param name the metric name, including any labels
+     * @param value the sample value
+     */
+    static void sample(StringBuilder sb, String name, double value) {
+        sb.append(name).append(' ');
+        if(value == Math.rint(value) && Math.abs(value) < 1e15) sb.append((long) value);
+        else sb.append(value);
+        sb.append('\n');
+    }
+
+    /**
+     * Write a complete counter.
+     * @param sb the output
+     * @param name the metric name
+     * @param help a description of the metric
+     * @param value the current count
+     */
+    static void counter(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, help, "counter");
+        sample(sb, name, value);
+    }
+
+    /**
+     * Write a complete gauge.
+     * @param sb the output
+     * @param name the metric name
+     * @param help a description of the metric
+     * @param value the current value
+     */
+    static void gauge(StringBuilder sb, String name, String help, double value) {
+        header(sb, name, help, "gauge");
+        sample(sb, name, value);
+    }
+
+    /**
+     * Write a histogram of nanosecond values as a summary in seconds.
+     * @param sb the output
+     * @param name the metric name
+     * @param help a description of the metric
+     * @param histogram the recorded latencies
+     */
+    static void summary(StringBuilder sb, String name, String help, LatencyHistogram histogram) {
+        header(sb, name, help, "summary");
+        for(double q : QUANTILES) {
+            sample(sb, name + "{quantile=\"" + q + "\"}", histogram.getValueAtPercentile(q * 100) / 1e9);
+        }
+        sample(sb, name + "_sum", histogram.getSum() / 1e9);
+        sample(sb, name + "_count", histogram.getCount());
+    }
+}
@@ -0,0 +1,35 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event spanning a server game session from start to end. Disabled unless a recording turns it on.
+ *
+ * @version 1.0
+ */
+@Name("connect4.Session")
+@Label("Session")
+@Category({"Connect4", "Server"})
+@Description("A game session on the server")
+@Enabled(false)
+@StackTrace(false)
+public class SessionEvent extends Event {
+    @Label("Session Id")
+    public long sessionId;
+
+    @Label("Against Computer")
+    public boolean againstComputer;
+
+    @Label("Moves")
+    public int moves;
+
+    @Label("Outcome")
+    @Description("player1, player2, draw, forfeit or abandoned")
+    public String outcome;
+}
@@ -0,0 +1,101 @@
+package online;
+
+import java.net.InetAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides at accept time whether a new connection may stay: the server holds at most a fixed number of connections
+ * in total and a smaller number from any one address. The checks are a few compare-and-set operations on counters,
+ * with no locks, so admitting a legitimate player costs next to nothing and a flood is turned away before any
+ * per-connection state is built.
+ *
+ * An address's counter is removed when its last connection closes, so the map holds only addresses with live
+ * connections. A counter on its way out is marked -1, and anyone who finds it in that state retries with a fresh
+ * one.
+ *
+ * Addresses which speak for many players, such as a Connect4Router in front of a shard, can be exempted from the
+ * per-address limit; their connections still count towards the total. Exempt them before they first connect.
+ *
+ * @version 1.0
+ */
+public class AdmissionController {
+    /** Most connections open at once **/
+    private final int maxConnections;
+    /** Most connections open at once from one address **/
+    private final int maxPerAddress;
+    /** Connections open now **/
+    private final AtomicLong open;
+    /** Connections open now from each address **/
+    private final ConcurrentHashMap<InetAddress, AtomicInteger> perAddress = new ConcurrentHashMap<>();
+    /** Addresses held only to the total limit **/
+    private final Set<InetAddress> exempt = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Create a controller
+     * @param maxConnections most connections open at once
+     * @param maxPerAddress most connections open at once from one address
+     * @param open the count of open connections, which may be a gauge the server exports
+     */
+    public AdmissionController(int maxConnections, int maxPerAddress, AtomicLong open) {
+        this.maxConnections = maxConnections;
+        this.maxPerAddress = maxPerAddress;
+        this.open = open;
+    }
+
+    /**
+     * Try to admit a connection. If it is admitted, release() must be called exactly once when it closes.
+     * @param address where the connection came from
+     * @return true if it may stay, false if it should be closed straight away
+     */
+    public boolean admit(InetAddress address) {
+        if(open.incrementAndGet() > maxConnections) {
+            open.decrementAndGet();
+            return false;
+        }
+        if(exempt.contains(address)) return true;
+        while(true) {
+            AtomicInteger count = perAddress.computeIfAbsent(address, a -> new AtomicInteger());
+            int n = count.get();
+            if(n < 0) continue;
+            if(n >= maxPerAddress) {
+                open.decrementAndGet();
+                return false;
+            }
+            if(count.compareAndSet(n, n + 1)) return true;
+        }
+    }
+
+    /**
+     * Give back an admitted connection's place
+     * @param address where the connection came from
+     */
+    public void release(InetAddress address) {
+        open.decrementAndGet();
+        if(exempt.contains(address)) return;
+        AtomicInteger count = perAddress.get(address);
+        if(count != null && count.decrementAndGet() == 0 && count.compareAndSet(0, -1)) {
+            perAddress.remove(address, count);
+        }
+    }
+
+    /**
+     * Hold an address only to the total limit from now on, such as a router relaying many players
+     * @param address the address
+     */
+    public void exempt(InetAddress address) {
+        exempt.add(address);
+    }
+
+    /**
+     * Get the number of connections open from an address
+     * @param address the address
+     * @return its admitted connections which haven't been released
+     */
+    public int openFrom(InetAddress address) {
+        AtomicInteger count = perAddress.get(address);
+        return count == null ? 0 : Math.max(0, count.get());
+    }
+}
@@ -1,13 +1,21 @@
 package online;
 
+import metrics.ClientMessageEvent;
+
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
 
 
 /**
  * A client object handling communication between the server and an implementation of the Connect4OnlineInterface.
+ * Every heartbeat from the server is answered with one of ours. Servers may send heartbeats at any interval, or
+ * none at all, so the client only times out once it has seen two of them: from then on the server may be silent for
+ * three times the longest gap between its heartbeats, but never less than the connect4.heartbeat.timeout system
+ * property (milliseconds, default 15000), before the connection is given up as dead.
  *
  * @author Bob Rzadzki
  * @version 1.0
@@ -22,11 +30,25 @@ public class Connect4Client implements Connect4Constants {
 
     // Wait for the player to mark a cell
     private boolean waiting = true;
-    private boolean waitingForResult = false;
+    private volatile boolean waitingForResult = false;
 
     // Host name or ip
     private String host = "localhost";
 
+    // The least time the server may be silent before the connection is dropped, in milliseconds
+    private final int timeoutMillis = Integer.getInteger("connect4.heartbeat.timeout", 15000);
+
+    // Heartbeats the server may miss in a row before we give up on it
+    private static final int MISSED_HEARTBEATS = 3;
+
+    // The timeout in force, in milliseconds; 0 until heartbeats show the server sends them
+    private int currentTimeoutMillis = 0;
+
+    // When the last heartbeat arrived, as a System.nanoTime() value, or 0 before the first
+    private long lastHeartbeat = 0;
+
+    private Socket socket;
+
     private int playerNumber;
 
     private Connect4OnlineInterface ui;
@@ -40,7 +62,7 @@ public class Connect4Client implements Connect4Constants {
     private void connectToServer(boolean playAgainstPerson) {
         try {
             // Create a socket to connect to the server
-            Socket socket = new Socket(host, 8004);
+            socket = new Socket(host, SERVER_PORT);
 
             // Create an input stream to receive data from the server
             fromServer = new DataInputStream(socket.getInputStream());
@@ -60,6 +82,10 @@ public class Connect4Client implements Connect4Constants {
 
                 // Get player assignment from the server
                 int player = fromServer.readInt();
+                if(player == ERROR_SERVER_BUSY) {
+                    System.err.println("The server is too busy to take another player; try again later");
+                    return;
+                }
                 playerNumber = player;
 
                 ui.receivePlayerNumber(playerNumber);
@@ -69,9 +95,19 @@ public class Connect4Client implements Connect4Constants {
                     receiveInfoFromServer();
                 }
             }
+            catch (SocketTimeoutException ex) {
+                System.err.println("No word from the server for " + currentTimeoutMillis + " ms; disconnecting");
+            }
             catch (Exception ex) {
                 ex.printStackTrace();
             }
+            finally {
+                try {
+                    fromServer.close();
+                } catch (IOException ex) {
+                    // the socket is gone either way
+                }
+            }
         }).start();
     }
 
@@ -81,8 +117,29 @@ public class Connect4Client implements Connect4Constants {
      * @throws IOException if there's a problem communicating with the server
      */
     public void sendMove(int columnSelected) throws IOException {
-        toServer.writeInt(columnSelected); // Send the selected column
+        // set before writing, or a quick answer could arrive while we don't think we're waiting for one
         waitingForResult = true;
+        synchronized(toServer) {
+            toServer.writeInt(columnSelected); // Send the selected column
+        }
+    }
+
+    /**
+     * Called on every heartbeat: from the second one on, allow the server to be silent for MISSED_HEARTBEATS times the
+     * longest gap between heartbeats seen so far, but no less than timeoutMillis
+     * @throws IOException if the socket's timeout can't be set
+     */
+    private void adjustTimeout() throws IOException {
+        long now = System.nanoTime();
+        if(lastHeartbeat != 0) {
+            long gap = TimeUnit.NANOSECONDS.toMillis(now - lastHeartbeat);
+            int allowed = (int) Math.min(Integer.MAX_VALUE, Math.max(timeoutMillis, MISSED_HEARTBEATS * gap));
+            if(allowed > currentTimeoutMillis) {
+                currentTimeoutMillis = allowed;
+                socket.setSoTimeout(allowed);
+            }
+        }
+        lastHeartbeat = now;
     }
 
     /**
@@ -92,6 +149,16 @@ public class Connect4Client implements Connect4Constants {
     private void receiveInfoFromServer() throws IOException {
         // Receive game status
         int status = fromServer.readInt();
+        if(status == HEARTBEAT) {
+            synchronized(toServer) {
+                toServer.writeInt(HEARTBEAT);
+            }
+            adjustTimeout();
+            return;
+        }
+
+        ClientMessageEvent event = new ClientMessageEvent();
+        event.begin();
 
         int column, row, player;
 
@@ -126,5 +193,11 @@ public class Connect4Client implements Connect4Constants {
                     waitingForResult = false;
                 }
         }
+
+        if(event.shouldCommit()) {
+            event.playerNumber = playerNumber;
+            event.status = status;
+            event.commit();
+        }
     }
 }
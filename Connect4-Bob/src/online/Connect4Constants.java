@@ -7,9 +7,16 @@ public interface Connect4Constants {
 
     /* 0-6 are reserved for indicating columns and rows */
 
+    /** The TCP port the server listens on unless told otherwise **/
+    public static final int SERVER_PORT = 8004;
+
     public static final int UNDEFINED = -1;
 
     public static final int ERROR_ILLEGAL_MOVE = 100;
+    /** Sent in place of a player number when the server turns a connection away, just before closing it **/
+    public static final int ERROR_SERVER_BUSY = 101;
+    /** Answers LOBBY_JOIN when the game has been taken or its host has left; the player stays in the lobby **/
+    public static final int ERROR_NO_SUCH_GAME = 102;
 
     public static final int PLAYER1 = 10;
     public static final int PLAYER2 = 11;
@@ -31,6 +38,26 @@ public interface Connect4Constants {
     public static final char PLAYER1_TOKEN = 'X';
     public static final char PLAYER2_TOKEN = 'O';
 
+    /** Keeps an idle connection alive. The server sends one between frames every connect4.heartbeat milliseconds and
+     * a client answers each with one of its own; either side may drop a connection which stays silent too long **/
+    public static final int HEARTBEAT = 40;
+
     public static final int PLAY_AGAINST_PERSON = 60;
     public static final int PLAY_AGAINST_COMPUTER = 61;
+
+    /* A client may send lobby commands instead of PLAY_AGAINST_PERSON or PLAY_AGAINST_COMPUTER, as many as it likes,
+     * until it creates or joins a game or sends one of those two */
+
+    /** List open games: followed by seat (PLAYER1, PLAYER2 or UNDEFINED), move clock in seconds (or UNDEFINED), the
+     * id to list after (0 for the first page) and the page size. Answered with LOBBY_GAMES **/
+    public static final int LOBBY_LIST = 70;
+    /** Open a game and wait for an opponent: followed by the seat to take (PLAYER1 or PLAYER2) and the move clock in
+     * seconds (0 for the server's). Answered with LOBBY_CREATED, then the player number once someone joins **/
+    public static final int LOBBY_CREATE = 71;
+    /** Join an open game: followed by its id. Answered with the player number, or ERROR_NO_SUCH_GAME **/
+    public static final int LOBBY_JOIN = 72;
+    /** A page of open games: followed by a count, then id, seat and move clock for each **/
+    public static final int LOBBY_GAMES = 73;
+    /** A game has been opened: followed by its id **/
+    public static final int LOBBY_CREATED = 74;
 }
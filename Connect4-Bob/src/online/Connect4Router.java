@@ -0,0 +1,533 @@
+package online;
+
+import logging.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thin front end for a sharded deployment: clients connect to the router exactly as they would to a single
+ * Connect4Server, and the router relays each connection, byte for byte, to one of several server processes (shards)
+ * on this or other hosts. All relaying is done by one thread with non-blocking sockets, so the router costs two
+ * buffers per connection and no threads.
+ *
+ * Shards announce themselves by connecting to the router's control port and sending a load report every second
+ * (see ShardReporter): "LOAD host port sessions connections draining", where host "-" means the address the report
+ * came from. A shard which stops reporting, or reports that it is draining, gets no new connections.
+ *
+ * A client's first message says what kind of game it wants, so the router reads that int before choosing:
+ *   - a player wanting a human opponent joins the shard where another is already waiting, since a server pairs
+ *     consecutive players; otherwise they wait on the least loaded shard
+ *   - a player wanting the computer goes to the least loaded shard with nobody waiting, so they aren't taken for
+ *     someone's opponent
+ *   - a player reconnecting from an address seen within the affinity window goes back to the same shard, as long as
+ *     it is healthy and not much busier than the least loaded one
+ * Load is the larger of the shard's reported connection count and the connections the router has open to it, so
+ * bursts between reports are still spread.
+ *
+ * A player who starts with a lobby command is routed like one wanting the computer. Every shard keeps its own
+ * lobby, so players browsing through the router only see the open games of the shard they land on.
+ *
+ * Shards see every player arriving from the router's address, so they can't limit connections per player; the router
+ * does that with its own AdmissionController, keyed on each player's address, and turns away anyone over a limit
+ * with ERROR_SERVER_BUSY before choosing a shard.
+ *
+ * @version 1.0
+ */
+public class Connect4Router implements Connect4Constants {
+    /** Bytes buffered per direction per connection **/
+    private static final int BUFFER_SIZE = 4096;
+    /** A shard which hasn't reported for this long is skipped **/
+    private static final long REPORT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    /** An affine shard is still used while its load is at most this much over the least loaded shard's **/
+    private static final int AFFINITY_SLACK = 4;
+    /** Addresses remembered for affinity **/
+    private static final int AFFINITY_ENTRIES = 100_000;
+
+    /**
+     * What the router knows about one shard.
+     */
+    static final class Shard {
+        /** host:port, as clients are relayed to it **/
+        final String id;
+        /** Where to relay clients **/
+        final InetSocketAddress address;
+        /** Sessions in progress, as last reported **/
+        volatile int sessions;
+        /** Open player connections, as last reported **/
+        volatile int connections;
+        /** Whether the shard last said it was draining **/
+        volatile boolean draining;
+        /** When the last report arrived, as a System.nanoTime() value **/
+        volatile long lastReport;
+        /** Connections the router has open to this shard; only the relay thread touches it **/
+        int relayed;
+        /** A player relayed here who is waiting for a human opponent, or null; only the relay thread touches it **/
+        Pipe waiting;
+
+        /**
+         * Create a shard
+         * @param id host:port
+         * @param address where to relay clients
+         */
+        Shard(String id, InetSocketAddress address) {
+            this.id = id;
+            this.address = address;
+        }
+
+        /**
+         * Check whether the shard should get new players
+         * @param now the current System.nanoTime()
+         * @return true if it has reported recently and isn't draining
+         */
+        boolean isHealthy(long now) {
+            return !draining && now - lastReport < REPORT_TIMEOUT_NANOS;
+        }
+
+        /**
+         * Get the shard's load, for comparing shards
+         * @return the larger of its reported and relayed connection counts
+         */
+        int load() {
+            return Math.max(connections, relayed);
+        }
+    }
+
+    /** Client port **/
+    private final int port;
+    /** Port shards report to **/
+    private final int controlPort;
+    /** How long a client's address keeps its shard, in nanoseconds **/
+    private final long affinityNanos;
+    /** Caps players relayed in total and per player address **/
+    private final AdmissionController admission;
+    /** Every shard which has reported, by id **/
+    private final ConcurrentHashMap<String, Shard> shards = new ConcurrentHashMap<>();
+    /** Each recent client address's shard id and when it was assigned; only the relay thread touches it **/
+    private final LinkedHashMap<InetAddress, Object[]> affinity = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<InetAddress, Object[]> eldest) {
+            return size() > AFFINITY_ENTRIES;
+        }
+    };
+    /** Released once both ports are listening **/
+    private final CountDownLatch started = new CountDownLatch(2);
+    /** Multiplexes every relayed connection **/
+    private Selector selector;
+
+    /**
+     * Start a router which admits players as a Connect4Server would: at most connect4.connections.max at once
+     * (default 10000) and connect4.connections.per.address from any one address (default 16)
+     * @param port the port clients connect to
+     * @param controlPort the port shards report to
+     * @param affinityMillis how long a client address sticks to its shard
+     */
+    public Connect4Router(int port, int controlPort, long affinityMillis) {
+        this(port, controlPort, affinityMillis, new AdmissionController(
+                Integer.getInteger("connect4.connections.max", 10000),
+                Integer.getInteger("connect4.connections.per.address", 16), new AtomicLong()));
+    }
+
+    /**
+     * Start a router
+     * @param port the port clients connect to
+     * @param controlPort the port shards report to
+     * @param affinityMillis how long a client address sticks to its shard
+     * @param admission decides which players may connect, keyed on their own addresses
+     */
+    public Connect4Router(int port, int controlPort, long affinityMillis, AdmissionController admission) {
+        this.port = port;
+        this.admission = admission;
+        this.controlPort = controlPort;
+        this.affinityNanos = TimeUnit.MILLISECONDS.toNanos(affinityMillis);
+        new Thread(this::relay, "router-relay").start();
+        new Thread(this::control, "router-control").start();
+    }
+
+    /**
+     * Wait until the router is listening on both ports.
+     * @param timeout the longest time to wait
+     * @param unit the unit of the timeout
+     * @return true if it is listening, false if the timeout elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitStarted(long timeout, TimeUnit unit) throws InterruptedException {
+        return started.await(timeout, unit);
+    }
+
+    /**
+     * Describe every shard, for logs and tests
+     * @return one line per shard: id, reported sessions and connections, relayed connections and health
+     */
+    public String describeShards() {
+        StringBuilder sb = new StringBuilder();
+        long now = System.nanoTime();
+        for(Shard shard : shards.values()) {
+            sb.append(String.format("%-22s sessions %5d  connections %5d  relayed %5d  %s%n", shard.id,
+                    shard.sessions, shard.connections, shard.relayed,
+                    shard.draining ? "draining" : shard.isHealthy(now) ? "healthy" : "silent"));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Accept shard control connections, one thread each; there are only ever a handful.
+     */
+    private void control() {
+        try(ServerSocket serverSocket = new ServerSocket(controlPort)) {
+            Log.info("Router taking shard reports on port {}", controlPort);
+            started.countDown();
+            while(true) {
+                Socket socket = serverSocket.accept();
+                new Thread(() -> readReports(socket), "router-shard-" + socket.getPort()).start();
+            }
+        } catch(IOException ex) {
+            Log.error("Router stopped taking shard reports: {}", ex);
+        }
+    }
+
+    /**
+     * Read one shard's load reports until its control connection closes.
+     * @param socket the control connection
+     */
+    private void readReports(Socket socket) {
+        Shard shard = null;
+        try(BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                StandardCharsets.US_ASCII))) {
+            socket.setSoTimeout((int) TimeUnit.NANOSECONDS.toMillis(REPORT_TIMEOUT_NANOS));
+            for(String line; (line = in.readLine()) != null; ) {
+                String[] f = line.trim().split("\\s+");
+                if(f.length != 6 || !f[0].equals("LOAD")) {
+                    Log.warn("Ignoring shard report {}", line);
+                    continue;
+                }
+                String host = f[1].equals("-") ? socket.getInetAddress().getHostAddress() : f[1];
+                int shardPort = Integer.parseInt(f[2]);
+                if(shard == null) {
+                    String id = host + ":" + shardPort;
+                    shard = shards.computeIfAbsent(id, k -> new Shard(k, new InetSocketAddress(host, shardPort)));
+                    Log.info("Shard {} reporting", id);
+                }
+                shard.sessions = Integer.parseInt(f[3]);
+                shard.connections = Integer.parseInt(f[4]);
+                shard.draining = f[5].equals("1");
+                shard.lastReport = System.nanoTime();
+            }
+        } catch(IOException | RuntimeException ex) {
+            Log.debug("Shard control connection failed: {}", ex);
+        }
+        if(shard != null) {
+            // keep the entry, so connections already relayed are still counted, but stop routing to it
+            shard.lastReport = 0;
+            Log.info("Shard {} stopped reporting", shard.id);
+        }
+    }
+
+    /**
+     * The relay thread: accept clients, pick their shards and copy bytes both ways.
+     */
+    private void relay() {
+        try(ServerSocketChannel server = ServerSocketChannel.open()) {
+            selector = Selector.open();
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            Log.info("Router accepting players on port {}", port);
+            started.countDown();
+            while(true) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if(key.isValid() && key.isAcceptable()) {
+                        accept(server);
+                        continue;
+                    }
+                    Pipe pipe = (Pipe) key.attachment();
+                    try {
+                        pipe.handle(key);
+                    } catch(IOException ex) {
+                        pipe.close();
+                    }
+                }
+            }
+        } catch(IOException ex) {
+            Log.error("Router stopped relaying players: {}", ex);
+        }
+    }
+
+    /**
+     * Accept a player and start relaying for them. A failure here, such as running out of file descriptors or the
+     * player resetting straight after connecting, loses only that player; the relay thread carries on.
+     * @param server the listening channel
+     */
+    private void accept(ServerSocketChannel server) {
+        SocketChannel client = null;
+        InetAddress address = null;
+        try {
+            client = server.accept();
+            if(client == null) return;
+            InetAddress from = client.socket().getInetAddress();
+            if(!admission.admit(from)) {
+                Log.debug("Turning away a player from {}", from);
+                client.configureBlocking(false);
+                client.write(ByteBuffer.allocate(4).putInt(0, ERROR_SERVER_BUSY));
+                client.close();
+                return;
+            }
+            address = from;
+            new Pipe(client, address);
+        } catch(IOException ex) {
+            if(address != null) admission.release(address);
+            Log.warn("Couldn't accept a player: {}", ex.getMessage());
+            if(client != null) {
+                try {
+                    client.close();
+                } catch(IOException closeEx) {
+                    // nothing more to release
+                }
+            }
+        }
+    }
+
+    /**
+     * Choose a shard for a new player.
+     * @param choice what kind of game they asked for
+     * @param address where they connected from
+     * @return the shard, or null if none is healthy
+     */
+    private Shard choose(int choice, InetAddress address) {
+        long now = System.nanoTime();
+        if(choice == PLAY_AGAINST_PERSON) {
+            for(Shard shard : shards.values()) {
+                if(shard.waiting != null && shard.isHealthy(now)) return shard;
+            }
+        }
+        Shard least = null;
+        for(Shard shard : shards.values()) {
+            if(!shard.isHealthy(now) || shard.waiting != null) continue;
+            if(least == null || shard.load() < least.load()) least = shard;
+        }
+        if(least == null) {
+            // only possible with a single healthy shard holding a waiting player
+            for(Shard shard : shards.values()) if(shard.isHealthy(now)) least = shard;
+            return least;
+        }
+
+        Object[] previous = affinity.get(address);
+        if(previous != null && now - (long) previous[1] < affinityNanos) {
+            Shard sticky = shards.get((String) previous[0]);
+            if(sticky != null && sticky != least && sticky.isHealthy(now) && sticky.waiting == null
+                    && sticky.load() <= least.load() + AFFINITY_SLACK) {
+                return sticky;
+            }
+        }
+        return least;
+    }
+
+    /**
+     * One client connection and the shard connection it is relayed to.
+     */
+    final class Pipe {
+        /** The player's connection **/
+        private final SocketChannel client;
+        /** The player's address, as admitted **/
+        private final InetAddress address;
+        /** Bytes from the player on their way to the shard **/
+        private final ByteBuffer up = ByteBuffer.allocate(BUFFER_SIZE);
+        /** Bytes from the shard on their way to the player **/
+        private final ByteBuffer down = ByteBuffer.allocate(BUFFER_SIZE);
+        /** The player's registration with the selector **/
+        private final SelectionKey clientKey;
+        /** The connection to the shard, once one is chosen **/
+        private SocketChannel upstream;
+        /** The shard connection's registration **/
+        private SelectionKey upstreamKey;
+        /** The chosen shard **/
+        private Shard shard;
+        /** Set once the shard has closed its end while bytes for the player were still buffered **/
+        private boolean shardFinished;
+        /** Set once both ends are closed **/
+        private boolean closed;
+
+        /**
+         * Start relaying a newly accepted player; nothing is connected upstream until their first int arrives.
+         * @param client the player's connection
+         * @param address the player's address, which the pipe releases from admission control when it closes
+         * @throws IOException if the connection can't be registered
+         */
+        Pipe(SocketChannel client, InetAddress address) throws IOException {
+            this.client = client;
+            this.address = address;
+            client.configureBlocking(false);
+            client.socket().setTcpNoDelay(true);
+            clientKey = client.register(selector, SelectionKey.OP_READ, this);
+        }
+
+        /**
+         * Act on whatever the selector found ready
+         * @param key the ready key, for either end
+         * @throws IOException if either connection fails
+         */
+        void handle(SelectionKey key) throws IOException {
+            boolean fromClient = key == clientKey;
+            if(key.isValid() && key.isConnectable()) connected();
+            if(key.isValid() && key.isReadable()) read(fromClient);
+            if(key.isValid() && key.isWritable()) flush(!fromClient);
+        }
+
+        /**
+         * Read what has arrived at one end and pass it on to the other
+         * @param fromClient true to read from the player, false from the shard
+         * @throws IOException if a connection fails
+         */
+        private void read(boolean fromClient) throws IOException {
+            ByteBuffer buffer = fromClient ? up : down;
+            int n = (fromClient ? client : upstream).read(buffer);
+            if(n < 0) {
+                if(!fromClient && down.position() > 0) {
+                    // the shard is done, perhaps with a game's last WIN or DRAW still waiting here; deliver it first
+                    shardFinished = true;
+                    upstreamKey.interestOps(0);
+                    clientKey.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                close();
+                return;
+            }
+            if(upstream == null) {
+                if(buffer.position() >= 4) route();
+                return;
+            }
+            flush(fromClient);
+        }
+
+        /**
+         * Write as much buffered data as one end will take. Reading from the other end stops while the buffer is
+         * full and resumes once it drains, so a slow reader holds back the sender instead of growing the buffer.
+         * Once the shard has finished, the pipe closes when the last of its bytes have gone to the player.
+         * @param toShard true to write the player's bytes to the shard, false the shard's to the player
+         * @throws IOException if the connection fails
+         */
+        private void flush(boolean toShard) throws IOException {
+            if(upstream == null || !upstream.isConnected()) return;
+            ByteBuffer buffer = toShard ? up : down;
+            SelectionKey to = toShard ? upstreamKey : clientKey, from = toShard ? clientKey : upstreamKey;
+            buffer.flip();
+            (toShard ? upstream : client).write(buffer);
+            buffer.compact();
+            if(shardFinished) {
+                // only the player's end is left; close once they have everything the shard sent
+                if(buffer.position() == 0) close();
+                return;
+            }
+            if(buffer.position() > 0) to.interestOpsOr(SelectionKey.OP_WRITE);
+            else to.interestOpsAnd(~SelectionKey.OP_WRITE);
+            if(buffer.hasRemaining()) from.interestOpsOr(SelectionKey.OP_READ);
+            else from.interestOpsAnd(~SelectionKey.OP_READ);
+        }
+
+        /**
+         * The player's first int has arrived: pick a shard and start connecting to it.
+         * @throws IOException if the connection can't be started
+         */
+        private void route() throws IOException {
+            int choice = up.getInt(0);
+            shard = choose(choice, address);
+            if(shard == null) {
+                Log.warn("No healthy shard for a player from {}", address);
+                client.write(ByteBuffer.allocate(4).putInt(0, ERROR_SERVER_BUSY));
+                close();
+                return;
+            }
+            shard.relayed++;
+            if(choice == PLAY_AGAINST_PERSON) shard.waiting = shard.waiting == null ? this : null;
+            affinity.put(address, new Object[] { shard.id, System.nanoTime() });
+
+            upstream = SocketChannel.open();
+            upstream.configureBlocking(false);
+            upstream.socket().setTcpNoDelay(true);
+            clientKey.interestOps(0);
+            if(upstream.connect(shard.address)) {
+                upstreamKey = upstream.register(selector, 0, this);
+                connected();
+            } else {
+                upstreamKey = upstream.register(selector, SelectionKey.OP_CONNECT, this);
+            }
+        }
+
+        /**
+         * The shard connection is up: send what the player has said so far and relay both ways from now on.
+         * @throws IOException if the connection failed
+         */
+        private void connected() throws IOException {
+            if(upstream.isConnectionPending()) upstream.finishConnect();
+            upstreamKey.interestOps(SelectionKey.OP_READ);
+            clientKey.interestOps(SelectionKey.OP_READ);
+            flush(true);
+        }
+
+        /**
+         * Close both ends and forget the player
+         */
+        void close() {
+            if(closed) return;
+            closed = true;
+            admission.release(address);
+            if(shard != null) {
+                shard.relayed--;
+                if(shard.waiting == this) shard.waiting = null;
+            }
+            try {
+                client.close();
+            } catch(IOException ex) {
+                // nothing more to release
+            }
+            if(upstream != null) {
+                try {
+                    upstream.close();
+                } catch(IOException ex) {
+                    // nothing more to release
+                }
+            }
+        }
+    }
+
+    /**
+     * Run a router. Clients connect on connect4.port (default 8004), shards report on connect4.router.control
+     * (default 8014), and a client address sticks to its shard for connect4.router.affinity milliseconds (default
+     * 300000). Players are limited to connect4.connections.max at once (default 10000) and
+     * connect4.connections.per.address from any one address (default 16). Start shards with -Dconnect4.port set to a
+     * free port each, -Dconnect4.router=host:controlport so they report here, and distinct connect4.metrics.port
+     * values; a shard exempts the router's address from its own per-address limit, but if the router reaches a shard
+     * from another address than the one in connect4.router, start that shard with connect4.connections.per.address
+     * raised to cover every player. See tools.LocalCluster to run everything on one host.
+     * @param args not used
+     * @throws InterruptedException if interrupted while starting
+     */
+    public static void main(String[] args) throws InterruptedException {
+        Connect4Router router = new Connect4Router(Integer.getInteger("connect4.port", SERVER_PORT),
+                Integer.getInteger("connect4.router.control", 8014),
+                Long.getLong("connect4.router.affinity", 300000));
+        router.awaitStarted(10, TimeUnit.SECONDS);
+    }
+}
@@ -1,86 +1,424 @@
 package online;
 
-import core.ComputerPlayer;
+import ai.PlayerSpecs;
 import core.Connect4;
 import core.Player;
+import logging.Log;
+import metrics.MetricsEndpoint;
+import metrics.ServerMetrics;
+import metrics.SessionEvent;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.Date;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 
 /**
  * A server which will thread off sessions for 1- or 2-player games as players connect.
  *
+ * Players can also meet in a lobby: list the open games, optionally filtered by the seat the host takes and the
+ * move clock, open a game of their own and wait, or join one from the list (see the LOBBY_ constants). The open
+ * games are kept in a LobbyIndex, so browsing never contends with the players opening and joining games, nor with
+ * games in progress.
+ *
+ * A server can be drained for a restart: it stops accepting players, lets the games in progress finish, and at a
+ * deadline disconnects whatever is left. With connect4.reuseport set, the listening socket is bound with
+ * SO_REUSEPORT, so a new server on the same host and port can start taking players before the old one drains and
+ * no connection attempt is refused in between.
+ *
  * @author Bob Rzadzki
  * @version 1.0
  */
 public class Connect4Server implements Connect4Constants {
 
     /** A sequential number for the session **/
-    private int sessionNo = 0; // Number a session
+    private final AtomicInteger sessionNo = new AtomicInteger(); // Number a session
+
+    /** Released once the server socket is listening **/
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    /** Released once a drain has finished: no longer accepting, and no sessions left **/
+    private final CountDownLatch drained = new CountDownLatch(1);
+    /** The listening socket, once bound **/
+    private volatile ServerSocket serverSocket;
+    /** Set when the server starts draining **/
+    private volatile boolean draining = false;
+    /** Cleared when the accept loop has stopped **/
+    private volatile boolean accepting = true;
+    /** Sessions in progress, so a drain can end the stragglers **/
+    private final Set<HandleASession> sessions = ConcurrentHashMap.newKeySet();
+    /** Open games waiting for an opponent **/
+    private final LobbyIndex lobby = new LobbyIndex();
+    /** Players connected but not yet in a game: choosing, browsing, hosting or waiting to be paired **/
+    private final Set<Connection> lobbyPlayers = ConcurrentHashMap.newKeySet();
+    /** The player who asked for any human opponent and is waiting for the next, or null; guarded by lobby **/
+    private Connection firstComeWaiting;
+    /** When firstComeWaiting was accepted, as a System.nanoTime() value **/
+    private long firstComeAccepted;
+    /** Read lobby commands, one thread per player until they're in a game or waiting for one **/
+    private final ExecutorService lobbyThreads = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "connect4-lobby");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Session counts, traffic and latencies for this server **/
+    private final ServerMetrics metrics = new ServerMetrics();
+
+    /** Creates the computer opponent for 1-player games, from the connect4.ai system property (default random) **/
+    private final Supplier<Player> computerPlayers = PlayerSpecs.parse(System.getProperty("connect4.ai", "random"),
+            metrics);
+
+    /** Longest a player may take over one move in milliseconds, from connect4.clock.move; 0 for no limit **/
+    private final long moveMillis = Long.getLong("connect4.clock.move", 60000);
+    /** Thinking time each player gets for the whole game in milliseconds, from connect4.clock.game; 0 for no limit **/
+    private final long gameMillis = Long.getLong("connect4.clock.game", 0);
+    /** Runs every session's clocks and every connection's heartbeats **/
+    private final TimerWheel timers = new TimerWheel(100, 512, "connect4-timers");
+    /** Milliseconds between heartbeats, from connect4.heartbeat; 0 to send none and reap nothing **/
+    private final long heartbeatMillis = Long.getLong("connect4.heartbeat", 5000);
+    /** Heartbeats players and closes connections silent for connect4.heartbeat.timeout milliseconds **/
+    private final HeartbeatMonitor heartbeats = new HeartbeatMonitor(timers, heartbeatMillis,
+            Long.getLong("connect4.heartbeat.timeout", 3 * heartbeatMillis), metrics);
+    /** Caps open connections in total and per address, from connect4.connections.max and .per.address **/
+    private final AdmissionController admission = new AdmissionController(
+            Integer.getInteger("connect4.connections.max", 10000),
+            Integer.getInteger("connect4.connections.per.address", 16), metrics.connectionsOpen);
+    /** Messages per second each player may send on average, from connect4.messages.rate **/
+    private final double messageRate = Double.parseDouble(System.getProperty("connect4.messages.rate", "20"));
+    /** Messages each player may send in a burst, from connect4.messages.burst **/
+    private final int messageBurst = Integer.getInteger("connect4.messages.burst", 40);
+    /** Bytes which may wait to be written to one player before they're dropped, from connect4.outbound.max **/
+    private final int outboundMax = Integer.getInteger("connect4.outbound.max", 4096);
+    /** Writes every connection's outbound queue; a thread is only busy while a write is, so none waits on another **/
+    private final ExecutorService writers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "connect4-writer");
+        t.setDaemon(true);
+        return t;
+    });
 
     /**
-     * The default constructor that will handle session threading.
+     * The default constructor that will handle session threading on the default port.
      */
     public Connect4Server() {
+        this(SERVER_PORT);
+    }
+
+    /**
+     * Start a server which will handle session threading on the given port.
+     * @param port the TCP port on which to accept players
+     */
+    public Connect4Server(int port) {
         new Thread( () -> {
             try {
                 // Create a server socket
-                ServerSocket serverSocket = new ServerSocket(8004);
-                System.out.println(new Date() + ": Server started at socket 8004\n");
-
-                // Ready to create a session for every two players
-                while (true) {
-                    sessionNo++;
-                    System.out.println(new Date() + ": Wait for players to join session " + sessionNo + '\n');
-
-                    // Connect to player 1
-                    Socket player1 = serverSocket.accept();
+                ServerSocket serverSocket = new ServerSocket();
+                if(Boolean.getBoolean("connect4.reuseport")
+                        && serverSocket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                serverSocket.bind(new InetSocketAddress(port));
+                this.serverSocket = serverSocket;
+                Log.info("Server started at socket {}", port);
+                started.countDown();
+
+                // Hand every player to a lobby thread, so nobody slow to say what they want holds up the next
+                while (!draining) {
+                    Connection player = accept(serverSocket);
+                    long accepted = System.nanoTime();
+                    Log.info("Player from {} connected", player.getSocket().getInetAddress());
+                    lobbyPlayers.add(player);
+                    if(draining) player.close();
+                    else lobbyThreads.execute(() -> handshake(player, accepted));
+                }
+            }
+            catch(IOException ex) {
+                if(!draining) ex.printStackTrace();
+            }
+            finally {
+                accepting = false;
+                if(draining) Log.info("Stopped accepting players");
+                checkDrained();
+            }
+        }).start();
+    }
 
-                    System.out.println(new Date() + ": Player 1 joined session " + sessionNo + '\n');
-                    System.out.println("Player 1's IP address: " + player1.getInetAddress().getHostAddress() + '\n');
+    /**
+     * Find out what a newly connected player wants, answering lobby commands until they start a game, open one or
+     * join one. A player asking for a human opponent is paired first come, first served, as they always were.
+     * @param player the player's connection
+     * @param accepted when it was accepted, as a System.nanoTime() value
+     */
+    private void handshake(Connection player, long accepted) {
+        try {
+            while(true) {
+                int command = player.readInt();
+                switch(command) {
+                    case PLAY_AGAINST_COMPUTER:
+                        Log.info("Player from {} opts to play against computer", player.getSocket().getInetAddress());
+                        player.send(PLAYER1);
+                        startSession(player, null, accepted, 0);
+                        return;
+                    case PLAY_AGAINST_PERSON:
+                        pairFirstCome(player, accepted);
+                        return;
+                    case LOBBY_LIST:
+                        int seat = player.readArgument(), moveSeconds = player.readArgument();
+                        int afterId = player.readArgument(), limit = player.readArgument();
+                        List<LobbyIndex.OpenGame> page = lobby.list(seat, moveSeconds, afterId, limit);
+                        int[] reply = new int[2 + 3 * page.size()];
+                        reply[0] = LOBBY_GAMES;
+                        reply[1] = page.size();
+                        for(int i=0; i<page.size(); i++) {
+                            LobbyIndex.OpenGame game = page.get(i);
+                            reply[2 + 3 * i] = game.id;
+                            reply[3 + 3 * i] = game.seat;
+                            reply[4 + 3 * i] = game.moveSeconds;
+                        }
+                        player.send(reply);
+                        break;
+                    case LOBBY_CREATE:
+                        int hostSeat = player.readArgument() == PLAYER2 ? PLAYER2 : PLAYER1;
+                        int clock = Math.max(0, player.readArgument());
+                        LobbyIndex.OpenGame opened = lobby.open(hostSeat, clock, player, accepted);
+                        player.send(LOBBY_CREATED, opened.id);
+                        Log.debug("Player opened lobby game {}", opened.id);
+                        // the host now waits, with no thread, for someone to join
+                        return;
+                    case LOBBY_JOIN:
+                        LobbyIndex.OpenGame game = lobby.take(player.readArgument());
+                        if(game == null) {
+                            player.send(ERROR_NO_SUCH_GAME);
+                            break;
+                        }
+                        try {
+                            game.host.send(game.seat);
+                        } catch(IOException ex) {
+                            // the host left after the game was taken; that's no fault of the joiner's
+                            game.host.close();
+                            player.send(ERROR_NO_SUCH_GAME);
+                            break;
+                        }
+                        player.send(game.seat == PLAYER1 ? PLAYER2 : PLAYER1);
+                        Connection first = game.seat == PLAYER1 ? game.host : player;
+                        Connection second = game.seat == PLAYER1 ? player : game.host;
+                        Log.debug("Player joined lobby game {}", game.id);
+                        startSession(first, second, accepted, TimeUnit.SECONDS.toMillis(game.moveSeconds));
+                        return;
+                    default:
+                        // an old client's move or anything else out of place; it has no business here
+                        throw new SocketException("Unexpected command " + command + " in the lobby");
+                }
+            }
+        } catch(IOException ex) {
+            Log.info("Player from {} left the lobby", player.getSocket().getInetAddress());
+            player.close();
+            lobbyPlayers.remove(player);
+        }
+    }
 
+    /**
+     * Pair a player who asked for any human opponent with the one waiting before them, or make them the one
+     * waiting. The first player of a pair is told they are player 1 at once.
+     * @param player the player's connection
+     * @param accepted when it was accepted, as a System.nanoTime() value
+     * @throws IOException if the player can't be told their number
+     */
+    private void pairFirstCome(Connection player, long accepted) throws IOException {
+        Connection opponent;
+        long opponentAccepted;
+        synchronized(lobby) {
+            opponent = firstComeWaiting;
+            opponentAccepted = firstComeAccepted;
+            if(opponent == null || opponent.isClosed()) {
+                firstComeWaiting = player;
+                firstComeAccepted = accepted;
+                opponent = null;
+            } else {
+                firstComeWaiting = null;
+            }
+        }
+        if(opponent == null) {
+            Log.info("Player from {} opts to play against human; waiting for connection...",
+                    player.getSocket().getInetAddress());
+            player.send(PLAYER1);
+            return;
+        }
+        // Notify that the player is Player 2; if that fails, the session finds out straight away
+        try {
+            player.send(PLAYER2);
+        } catch(IOException ex) {
+            player.close();
+        }
+        startSession(opponent, player, opponentAccepted, 0);
+    }
 
-                    // Notify that the player is Player 1
-                    new DataOutputStream(player1.getOutputStream()).writeInt(PLAYER1);
+    /**
+     * Take two players out of the lobby, register their session and start its thread
+     * @param player1 player 1's connection
+     * @param player2 player 2's connection, or null for a game against the computer
+     * @param player1Accepted when player 1's connection was accepted, as a System.nanoTime() value
+     * @param moveLimitMillis the move clock for this game, or 0 for the server's
+     */
+    private void startSession(Connection player1, Connection player2, long player1Accepted, long moveLimitMillis) {
+        lobbyPlayers.remove(player1);
+        if(player2 != null) lobbyPlayers.remove(player2);
+        HandleASession session = new HandleASession(player1, player2, player1Accepted,
+                moveLimitMillis > 0 ? moveLimitMillis : moveMillis);
+        Log.info("Start a thread for session {}", session.game.getSessionId());
+        sessions.add(session);
+        new Thread(session).start();
+    }
 
-                    int playerChoice = new DataInputStream(player1.getInputStream()).readInt();
-                    Socket player2;
-                    if(playerChoice == PLAY_AGAINST_COMPUTER) {
-                        System.out.println("Player 1 in session " + sessionNo + " opts to play against computer");
-                        player2 = null;
-                        // Launch a new thread for this session of two players
-                        new Thread(new HandleASession(player1, player2)).start();
-                    } else {
-                        System.out.println("Player 1 in session " + sessionNo + " opts to play against human; waiting for connection...");
-                        // Connect to player 2
-                        player2 = serverSocket.accept();
+    /**
+     * Start draining: stop accepting players at once, let games in progress carry on, and disconnect any still
+     * going when the deadline passes. Progress shows in the metrics as the draining flag, the seconds left and the
+     * sessions still active. Calling it again does nothing.
+     * @param deadlineMillis how long games in progress may take to finish
+     */
+    public void drain(long deadlineMillis) {
+        synchronized(this) {
+            if(draining) return;
+            draining = true;
+        }
+        metrics.drainDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis));
+        Log.info("Draining: {} sessions in progress, deadline {} ms", sessions.size(), deadlineMillis);
+        ServerSocket socket = serverSocket;
+        if(socket != null) {
+            try {
+                socket.close();
+            } catch(IOException ex) {
+                // closing is all we wanted
+            }
+        }
+        // players still in the lobby won't get a game from this server
+        for(LobbyIndex.OpenGame game : lobby.takeAll()) game.host.close();
+        for(Connection player : lobbyPlayers) player.close();
+        timers.schedule(deadlineMillis, TimeUnit.MILLISECONDS, () -> {
+            if(!sessions.isEmpty()) Log.warn("Drain deadline passed; disconnecting {} sessions", sessions.size());
+            for(HandleASession session : sessions) session.endForDrain();
+        });
+        checkDrained();
+    }
 
+    /**
+     * Wait for a drain to finish.
+     * @param timeout the longest time to wait
+     * @param unit the unit of the timeout
+     * @return true if the server has stopped accepting and every session has ended
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException {
+        return drained.await(timeout, unit);
+    }
 
-                        System.out.println(new Date() + ": Player 2 joined session " + sessionNo + '\n');
-                        System.out.println("Player 2's IP address: " + player2.getInetAddress().getHostAddress() + '\n');
+    /**
+     * Check whether the server is draining
+     * @return true once drain() has been called
+     */
+    public boolean isDraining() { return draining; }
 
+    /**
+     * Release anyone waiting for the drain if it has finished
+     */
+    private void checkDrained() {
+        if(draining && !accepting && sessions.isEmpty()) {
+            if(drained.getCount() > 0) Log.info("Drain complete");
+            drained.countDown();
+        }
+    }
 
-                        // Notify that the player is Player 2
-                        new DataOutputStream(player2.getOutputStream()).writeInt(PLAYER2);
+    /**
+     * Wait until the server is listening for players.
+     * @param timeout the longest time to wait
+     * @param unit the unit of the timeout
+     * @return true if the server is listening, false if the timeout elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitStarted(long timeout, TimeUnit unit) throws InterruptedException {
+        return started.await(timeout, unit);
+    }
 
+    /**
+     * Let any number of connections come from an address, within the total limit, such as the Connect4Router this
+     * server is a shard of. Call before the address first connects.
+     * @param address the address
+     */
+    public void exemptFromAddressLimit(InetAddress address) {
+        admission.exempt(address);
+    }
 
-                        // Display this session and increment session number
-                        System.out.println(new Date() + ": Start a thread for session " + sessionNo++ + '\n');
+    /**
+     * Get the metrics this server records into.
+     * @return the live metrics object
+     */
+    public ServerMetrics getMetrics() { return metrics; }
 
-                        // Launch a new thread for this session of two players
-                        new Thread(new HandleASession(player1, player2)).start();
-                    }
-                }
+    /**
+     * Accept the next player that admission control lets in, counting their traffic into the server metrics,
+     * limiting their message rate and watching them with heartbeats. Anyone over a connection limit is sent
+     * ERROR_SERVER_BUSY and closed at once.
+     * @param serverSocket the listening socket
+     * @return the player's connection
+     * @throws IOException if accepting fails
+     */
+    private Connection accept(ServerSocket serverSocket) throws IOException {
+        while(true) {
+            Socket socket = serverSocket.accept();
+            metrics.connectionsAccepted.increment();
+            InetAddress address = socket.getInetAddress();
+            if(!admission.admit(address)) {
+                reject(socket);
+                continue;
             }
-            catch(IOException ex) {
-                ex.printStackTrace();
+            Connection connection;
+            try {
+                connection = new Connection(socket, metrics, new TokenBucket(messageRate, messageBurst), writers,
+                        outboundMax, closed -> {
+                            admission.release(address);
+                            lobbyPlayers.remove(closed);
+                        });
+            } catch(IOException ex) {
+                admission.release(address);
+                socket.close();
+                continue;
             }
-        }).start();
+            if(heartbeatMillis > 0) heartbeats.watch(connection);
+            return connection;
+        }
+    }
+
+    /**
+     * Turn a connection away: tell the client the server is busy and close the socket without waiting.
+     * @param socket the connection
+     */
+    private void reject(Socket socket) {
+        metrics.connectionsRejected.increment();
+        Log.debug("Turned away a connection from {}", socket.getInetAddress());
+        try {
+            socket.setSoLinger(true, 0);
+            socket.getOutputStream().write(new byte[] { 0, 0, 0, (byte) ERROR_SERVER_BUSY });
+        } catch(IOException ex) {
+            // it's being dropped anyway
+        }
+        try {
+            socket.close();
+        } catch(IOException ex) {
+            // nothing more to release
+        }
     }
 
     /**
@@ -91,61 +429,82 @@ public class Connect4Server implements Connect4Constants {
         private Connect4OnlinePlayer player1, player2;
 
         /** A computer player to be used in 1-player games **/
-        private ComputerPlayer computerPlayer;
+        private Player computerPlayer;
 
         /** The Connect4 which will handle all gameplay logic **/
         Connect4 game;
 
-        /** For handling data coming from player 1 **/
-        private DataInputStream fromPlayer1;
-        /** For data going out to player 1 **/
-        private DataOutputStream toPlayer1;
-        /** For handling data coming from player 2 **/
-        private DataInputStream fromPlayer2;
-        /** For data going out to player 2 **/
-        private DataOutputStream toPlayer2;
+        /** For data coming from and going out to player 1 **/
+        private final Connection toPlayer1;
+        /** For data coming from and going out to player 2, or null in a 1-player game **/
+        private final Connection toPlayer2;
 
         /** A handy flag for whether the second player is human after all **/
         boolean player2IsComputer = false;
 
+        /** When player 1 was accepted, as a System.nanoTime() value **/
+        private final long player1Accepted;
+
+        /** How the game ended, for the session's flight recorder event **/
+        private String outcome = "abandoned";
+
+        /** Longest a player may take over one move in milliseconds; 0 for no limit **/
+        private final long moveLimitMillis;
+        /** Thinking time left for player 1 and player 2 when there is a game clock, in milliseconds **/
+        private final long[] timeLeft = { gameMillis, gameMillis };
+        /** When the running clock was started, as a System.nanoTime() value **/
+        private long clockStarted;
+        /** The player whose clock ran out, set by the timer thread, or UNDEFINED **/
+        private volatile int forfeitedBy = UNDEFINED;
+        /** Set by the timer thread when a drain deadline cuts the game short **/
+        private volatile boolean endedForDrain = false;
+
         // Continue to play
         //private boolean continueToPlay = true;
 
         /**
          * Construct a thread
-         * @param player1Socket the socket object for communicating with player1
-         * @param player2Socket the socket object for communicating with player2 or null for a 1-player game
+         * @param player1Connection the connection for communicating with player1
+         * @param player2Connection the connection for communicating with player2 or null for a 1-player game
+         * @param player1Accepted when player 1's connection was accepted, as a System.nanoTime() value
+         * @param moveLimitMillis longest a player may take over one move in milliseconds; 0 for no limit
          */
-        public HandleASession(Socket player1Socket, Socket player2Socket) {
+        public HandleASession(Connection player1Connection, Connection player2Connection, long player1Accepted,
+                              long moveLimitMillis) {
+            this.player1Accepted = player1Accepted;
+            this.toPlayer1 = player1Connection;
+            this.toPlayer2 = player2Connection;
+            this.moveLimitMillis = moveLimitMillis;
+            long id = sessionNo.incrementAndGet();
 
-            this.player1 = new Connect4OnlinePlayer(PLAYER1, player1Socket);
+            this.player1 = new Connect4OnlinePlayer(PLAYER1, player1Connection.getSocket());
 
-            if(player2Socket == null) {
+            if(player2Connection == null) {
                 // create a computer player
-                this.computerPlayer = new ComputerPlayer();
+                this.computerPlayer = computerPlayers.get();
                 player2IsComputer = true;
                 game = new Connect4(player1,computerPlayer);
             } else {
-                this.player2 = new Connect4OnlinePlayer(PLAYER2, player2Socket);
+                this.player2 = new Connect4OnlinePlayer(PLAYER2, player2Connection.getSocket());
                 game = new Connect4(player1,player2);
             }
+            game.setSessionId(id);
 
         }
 
         /** Implement the run() method for the thread */
         public void run() {
+            SessionEvent event = new SessionEvent();
+            event.begin();
+            metrics.sessionsStarted.increment();
+            metrics.activeSessions.incrementAndGet();
             try {
-                // Create data input and output streams
-                fromPlayer1 = new DataInputStream(player1.getSocket().getInputStream());
-                toPlayer1 = new DataOutputStream(player1.getSocket().getOutputStream());
-                toPlayer1.writeInt(START);
+                toPlayer1.send(START);
 
                 if(!player2IsComputer) {
-                    fromPlayer2 = new DataInputStream(player2.getSocket().getInputStream());
-                    toPlayer2 = new DataOutputStream(player2.getSocket().getOutputStream());
-                    toPlayer2.writeInt(START);
-                    while(fromPlayer2.available()>0) fromPlayer2.readInt();
+                    toPlayer2.send(START);
                 }
+                metrics.acceptToStart.recordSince(player1Accepted);
 
 
 
@@ -153,20 +512,21 @@ public class Connect4Server implements Connect4Constants {
                 // the game status to the players
                 while (true) {
                     // Receive a move from player 1
-                    toPlayer1.writeInt(PROMPT_FOR_MOVE);
+                    toPlayer1.send(PROMPT_FOR_MOVE);
+                    TimerWheel.Timeout clock = startClock(PLAYER1);
                     int column, row;
                     do {
-                        column = fromPlayer1.readInt();
-                        System.out.println("Player1's buffer to the server contains: ");
-                        //while(fromPlayer1.available()>0) {
-                        //    System.out.println("\t" + fromPlayer1.readInt());
-                        //}
+                        column = toPlayer1.readInt();
+                        Log.debug("Session {}: player 1 sent column {}", game.getSessionId(), column);
+                        long validationStart = System.nanoTime();
                         row = game.makeMove(column);
-                        if(row == -1) toPlayer1.writeInt(ERROR_ILLEGAL_MOVE);
+                        metrics.moveValidation.recordSince(validationStart);
+                        if(row == -1) toPlayer1.send(ERROR_ILLEGAL_MOVE);
                     } while(row == -1);
-                    toPlayer1.writeInt(row);
+                    stopClock(PLAYER1, clock);
+                    toPlayer1.send(row);
 
-                    System.out.println("Player1 moves to c" + column + "r" + row);
+                    Log.debug("Session {}: player 1 moves to c{}r{}", game.getSessionId(), column, row);
 
                     if(!player2IsComputer) {
                         // Send player 1's selected row and column to player 2
@@ -189,24 +549,29 @@ public class Connect4Server implements Connect4Constants {
 
                     if(player2IsComputer) {
                         // Get a computer move, propagate it to player 1
+                        long aiStart = System.nanoTime();
                         column = computerPlayer.getMove();
+                        metrics.aiCompute.recordSince(aiStart);
                         row = game.makeMove(column);
-                        System.out.println("Player2 computer moves to c" + column + "r" + row);
+                        Log.debug("Session {}: computer player 2 moves to c{}r{}", game.getSessionId(), column, row);
                         sendMove(toPlayer1, PLAYER2, column, row);
                     } else {
-                        toPlayer2.writeInt(PROMPT_FOR_MOVE);
+                        toPlayer2.send(PROMPT_FOR_MOVE);
+                        clock = startClock(PLAYER2);
 
                         do {
-                            column = fromPlayer2.readInt();
+                            column = toPlayer2.readInt();
+                            long validationStart = System.nanoTime();
                             row = game.makeMove(column);
-                            System.out.println("Player2 goes to column " + column + " row " + row);
-                            if (row == -1) toPlayer2.writeInt(ERROR_ILLEGAL_MOVE);
+                            metrics.moveValidation.recordSince(validationStart);
+                            if (row == -1) toPlayer2.send(ERROR_ILLEGAL_MOVE);
                         } while (row == -1);
-                        toPlayer2.writeInt(row);
+                        stopClock(PLAYER2, clock);
+                        toPlayer2.send(row);
 
                         // Send player 2's move to player 1 to update their board
                         sendMove(toPlayer1, PLAYER2, column, row);
-                        System.out.println("Player2 moves to c" + column + "r" + row);
+                        Log.debug("Session {}: player 2 moves to c{}r{}", game.getSessionId(), column, row);
                     }
 
                     // Check if Player 2 wins
@@ -224,7 +589,91 @@ public class Connect4Server implements Connect4Constants {
                 }
             }
             catch(IOException ex) {
-                ex.printStackTrace();
+                if(forfeitedBy != UNDEFINED) {
+                    sendForfeit();
+                } else if(endedForDrain) {
+                    metrics.drainedSessions.increment();
+                    outcome = "drained";
+                    Log.info("Session {}: disconnected at the drain deadline", game.getSessionId());
+                } else if(ex instanceof Connection.RateLimitException) {
+                    metrics.rateLimited.increment();
+                    metrics.abandoned.increment();
+                    Log.info("Session {}: a player exceeded the message rate limit", game.getSessionId());
+                } else {
+                    metrics.abandoned.increment();
+                    ex.printStackTrace();
+                }
+            }
+            finally {
+                // let the result go out before closing, without waiting for it here
+                toPlayer1.closeWhenFlushed();
+                if(!player2IsComputer) toPlayer2.closeWhenFlushed();
+                metrics.activeSessions.decrementAndGet();
+                sessions.remove(this);
+                checkDrained();
+                if(event.shouldCommit()) {
+                    event.sessionId = game.getSessionId();
+                    event.againstComputer = player2IsComputer;
+                    event.moves = game.getMoveCount();
+                    event.outcome = outcome;
+                    event.commit();
+                }
+            }
+        }
+
+        /**
+         * Cut the game short because a drain deadline has passed. Called on the timer thread, so it only closes the
+         * sockets; the session thread wakes from its read or write and finishes up.
+         */
+        void endForDrain() {
+            endedForDrain = true;
+            toPlayer1.close();
+            if(!player2IsComputer) toPlayer2.close();
+        }
+
+        /**
+         * Start a player's clock as they are prompted for a move. If it runs out first, the timer thread closes the
+         * player's socket, which wakes this thread from its read to end the game by forfeit.
+         * @param player PLAYER1 or PLAYER2
+         * @return the timer, or null if there is no time limit
+         */
+        private TimerWheel.Timeout startClock(int player) {
+            long limit = moveLimitMillis > 0 ? moveLimitMillis : Long.MAX_VALUE;
+            if(gameMillis > 0) limit = Math.min(limit, timeLeft[player - PLAYER1]);
+            if(limit == Long.MAX_VALUE) return null;
+            clockStarted = System.nanoTime();
+            return timers.schedule(limit, TimeUnit.MILLISECONDS, () -> {
+                forfeitedBy = player;
+                (player == PLAYER1 ? toPlayer1 : toPlayer2).close();
+            });
+        }
+
+        /**
+         * Stop a player's clock once they have made a legal move, charging the time to their game clock.
+         * @param player PLAYER1 or PLAYER2
+         * @param clock the timer from startClock, or null
+         * @throws IOException if the clock had already run out
+         */
+        private void stopClock(int player, TimerWheel.Timeout clock) throws IOException {
+            if(clock == null) return;
+            if(!clock.cancel()) throw new SocketException("Player " + (player - PLAYER1 + 1) + " ran out of time");
+            timeLeft[player - PLAYER1] -= TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - clockStarted);
+        }
+
+        /**
+         * End the game in favour of the player whose clock didn't run out, telling them if they're human
+         */
+        private void sendForfeit() {
+            int winnerConstant = forfeitedBy == PLAYER1 ? PLAYER2 : PLAYER1;
+            metrics.forfeits.increment();
+            outcome = "forfeit";
+            Log.info("Session {}: player {} ran out of time", game.getSessionId(), forfeitedBy - PLAYER1 + 1);
+            Connection opponent = winnerConstant == PLAYER1 ? toPlayer1 : toPlayer2;
+            if(opponent == null) return;
+            try {
+                opponent.send(WIN, winnerConstant);
+            } catch(IOException ex) {
+                Log.debug("Session {}: could not send forfeit win", game.getSessionId());
             }
         }
 
@@ -236,12 +685,8 @@ public class Connect4Server implements Connect4Constants {
          * @param row the row where the move landed
          * @throws IOException if there's a problem communicating with the server
          */
-        private void sendMove(DataOutputStream out, int player, int column, int row) throws IOException {
-            out.writeInt(MOVE);
-            out.writeInt(player);
-            out.writeInt(column); // Send column index
-            out.writeInt(row); // Send row index
-
+        private void sendMove(Connection out, int player, int column, int row) throws IOException {
+            out.send(MOVE, player, column, row);
         }
 
         /**
@@ -249,9 +694,11 @@ public class Connect4Server implements Connect4Constants {
          * @throws IOException if there's a problem communicating with the server
         */
         private void sendDraw() throws IOException {
-            toPlayer1.writeInt(DRAW);
+            metrics.draws.increment();
+            outcome = "draw";
+            toPlayer1.send(DRAW);
             if(!player2IsComputer) {
-                toPlayer2.writeInt(DRAW);
+                toPlayer2.send(DRAW);
             }
         }
 
@@ -261,12 +708,13 @@ public class Connect4Server implements Connect4Constants {
          * @throws IOException if there's a problem communicating with the server
          */
         private void sendWin(int winnerConstant) throws IOException {
-            toPlayer1.writeInt(WIN);
-            toPlayer1.writeInt(winnerConstant);
+            if(winnerConstant == PLAYER1) metrics.player1Wins.increment();
+            else metrics.player2Wins.increment();
+            outcome = winnerConstant == PLAYER1 ? "player1" : "player2";
+            toPlayer1.send(WIN, winnerConstant);
 
             if(!player2IsComputer) {
-                toPlayer2.writeInt(WIN);
-                toPlayer2.writeInt(winnerConstant);
+                toPlayer2.send(WIN, winnerConstant);
             }
         }
 
@@ -275,10 +723,73 @@ public class Connect4Server implements Connect4Constants {
     /**
      * The main method is only needed for the IDE with limited
      * JavaFX support. Not needed for running from the command line.
+     * Metrics are served on the loopback interface at the port given by the connect4.metrics.port system property
+     * (default 9004, 0 to disable). The computer opponent is described by the connect4.ai system property, e.g.
+     * "engine:java engine.EngineMain" to play through a pool of warm external engine processes. Players lose by
+     * forfeit if they take longer than connect4.clock.move milliseconds over a move (default 60000) or, when
+     * connect4.clock.game is set, longer than that many milliseconds over the whole game. Players are sent a
+     * heartbeat every connect4.heartbeat milliseconds (default 5000) and dropped after connect4.heartbeat.timeout
+     * milliseconds of silence (default three intervals). At most connect4.connections.max connections are held
+     * (default 10000), connect4.connections.per.address from any one address (default 16), and each player may send
+     * connect4.messages.rate messages a second (default 20) in bursts of up to connect4.messages.burst (default 40).
+     * Writes to players are queued and never block a game; a player with more than connect4.outbound.max bytes
+     * waiting (default 4096), or whose socket hasn't taken a write for the heartbeat timeout, is disconnected.
+     *
+     * On SIGTERM, or a POST to /drain on the metrics port (optionally with ?deadline=milliseconds), the server
+     * drains: it stops accepting, gives games in progress connect4.drain.deadline milliseconds (default 30000) to
+     * finish, and exits once they have. GET /drain reports progress. For a restart without refusing anyone, run both
+     * servers with -Dconnect4.reuseport=true and different metrics ports, start the new one, then drain the old.
+     *
+     * Players are accepted on connect4.port (default 8004). To run as one shard behind a Connect4Router, set
+     * connect4.router to the router's host:controlport; the server then reports its load there every second,
+     * advertising connect4.router.advertise as its host (default the address the router sees). Every player then
+     * arrives from the router's address, so that address is exempt from connect4.connections.per.address and the
+     * router applies the limit to each player's own address instead. If the router reaches this server from another
+     * address than the one in connect4.router, raise connect4.connections.per.address to cover every player.
      *
      * @param args not used
+     * @throws IOException if the metrics endpoint can't be bound
+     * @throws InterruptedException if interrupted while waiting for a drain
      */
-    public static void main(String[] args) {
-        new Connect4Server();
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = Integer.getInteger("connect4.port", SERVER_PORT);
+        Connect4Server server = new Connect4Server(port);
+        String router = System.getProperty("connect4.router");
+        if(router != null) {
+            int colon = router.lastIndexOf(':');
+            InetSocketAddress control = new InetSocketAddress(router.substring(0, colon),
+                    Integer.parseInt(router.substring(colon + 1)));
+            if(control.getAddress() != null) server.exemptFromAddressLimit(control.getAddress());
+            new ShardReporter(control,
+                    System.getProperty("connect4.router.advertise", "-"), port, server);
+        }
+        long deadline = Long.getLong("connect4.drain.deadline", 30000);
+        int metricsPort = Integer.getInteger("connect4.metrics.port", 9004);
+        MetricsEndpoint endpoint = null;
+        if(metricsPort > 0) {
+            endpoint = new MetricsEndpoint(server.getMetrics(), metricsPort);
+            endpoint.addControl("/drain", (method, query) -> {
+                if(method.equals("POST")) {
+                    long millis = deadline;
+                    if(query != null && query.startsWith("deadline=")) millis = Long.parseLong(query.substring(9));
+                    server.drain(millis);
+                }
+                return server.getMetrics().drainStatus();
+            });
+            endpoint.start();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.drain(deadline);
+            try {
+                server.awaitDrained(deadline + 1000, TimeUnit.MILLISECONDS);
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            Log.flush();
+        }, "connect4-drain"));
+
+        // once drained, stop the endpoint's thread too so the process can exit
+        server.awaitDrained(Long.MAX_VALUE, TimeUnit.DAYS);
+        if(endpoint != null) endpoint.stop();
     }
 }
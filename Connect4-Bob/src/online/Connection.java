@@ -0,0 +1,319 @@
+package online;
+
+import metrics.CountingInputStream;
+import metrics.CountingOutputStream;
+import metrics.ServerMetrics;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * The server's end of a player's socket. Heartbeats arriving from the player are skipped by readInt(), and every int
+ * read counts as hearing from the player. Every other int read also takes a token from the connection's bucket; a
+ * player who sends faster than the bucket allows is disconnected.
+ *
+ * Nothing writes to the socket directly: send() puts a frame of one or more ints on the connection's outbound queue
+ * and returns, and a writer thread from the server's pool writes out everything queued, so a game thread never
+ * waits on a player's network. Frames are always written whole and in order. A player who doesn't keep up is dealt
+ * with in one of three ways:
+ *   - heartbeats coalesce: none is queued while anything else is queued or being written, since that already shows
+ *     the connection is in use
+ *   - a frame which would take the queue over its byte limit closes the connection, and send() throws
+ *   - a write blocked for longer than the heartbeat timeout closes the connection, via closeIfStalled()
+ *
+ * @version 1.0
+ */
+public class Connection implements Connect4Constants {
+    /** A heartbeat, ready to write **/
+    private static final byte[] HEARTBEAT_FRAME = { 0, 0, 0, (byte) HEARTBEAT };
+
+    /** The player's socket **/
+    private final Socket socket;
+    /** Reads from the socket **/
+    private final DataInputStream in;
+    /** Writes to the socket; only the writer thread touches it **/
+    private final OutputStream out;
+    /** Runs flush() whenever frames are waiting **/
+    private final Executor writers;
+    /** Most bytes which may wait in the queue **/
+    private final int maxQueuedBytes;
+    /** Where slow consumers are counted **/
+    private final ServerMetrics metrics;
+    /** Guards the queue and everything below it **/
+    private final ReentrantLock queueLock = new ReentrantLock();
+    /** Frames waiting to be written **/
+    private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+    /** Bytes in the queue **/
+    private int queuedBytes;
+    /** Set while a writer thread has flush() scheduled or running **/
+    private boolean flushing;
+    /** Set by closeWhenFlushed(): no more frames, and close once the queue is empty **/
+    private boolean finishing;
+    /** When the write in progress started, as a System.nanoTime() value, or 0 if none is **/
+    private volatile long writeStarted;
+    /** When the player was last heard from, as a System.nanoTime() value **/
+    private volatile long lastHeard = System.nanoTime();
+    /** Unread bytes at the last liveness check; only the heartbeat monitor touches it **/
+    private int lastAvailable;
+    /** Limits how fast the player may send **/
+    private final TokenBucket bucket;
+    /** Run once when the connection is closed **/
+    private final Consumer<Connection> onClose;
+    /** Set by the first close() **/
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Wrap a newly accepted socket
+     * @param socket the player's socket
+     * @param metrics counts bytes read and written, and slow consumers
+     * @param bucket limits how fast the player may send
+     * @param writers the pool whose threads write to the socket
+     * @param maxQueuedBytes most bytes which may wait to be written before the player is disconnected
+     * @param onClose run once with the connection when it is closed, such as to release its admission
+     * @throws IOException if the socket's streams can't be opened
+     */
+    public Connection(Socket socket, ServerMetrics metrics, TokenBucket bucket, Executor writers, int maxQueuedBytes,
+                      Consumer<Connection> onClose) throws IOException {
+        this.socket = socket;
+        this.metrics = metrics;
+        this.bucket = bucket;
+        this.writers = writers;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.onClose = onClose;
+        // the queue already batches whatever piles up, so Nagle's algorithm would only add delayed-ACK stalls
+        socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new CountingInputStream(socket.getInputStream(), metrics.bytesIn));
+        this.out = new CountingOutputStream(socket.getOutputStream(), metrics.bytesOut);
+    }
+
+    /**
+     * Read the next int the player sent, skipping heartbeats
+     * @return the value
+     * @throws IOException if the connection fails or is closed, or the player is sending too fast
+     */
+    public int readInt() throws IOException {
+        while(true) {
+            int value = in.readInt();
+            lastHeard = System.nanoTime();
+            // heartbeats pile up unread while a player waits for a game, so they mustn't be charged to the limit
+            if(value == HEARTBEAT) continue;
+            if(!bucket.tryTake()) throw new RateLimitException();
+            return value;
+        }
+    }
+
+    /**
+     * Read an argument of the message whose first int was just read by readInt(). The message has already been
+     * charged to the rate limit, so this isn't.
+     * @return the value
+     * @throws IOException if the connection fails or is closed
+     */
+    public int readArgument() throws IOException {
+        int value = in.readInt();
+        lastHeard = System.nanoTime();
+        return value;
+    }
+
+    /**
+     * Thrown by readInt() when a player sends faster than their token bucket allows.
+     */
+    public static class RateLimitException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Create the exception
+         */
+        public RateLimitException() {
+            super("Message rate limit exceeded");
+        }
+    }
+
+    /**
+     * Queue a frame to be written, without waiting for it to go out
+     * @param values the ints making up the frame
+     * @throws IOException if the connection is closed, or this frame would overflow the queue and has closed it
+     */
+    public void send(int... values) throws IOException {
+        byte[] frame = new byte[values.length * 4];
+        for(int i=0; i<values.length; i++) {
+            frame[4 * i] = (byte) (values[i] >>> 24);
+            frame[4 * i + 1] = (byte) (values[i] >>> 16);
+            frame[4 * i + 2] = (byte) (values[i] >>> 8);
+            frame[4 * i + 3] = (byte) values[i];
+        }
+        boolean overflow = false, schedule = false;
+        queueLock.lock();
+        try {
+            if(closed.get() || finishing) throw new SocketException("Connection closed");
+            if(queuedBytes + frame.length > maxQueuedBytes) {
+                overflow = true;
+            } else {
+                queue.add(frame);
+                queuedBytes += frame.length;
+                schedule = !flushing;
+                flushing = true;
+            }
+        } finally {
+            queueLock.unlock();
+        }
+        if(overflow) {
+            closeSlow();
+            throw new SocketException("Player isn't reading what they're sent");
+        }
+        if(schedule) writers.execute(this::flush);
+    }
+
+    /**
+     * Queue a heartbeat unless frames are already queued or being written, which shows the connection is in use
+     * anyway. Never blocks, so it is safe to call from the timer thread.
+     * @return false if the connection is closed
+     */
+    public boolean heartbeat() {
+        queueLock.lock();
+        try {
+            if(closed.get() || finishing) return false;
+            if(flushing) return true;
+            queue.add(HEARTBEAT_FRAME);
+            queuedBytes += HEARTBEAT_FRAME.length;
+            flushing = true;
+        } finally {
+            queueLock.unlock();
+        }
+        writers.execute(this::flush);
+        return true;
+    }
+
+    /**
+     * Run on a writer thread: write out everything queued, one write per batch, until the queue is empty.
+     */
+    private void flush() {
+        while(true) {
+            byte[] batch;
+            boolean closeNow = false;
+            queueLock.lock();
+            try {
+                if(queue.isEmpty()) {
+                    flushing = false;
+                    closeNow = finishing;
+                    batch = null;
+                } else if(queue.size() == 1) {
+                    batch = queue.poll();
+                } else {
+                    batch = new byte[queuedBytes];
+                    int offset = 0;
+                    for(byte[] frame; (frame = queue.poll()) != null; offset += frame.length) {
+                        System.arraycopy(frame, 0, batch, offset, frame.length);
+                    }
+                }
+                queuedBytes = 0;
+            } finally {
+                queueLock.unlock();
+            }
+            if(batch == null) {
+                if(closeNow) close();
+                return;
+            }
+            writeStarted = System.nanoTime();
+            try {
+                out.write(batch);
+            } catch(IOException ex) {
+                close();
+                return;
+            } finally {
+                writeStarted = 0;
+            }
+        }
+    }
+
+    /**
+     * Check whether the player has been heard from recently. A player whose turn it isn't has nobody reading their
+     * socket, so bytes arriving unread count as hearing from them too.
+     * @param now the current System.nanoTime()
+     * @param timeoutNanos how long silence may last
+     * @return false if the player has been silent too long or the socket has failed
+     */
+    boolean isAlive(long now, long timeoutNanos) {
+        try {
+            int available = in.available();
+            if(available != lastAvailable) {
+                lastAvailable = available;
+                lastHeard = now;
+            }
+        } catch(IOException ex) {
+            return false;
+        }
+        return now - lastHeard < timeoutNanos;
+    }
+
+    /**
+     * Close the connection if a write to it has been blocked too long, because the player has stopped reading.
+     * Never blocks, so it is safe to call from the timer thread.
+     * @param now the current System.nanoTime()
+     * @param limitNanos how long one write may block
+     * @return true if the connection was closed
+     */
+    boolean closeIfStalled(long now, long limitNanos) {
+        long started = writeStarted;
+        if(started == 0 || now - started < limitNanos) return false;
+        closeSlow();
+        return true;
+    }
+
+    /**
+     * Close the connection for falling behind, counting it as a slow consumer
+     */
+    private void closeSlow() {
+        if(!closed.get()) metrics.slowConsumers.increment();
+        close();
+    }
+
+    /**
+     * Check whether the connection has been closed at this end
+     * @return true once close() has been called
+     */
+    public boolean isClosed() { return socket.isClosed(); }
+
+    /**
+     * Close the connection once everything already queued has been written, such as the last WIN or DRAW of a game.
+     * Nothing more may be sent. A player who never reads it is closed by closeIfStalled() as usual.
+     */
+    public void closeWhenFlushed() {
+        boolean closeNow;
+        queueLock.lock();
+        try {
+            finishing = true;
+            closeNow = !flushing;
+        } finally {
+            queueLock.unlock();
+        }
+        if(closeNow) close();
+    }
+
+    /**
+     * Close the socket at once, ignoring errors and dropping anything still queued; anything blocked reading or
+     * writing it is woken with an exception. Only the first call does anything.
+     */
+    public void close() {
+        if(!closed.compareAndSet(false, true)) return;
+        try {
+            socket.close();
+        } catch(IOException ex) {
+            // already closed or broken; either way it's released
+        }
+        onClose.accept(this);
+    }
+
+    /**
+     * Get the underlying socket
+     * @return the socket
+     */
+    public Socket getSocket() { return socket; }
+}
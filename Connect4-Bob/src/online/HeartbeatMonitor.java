@@ -0,0 +1,92 @@
+package online;
+
+import logging.Log;
+import metrics.ServerMetrics;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends heartbeats to every watched connection and reaps the ones which have gone quiet. Each connection has one
+ * timer on the server's TimerWheel which fires once per interval: it checks that the player has been heard from
+ * within the timeout, sends a heartbeat and reschedules itself. Connections found dead are queued and closed
+ * together on the next tick, which wakes their session threads to release everything else. A connection whose
+ * outbound write has been blocked for the timeout, because the player stopped reading, is closed at once. A
+ * connection closed by its session simply isn't rescheduled, so the work per tick stays proportional to the timers
+ * due.
+ *
+ * @version 1.0
+ */
+public class HeartbeatMonitor {
+    /** Runs the heartbeat and reaper timers **/
+    private final TimerWheel timers;
+    /** Milliseconds between heartbeats **/
+    private final long intervalMillis;
+    /** Nanoseconds of silence after which a connection is dead **/
+    private final long timeoutNanos;
+    /** Where reaped connections are counted **/
+    private final ServerMetrics metrics;
+    /** Connections found dead since the last reap **/
+    private final ConcurrentLinkedQueue<Connection> dead = new ConcurrentLinkedQueue<>();
+    /** Set while a reap is scheduled **/
+    private final AtomicBoolean reapScheduled = new AtomicBoolean();
+
+    /**
+     * Create a monitor
+     * @param timers the wheel to run on
+     * @param intervalMillis milliseconds between heartbeats
+     * @param timeoutMillis milliseconds of silence after which a connection is closed
+     * @param metrics where reaped connections are counted
+     */
+    public HeartbeatMonitor(TimerWheel timers, long intervalMillis, long timeoutMillis, ServerMetrics metrics) {
+        this.timers = timers;
+        this.intervalMillis = intervalMillis;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Start sending heartbeats to a connection and watching it for silence, until it is closed.
+     * @param connection a newly accepted connection
+     */
+    public void watch(Connection connection) {
+        timers.schedule(intervalMillis, TimeUnit.MILLISECONDS, () -> beat(connection));
+    }
+
+    /**
+     * One interval has passed for a connection: close it if it has stopped reading, queue it for reaping if it's
+     * dead, otherwise heartbeat it and wait for the next interval.
+     * @param connection the connection
+     */
+    private void beat(Connection connection) {
+        if(connection.isClosed()) return;
+        long now = System.nanoTime();
+        if(connection.closeIfStalled(now, timeoutNanos)) {
+            Log.info("Closed a connection which stopped reading");
+            return;
+        }
+        if(!connection.isAlive(now, timeoutNanos) || !connection.heartbeat()) {
+            dead.add(connection);
+            if(reapScheduled.compareAndSet(false, true)) timers.schedule(0, TimeUnit.MILLISECONDS, this::reap);
+            return;
+        }
+        watch(connection);
+    }
+
+    /**
+     * Close every connection found dead since the last reap.
+     */
+    private void reap() {
+        reapScheduled.set(false);
+        int count = 0;
+        for(Connection c; (c = dead.poll()) != null; ) {
+            c.close();
+            count++;
+        }
+        if(count > 0) {
+            metrics.connectionsReaped.add(count);
+            Log.info("Reaped {} dead connections", count);
+        }
+    }
+}
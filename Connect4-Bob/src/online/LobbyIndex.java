@@ -0,0 +1,204 @@
+package online;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The open games in a server's lobby. Opening and taking a game are single operations on a ConcurrentHashMap, so
+ * thousands a second cost no more than the map does, and exactly one joiner can take any game. Listings are served
+ * from an immutable snapshot, an array of the open games sorted by id, which is rebuilt only when the map has
+ * changed and the snapshot is more than a few milliseconds old; one lister rebuilds while the rest carry on with the
+ * previous snapshot, so listing never blocks and never touches the map's locks. Every page comes from one snapshot,
+ * and paging is by id rather than by position, so games coming and going between pages don't shift the pages.
+ *
+ * A snapshot can list a game which has since been taken or whose host has left; joining it then fails, and the
+ * next rebuild drops it.
+ *
+ * @version 1.0
+ */
+public class LobbyIndex {
+    /** How stale a snapshot may get while games are changing, in nanoseconds **/
+    private static final long MAX_STALENESS_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    /** The most games one listing returns **/
+    public static final int MAX_PAGE = 64;
+
+    /**
+     * A game waiting for an opponent.
+     */
+    public static final class OpenGame {
+        /** Identifies the game to joiners; ids only increase **/
+        public final int id;
+        /** The seat the host takes: Connect4Constants.PLAYER1 to move first, PLAYER2 to move second **/
+        public final int seat;
+        /** Seconds each player may take over a move, or 0 for the server's default **/
+        public final int moveSeconds;
+        /** The host's connection **/
+        final Connection host;
+        /** When the host's connection was accepted, as a System.nanoTime() value **/
+        final long hostAccepted;
+
+        /**
+         * Create an open game
+         * @param id the game's id
+         * @param seat PLAYER1 or PLAYER2
+         * @param moveSeconds the move clock, or 0 for the server's default
+         * @param host the host's connection
+         * @param hostAccepted when the host's connection was accepted
+         */
+        OpenGame(int id, int seat, int moveSeconds, Connection host, long hostAccepted) {
+            this.id = id;
+            this.seat = seat;
+            this.moveSeconds = moveSeconds;
+            this.host = host;
+            this.hostAccepted = hostAccepted;
+        }
+    }
+
+    /**
+     * An immutable view of the open games at one moment.
+     */
+    private static final class Snapshot {
+        /** The map version it was built from **/
+        final long version;
+        /** When it was built, as a System.nanoTime() value **/
+        final long built;
+        /** The open games, sorted by id **/
+        final OpenGame[] games;
+
+        /**
+         * Create a snapshot
+         * @param version the map version it was built from
+         * @param built when it was built
+         * @param games the open games, sorted by id
+         */
+        Snapshot(long version, long built, OpenGame[] games) {
+            this.version = version;
+            this.built = built;
+            this.games = games;
+        }
+    }
+
+    /** Open games by id **/
+    private final ConcurrentHashMap<Integer, OpenGame> games = new ConcurrentHashMap<>();
+    /** Issues game ids **/
+    private final AtomicInteger nextId = new AtomicInteger();
+    /** Bumped on every change to the map **/
+    private final AtomicLong version = new AtomicLong();
+    /** What listings are served from **/
+    private volatile Snapshot snapshot = new Snapshot(0, System.nanoTime(), new OpenGame[0]);
+    /** Held by the one thread rebuilding the snapshot **/
+    private final ReentrantLock rebuilding = new ReentrantLock();
+
+    /**
+     * Open a game
+     * @param seat the seat the host takes, PLAYER1 or PLAYER2
+     * @param moveSeconds seconds each player may take over a move, or 0 for the server's default
+     * @param host the host's connection
+     * @param hostAccepted when the host's connection was accepted, as a System.nanoTime() value
+     * @return the game
+     */
+    public OpenGame open(int seat, int moveSeconds, Connection host, long hostAccepted) {
+        OpenGame game = new OpenGame(nextId.incrementAndGet(), seat, moveSeconds, host, hostAccepted);
+        games.put(game.id, game);
+        version.incrementAndGet();
+        return game;
+    }
+
+    /**
+     * Take a game off the lobby to join it. Only one caller can take any game.
+     * @param id the game's id
+     * @return the game, or null if there's no such open game or its host has gone
+     */
+    public OpenGame take(int id) {
+        OpenGame game = games.remove(id);
+        if(game == null) return null;
+        version.incrementAndGet();
+        return game.host.isClosed() ? null : game;
+    }
+
+    /**
+     * Take every game off the lobby, such as to close their hosts when draining
+     * @return the games which were open
+     */
+    public List<OpenGame> takeAll() {
+        List<OpenGame> taken = new ArrayList<>();
+        for(Integer id : games.keySet()) {
+            OpenGame game = games.remove(id);
+            if(game != null) taken.add(game);
+        }
+        version.incrementAndGet();
+        return taken;
+    }
+
+    /**
+     * Get the number of open games
+     * @return the games in the map right now
+     */
+    public int size() { return games.size(); }
+
+    /**
+     * List a page of open games.
+     * @param seat only games whose host takes this seat, or Connect4Constants.UNDEFINED for any
+     * @param moveSeconds only games with this move clock, or Connect4Constants.UNDEFINED for any
+     * @param afterId only games with a greater id; 0 for the first page, then the last id of the previous page
+     * @param limit the most games to return, capped at MAX_PAGE
+     * @return matching games in id order
+     */
+    public List<OpenGame> list(int seat, int moveSeconds, int afterId, int limit) {
+        OpenGame[] view = current().games;
+        limit = Math.max(0, Math.min(limit, MAX_PAGE));
+        List<OpenGame> page = new ArrayList<>(limit);
+        int lo = 0, hi = view.length;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(view[mid].id <= afterId) lo = mid + 1;
+            else hi = mid;
+        }
+        for(int i=lo; i<view.length && page.size() < limit; i++) {
+            OpenGame game = view[i];
+            if(seat != Connect4Constants.UNDEFINED && game.seat != seat) continue;
+            if(moveSeconds != Connect4Constants.UNDEFINED && game.moveSeconds != moveSeconds) continue;
+            page.add(game);
+        }
+        return page;
+    }
+
+    /**
+     * Get a snapshot to list from, rebuilding it first if it's out of date and nobody else is already doing so
+     * @return the snapshot
+     */
+    private Snapshot current() {
+        Snapshot view = snapshot;
+        long now = System.nanoTime();
+        long latest = version.get();
+        if(view.version == latest || now - view.built < MAX_STALENESS_NANOS || !rebuilding.tryLock()) return view;
+        try {
+            view = snapshot;
+            if(view.version != latest) {
+                List<OpenGame> open = new ArrayList<>(games.size());
+                for(OpenGame game : games.values()) {
+                    // hosts who left are dropped here rather than when they leave
+                    if(game.host.isClosed()) {
+                        if(games.remove(game.id, game)) version.incrementAndGet();
+                    } else {
+                        open.add(game);
+                    }
+                }
+                OpenGame[] sorted = open.toArray(new OpenGame[0]);
+                Arrays.sort(sorted, Comparator.comparingInt(g -> g.id));
+                view = new Snapshot(latest, now, sorted);
+                snapshot = view;
+            }
+            return view;
+        } finally {
+            rebuilding.unlock();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package online;
+
+import logging.Log;
+import metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports a server's load to a Connect4Router, so the router can send it players. Once a second it sends one line
+ * over a long-lived connection to the router's control port: "LOAD host port sessions connections draining". If the
+ * router goes away the reporter keeps retrying, and the router stops routing to a shard whose reports stop.
+ *
+ * @version 1.0
+ */
+public class ShardReporter {
+    /** Milliseconds between reports, and between attempts to reach the router **/
+    private static final long INTERVAL_MILLIS = 1000;
+
+    /** The router's control address **/
+    private final InetSocketAddress router;
+    /** The host the router should relay players to, or "-" for the address reports come from **/
+    private final String host;
+    /** The port the server accepts players on **/
+    private final int port;
+    /** The server being reported on **/
+    private final Connect4Server server;
+
+    /**
+     * Start reporting
+     * @param router the router's control address
+     * @param host the host players should be relayed to, or "-" for the address the router sees reports come from
+     * @param port the port the server accepts players on
+     * @param server the server being reported on
+     */
+    public ShardReporter(InetSocketAddress router, String host, int port, Connect4Server server) {
+        this.router = router;
+        this.host = host;
+        this.port = port;
+        this.server = server;
+        Thread thread = new Thread(this::run, "connect4-shard-reporter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Keep a connection to the router open and report on it every interval, reconnecting whenever it breaks.
+     */
+    private void run() {
+        boolean connected = false;
+        while(true) {
+            try(Socket socket = new Socket()) {
+                socket.connect(router, (int) INTERVAL_MILLIS);
+                OutputStream out = socket.getOutputStream();
+                Log.info("Reporting load to router {}", router);
+                connected = true;
+                while(true) {
+                    out.write(report().getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    TimeUnit.MILLISECONDS.sleep(INTERVAL_MILLIS);
+                }
+            } catch(IOException ex) {
+                if(connected) Log.warn("Lost router {}", router);
+                connected = false;
+            } catch(InterruptedException ex) {
+                return;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(INTERVAL_MILLIS);
+            } catch(InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Describe the server's current load
+     * @return one report line
+     */
+    private String report() {
+        ServerMetrics metrics = server.getMetrics();
+        return "LOAD " + host + " " + port + " " + metrics.activeSessions.get() + " "
+                + metrics.connectionsOpen.get() + " " + (server.isDraining() ? 1 : 0) + "\n";
+    }
+}
@@ -0,0 +1,209 @@
+package online;
+
+import logging.Log;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel: one thread and a ring of buckets shared by every session, instead of a thread or a
+ * ScheduledFuture per timer. Time advances in ticks; a timer goes in the bucket for its deadline tick modulo the
+ * wheel size, and each tick expires just that one bucket, skipping timers which are whole turns of the wheel away.
+ * Scheduling and cancelling from other threads go through lock-free queues which the wheel thread drains at the
+ * start of every tick, and cancelled timers are unlinked from their bucket straight away, so the work per tick is
+ * proportional to the timers actually due, not to the number of sessions or connections.
+ *
+ * Timers fire no earlier than their deadline and at most about one tick late. Tasks run on the wheel thread, so
+ * they must be short and must not block: closing a socket is fine, writing to one is not.
+ *
+ * @version 1.0
+ */
+public class TimerWheel implements AutoCloseable {
+    /** States of a timeout **/
+    private static final int PENDING = 0, CANCELLED = 1, EXPIRED = 2;
+
+    /**
+     * A scheduled task, which can be cancelled until it runs.
+     */
+    public final class Timeout {
+        /** What to run at the deadline **/
+        private final Runnable task;
+        /** The tick at which the task runs **/
+        private long deadlineTick;
+        /** PENDING, CANCELLED or EXPIRED **/
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        /** The bucket this timeout is linked into, or -1 if it isn't in one yet or any more **/
+        private int bucket = -1;
+        /** Neighbours in the bucket's list **/
+        private Timeout previous, next;
+
+        /**
+         * Create a timeout
+         * @param task what to run
+         * @param deadlineTick when to run it
+         */
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * Stop the task from running.
+         * @return true if it was cancelled, false if it has already run or been cancelled
+         */
+        public boolean cancel() {
+            if(!state.compareAndSet(PENDING, CANCELLED)) return false;
+            pending.decrementAndGet();
+            cancelled.add(this);
+            return true;
+        }
+
+        /**
+         * Check whether the task has run, or is running
+         * @return true once the deadline has passed and the task was started
+         */
+        public boolean isExpired() { return state.get() == EXPIRED; }
+    }
+
+    /** Longest delay honoured, about 146 years, so adding the wheel's age to a delay can't overflow **/
+    private static final long MAX_DELAY_NANOS = Long.MAX_VALUE / 2;
+
+    /** Nanoseconds per tick **/
+    private final long tickNanos;
+    /** The first timeout in each bucket, a power of two of them **/
+    private final Timeout[] buckets;
+    /** Maps a tick to its bucket **/
+    private final int mask;
+    /** Timeouts scheduled since the last tick **/
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+    /** Timeouts cancelled since the last tick **/
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    /** Timeouts scheduled but neither run nor cancelled **/
+    private final AtomicInteger pending = new AtomicInteger();
+    /** The time of tick zero, as a System.nanoTime() value **/
+    private final long startNanos = System.nanoTime();
+    /** The next tick to expire; only the wheel thread touches it **/
+    private long tick;
+    /** Cleared to stop the wheel thread **/
+    private volatile boolean running = true;
+    /** Advances the wheel **/
+    private final Thread worker;
+
+    /**
+     * Start a wheel
+     * @param tickMillis the resolution of every timer on the wheel
+     * @param slots the number of buckets, rounded up to a power of two; a turn of the wheel is slots ticks
+     * @param name the wheel thread's name
+     */
+    public TimerWheel(long tickMillis, int slots, String name) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+        worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Run a task after a delay.
+     * @param delay how long to wait; longer than MAX_DELAY_NANOS waits that long
+     * @param unit the unit of the delay
+     * @param task a short, non-blocking task to run on the wheel thread
+     * @return a handle for cancelling the task
+     */
+    public Timeout schedule(long delay, TimeUnit unit, Runnable task) {
+        long due = System.nanoTime() - startNanos + Math.min(unit.toNanos(Math.max(0, delay)), MAX_DELAY_NANOS);
+        Timeout timeout = new Timeout(task, (due + tickNanos - 1) / tickNanos);
+        pending.incrementAndGet();
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Get the number of timers waiting to run
+     * @return scheduled timers which have been neither run nor cancelled
+     */
+    public int pending() { return pending.get(); }
+
+    /**
+     * Stop the wheel thread. Pending timers never run.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+
+    /**
+     * The wheel thread: wait for each tick, take in new and cancelled timers, then expire the tick's bucket.
+     */
+    private void run() {
+        while(running) {
+            long wait = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if(wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            for(Timeout t; (t = cancelled.poll()) != null; ) unlink(t);
+            for(Timeout t; (t = added.poll()) != null; ) {
+                if(t.state.get() != PENDING) continue;
+                if(t.deadlineTick < tick) t.deadlineTick = tick;
+                link(t);
+            }
+            expire(tick);
+            tick++;
+        }
+    }
+
+    /**
+     * Run every timer in a tick's bucket which is due at that tick.
+     * @param now the tick
+     */
+    private void expire(long now) {
+        Timeout t = buckets[(int) (now & mask)];
+        while(t != null) {
+            Timeout next = t.next;
+            if(t.deadlineTick <= now) {
+                unlink(t);
+                if(t.state.compareAndSet(PENDING, EXPIRED)) {
+                    pending.decrementAndGet();
+                    try {
+                        t.task.run();
+                    } catch(RuntimeException ex) {
+                        Log.error("Timer task failed: {}", ex);
+                    }
+                }
+            }
+            t = next;
+        }
+    }
+
+    /**
+     * Add a timeout to the front of its deadline's bucket
+     * @param t the timeout
+     */
+    private void link(Timeout t) {
+        int b = (int) (t.deadlineTick & mask);
+        t.bucket = b;
+        t.previous = null;
+        t.next = buckets[b];
+        if(t.next != null) t.next.previous = t;
+        buckets[b] = t;
+    }
+
+    /**
+     * Take a timeout out of its bucket, if it's in one
+     * @param t the timeout
+     */
+    private void unlink(Timeout t) {
+        if(t.bucket == -1) return;
+        if(t.previous != null) t.previous.next = t.next;
+        else buckets[t.bucket] = t.next;
+        if(t.next != null) t.next.previous = t.previous;
+        t.bucket = -1;
+        t.previous = t.next = null;
+    }
+}
@@ -0,0 +1,44 @@
+package online;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket limiting how fast a connection may send messages: tokens refill at a steady rate up to
+ * a burst capacity, and each message takes one. The whole state is a single timestamp, the time at which the bucket
+ * will next be full (the generic cell rate algorithm), so taking a token is one compare-and-set.
+ *
+ * @version 1.0
+ */
+public class TokenBucket {
+    /** Nanoseconds to earn one token **/
+    private final long interval;
+    /** Nanoseconds of tokens the bucket holds when full **/
+    private final long capacity;
+    /** When the bucket will be full again if nothing more is taken, as a System.nanoTime() value **/
+    private final AtomicLong fullAt;
+
+    /**
+     * Create a full bucket
+     * @param perSecond tokens earned per second
+     * @param burst tokens the bucket holds
+     */
+    public TokenBucket(double perSecond, int burst) {
+        this.interval = Math.max(1, (long) (1e9 / perSecond));
+        this.capacity = interval * Math.max(1, burst);
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Take a token if there is one
+     * @return true if a token was taken, false if the bucket is empty
+     */
+    public boolean tryTake() {
+        long now = System.nanoTime();
+        while(true) {
+            long full = fullAt.get();
+            long next = (full - now < 0 ? now : full) + interval;
+            if(next - now > capacity) return false;
+            if(fullAt.compareAndSet(full, next)) return true;
+        }
+    }
+}
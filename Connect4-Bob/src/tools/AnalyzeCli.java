@@ -0,0 +1,112 @@
+package tools;
+
+import ai.BatchAnalyzer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Iterator;
+
+/**
+ * Scores a file of positions with BatchAnalyzer. Input has one position per line as 1-based column digits (blank
+ * lines and lines starting with # are skipped); each output line holds the position, the best column (1-based, - if
+ * the game is over, or ! if the moves can't be played, such as into a full column or after a win) and every column's
+ * score for the player to move (- for full columns, or just - for a finished or unplayable position), tab-separated:
+ *
+ *   4453    4    12,-3,40,55,40,-3,12
+ *   4444444 !    -
+ *
+ * Both files are streamed, so inputs larger than the heap are fine.
+ *
+ * Options:
+ *   --in file        positions to analyze, or - for standard input (default -)
+ *   --out file       where to write results, or - for standard output (default -)
+ *   --depth n        plies to search each position (default 8)
+ *   --threads n      worker threads (default: available processors)
+ *   --batch n        positions per task (default 64)
+ *   --table-bits n   log2 of the shared transposition table size (default 22)
+ *
+ * @version 1.0
+ */
+public class AnalyzeCli {
+
+    /**
+     * Run an analysis from the command line.
+     * @param args see the class description
+     * @throws IOException if a file can't be read or written
+     * @throws InterruptedException if interrupted while waiting for results
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String in = "-";
+        String out = "-";
+        int depth = 8;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int batch = 64;
+        int tableBits = 22;
+
+        for(int i=0; i<args.length; i++) {
+            switch(args[i]) {
+                case "--in":         in = args[++i]; break;
+                case "--out":        out = args[++i]; break;
+                case "--depth":      depth = Integer.parseInt(args[++i]); break;
+                case "--threads":    threads = Integer.parseInt(args[++i]); break;
+                case "--batch":      batch = Integer.parseInt(args[++i]); break;
+                case "--table-bits": tableBits = Integer.parseInt(args[++i]); break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        long start = System.nanoTime();
+        long[] count = new long[1];
+        try(BufferedReader reader = in.equals("-")
+                    ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII))
+                    : Files.newBufferedReader(Paths.get(in), StandardCharsets.US_ASCII);
+            Writer writer = out.equals("-")
+                    ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII), 1 << 16)
+                    : Files.newBufferedWriter(Paths.get(out), StandardCharsets.US_ASCII);
+            BatchAnalyzer analyzer = new BatchAnalyzer(threads, depth, batch, tableBits)) {
+
+            Iterator<String> positions = reader.lines()
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                    .iterator();
+            StringBuilder line = new StringBuilder(64);
+            analyzer.analyze(positions, analysis -> {
+                line.setLength(0);
+                line.append(analysis.moves).append('\t');
+                if(!analysis.isValid()) line.append('!');
+                else if(analysis.bestMove == -1) line.append('-');
+                else line.append(analysis.bestMove + 1);
+                line.append('\t');
+                if(analysis.scores == null) {
+                    line.append('-');
+                } else {
+                    for(int c=0; c<analysis.scores.length; c++) {
+                        if(c > 0) line.append(',');
+                        if(analysis.scores[c] == BatchAnalyzer.NO_SCORE) line.append('-');
+                        else line.append(analysis.scores[c]);
+                    }
+                }
+                line.append('\n');
+                try {
+                    writer.append(line);
+                } catch(IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                count[0]++;
+            });
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.println(String.format("Analyzed %d positions to depth %d in %.3fs: %.0f positions/s",
+                count[0], depth, seconds, count[0] / seconds));
+    }
+}
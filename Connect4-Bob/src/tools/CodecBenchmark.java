@@ -0,0 +1,223 @@
+package tools;
+
+import core.Board;
+import core.GameCodec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks and times GameCodec. The checks are round-trip properties over seeded random games, run on every prefix of
+ * every game so that won, drawn and unfinished positions are all covered:
+ *
+ *   - decoding a position's long gives a board with the same grid, winner, next player, key and mirror key, and
+ *     the same bitboards as decoding it straight to bitboards
+ *   - decoding a game onto an empty board reproduces the move history and position, and consumes exactly
+ *     gameBytes() bytes, as does the move-array form
+ *   - random longs either fail to decode or re-encode to themselves
+ *
+ * Any failure is printed and the tool exits with status 1; otherwise encode and decode throughput is reported.
+ *
+ * Options:
+ *   --games n      random games to check and time (default 20000)
+ *   --seed s       seed for the games (default 42)
+ *   --rounds n     timed passes over the games, after an equal number of warm-up passes (default 20)
+ *
+ * @version 1.0
+ */
+public class CodecBenchmark {
+
+    /**
+     * Run the checks and benchmarks from the command line.
+     * @param args see the class description
+     */
+    public static void main(String[] args) {
+        int games = 20000;
+        long seed = 42;
+        int rounds = 20;
+
+        for(int i=0; i<args.length; i++) {
+            switch(args[i]) {
+                case "--games":  games = Integer.parseInt(args[++i]); break;
+                case "--seed":   seed = Long.parseLong(args[++i]); break;
+                case "--rounds": rounds = Integer.parseInt(args[++i]); break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        List<Board> set = randomGames(games, seed);
+        long failures = check(set, new Random(seed));
+        if(failures > 0) {
+            System.out.println(failures + " round-trip failures");
+            System.exit(1);
+        }
+        System.out.println("Round trips OK for " + set.size() + " games and all their prefixes");
+
+        benchmarkPositions(set, rounds);
+        benchmarkGames(set, rounds);
+    }
+
+    /**
+     * Play random games to the end.
+     * @param count the number of games
+     * @param seed the random seed
+     * @return the finished games
+     */
+    static List<Board> randomGames(int count, long seed) {
+        Random random = new Random(seed);
+        List<Board> set = new ArrayList<>(count);
+        for(int g=0; g<count; g++) {
+            Board board = new Board();
+            while(board.isPlayable()) {
+                int[] columns = board.getPlayableColumnsArray();
+                board.insertAt(board.getNextPlayer(), columns[random.nextInt(columns.length)]);
+            }
+            set.add(board);
+        }
+        return set;
+    }
+
+    /**
+     * Check every round-trip property.
+     * @param set finished games, whose prefixes are also checked
+     * @param random source of random longs
+     * @return the number of failures
+     */
+    static long check(List<Board> set, Random random) {
+        long failures = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(GameCodec.MAX_GAME_BYTES);
+        int[] moves = new int[42];
+
+        for(Board game : set) {
+            Board prefix = new Board();
+            for(int ply=0; ply<=game.getMoveCount(); ply++) {
+                if(ply > 0) prefix.insertAt(prefix.getNextPlayer(), game.getMoveAt(ply - 1));
+
+                Board decoded = GameCodec.decodePosition(GameCodec.encodePosition(prefix));
+                if(decoded == null || decoded.getKey() != prefix.getKey()
+                        || decoded.getMirrorKey() != prefix.getMirrorKey()
+                        || decoded.getWinner() != prefix.getWinner()
+                        || decoded.getNextPlayer() != prefix.getNextPlayer()
+                        || !Arrays.deepEquals(decoded.getGrid(), prefix.getGrid())) {
+                    failures += report("position", prefix);
+                }
+                long key = GameCodec.encodePosition(prefix);
+                if(GameCodec.decodeBitboard(key, true) != prefix.getBitboard(prefix.PLAYER1)
+                        || GameCodec.decodeBitboard(key, false) != prefix.getBitboard(prefix.PLAYER2)) {
+                    failures += report("bitboards", prefix);
+                }
+
+                buffer.clear();
+                GameCodec.putGame(buffer, prefix);
+                int written = buffer.position();
+                buffer.flip();
+                Board replayed = new Board();
+                if(written != GameCodec.gameBytes(prefix.getMoveCount())
+                        || GameCodec.getGame(buffer, replayed) != prefix.getMoveCount()
+                        || buffer.position() != written
+                        || replayed.getKey() != prefix.getKey()
+                        || !Arrays.equals(replayed.getMoveHistory(), prefix.getMoveHistory())) {
+                    failures += report("game", prefix);
+                }
+
+                buffer.rewind();
+                if(GameCodec.getGame(buffer, moves) != prefix.getMoveCount() || buffer.position() != written
+                        || !Arrays.equals(Arrays.copyOf(moves, prefix.getMoveCount()), prefix.getMoveHistory())) {
+                    failures += report("move array", prefix);
+                }
+            }
+        }
+
+        for(int i=0; i<set.size(); i++) {
+            long key = random.nextLong() >>> random.nextInt(24);
+            Board decoded = GameCodec.decodePosition(key);
+            if(decoded != null && decoded.getKey() != key) {
+                System.out.println("Key " + Long.toHexString(key) + " decoded to " + Long.toHexString(decoded.getKey()));
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Print a failed round trip.
+     * @param what the encoding that failed
+     * @param board the position
+     * @return 1, for counting
+     */
+    private static int report(String what, Board board) {
+        StringBuilder moves = new StringBuilder();
+        for(int move : board.getMoveHistory()) moves.append(move + 1);
+        System.out.println("Round trip of " + what + " failed for \"" + moves + "\"");
+        return 1;
+    }
+
+    /**
+     * Time encoding and decoding final positions through a direct buffer.
+     * @param set the games
+     * @param rounds timed passes
+     */
+    static void benchmarkPositions(List<Board> set, int rounds) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(set.size() * GameCodec.POSITION_BYTES);
+        long checksum = 0;
+        double encode = 0, decode = 0, decodeBits = 0;
+        for(int r=0; r<rounds*2; r++) {
+            long start = System.nanoTime();
+            buffer.clear();
+            for(Board b : set) GameCodec.putPosition(buffer, b);
+            long middle = System.nanoTime();
+            buffer.flip();
+            for(int i=0; i<set.size(); i++) checksum += GameCodec.getPosition(buffer).getMoveCount();
+            long end = System.nanoTime();
+            buffer.rewind();
+            for(int i=0; i<set.size(); i++) {
+                long key = buffer.getLong();
+                checksum += Long.bitCount(GameCodec.decodeBitboard(key, true) | GameCodec.decodeBitboard(key, false));
+            }
+            long bitsEnd = System.nanoTime();
+            if(r >= rounds) {
+                encode += (middle - start) / 1e9;
+                decode += (end - middle) / 1e9;
+                decodeBits += (bitsEnd - end) / 1e9;
+            }
+        }
+        long count = (long) rounds * set.size();
+        System.out.println(String.format("Positions: encode %12.0f/s, decode to board %12.0f/s, "
+                + "decode to bitboards %12.0f/s  (checksum %d)",
+                count / encode, count / decode, count / decodeBits, checksum));
+    }
+
+    /**
+     * Time encoding and decoding whole games through a direct buffer.
+     * @param set the games
+     * @param rounds timed passes
+     */
+    static void benchmarkGames(List<Board> set, int rounds) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(set.size() * GameCodec.MAX_GAME_BYTES);
+        int[] moves = new int[42];
+        long checksum = 0;
+        double encode = 0, decode = 0;
+        for(int r=0; r<rounds*2; r++) {
+            long start = System.nanoTime();
+            buffer.clear();
+            for(Board b : set) GameCodec.putGame(buffer, b);
+            long middle = System.nanoTime();
+            buffer.flip();
+            for(int i=0; i<set.size(); i++) checksum += GameCodec.getGame(buffer, moves);
+            long end = System.nanoTime();
+            if(r >= rounds) {
+                encode += (middle - start) / 1e9;
+                decode += (end - middle) / 1e9;
+            }
+        }
+        long count = (long) rounds * set.size();
+        double bytes = (double) rounds * buffer.limit();
+        System.out.println(String.format("Games:     encode %12.0f/s, decode %12.0f/s, %.1f bytes/game, "
+                + "%.0f MB/s decoded  (checksum %d)",
+                count / encode, count / decode, (double) buffer.limit() / set.size(), bytes / decode / 1e6, checksum));
+    }
+}
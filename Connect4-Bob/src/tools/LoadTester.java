@@ -0,0 +1,411 @@
+package tools;
+
+import core.Board;
+import metrics.LatencyHistogram;
+import online.Connect4Constants;
+import online.Connect4Server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A headless load generator and soak tester for Connect4Server. Opens a number of concurrent clients which speak the
+ * same wire protocol as Connect4Client, plays random or scripted games at a configurable move rate and reports
+ * throughput plus the round-trip latency of every move (from sending a column to receiving its row).
+ *
+ * Options, all optional:
+ *   --host h          server host (default 127.0.0.1)
+ *   --port p          server port (default 8004)
+ *   --clients n       number of concurrent clients (default 16)
+ *   --mode m          pvp, pvc, mixed or lobby (default pvc); in lobby mode half the clients open games and
+ *                     wait, the other half list the open games and join one
+ *   --games n         games per client (default 10, ignored when --duration is given)
+ *   --duration s      soak for this many seconds instead of a fixed number of games
+ *   --rate r          moves per second per client, 0 for as fast as possible (default 0)
+ *   --script moves    1-based column string, e.g. 4453, played while legal before falling back to random moves
+ *   --report s        seconds between interval reports during a soak (default 10)
+ *   --timeout s       socket read timeout, so an unpaired PvP client doesn't wait forever (default 30)
+ *   --embedded        start a Connect4Server in this JVM on the given port first
+ *
+ * @version 1.0
+ */
+public class LoadTester implements Connect4Constants {
+
+    /** Server host name or address **/
+    private String host = "127.0.0.1";
+    /** Server port **/
+    private int port = SERVER_PORT;
+    /** Number of concurrent clients **/
+    private int clients = 16;
+    /** One of "pvp", "pvc", "mixed" or "lobby" **/
+    private String mode = "pvc";
+    /** Games each client plays when not soaking **/
+    private int gamesPerClient = 10;
+    /** Soak duration in seconds, 0 for a fixed number of games **/
+    private int durationSeconds = 0;
+    /** Moves per second per client, 0 for no think time **/
+    private double moveRate = 0;
+    /** Scripted columns (0-based), or null for random play **/
+    private int[] script;
+    /** Seconds between interval reports while soaking **/
+    private int reportSeconds = 10;
+    /** Socket read timeout in seconds **/
+    private int timeoutSeconds = 30;
+    /** Whether to start a server in this JVM **/
+    private boolean embedded = false;
+
+    /** Round-trip latency of every move over the whole run, in nanoseconds **/
+    private final LatencyHistogram moveLatency = new LatencyHistogram();
+    /** Round-trip latency since the last interval report **/
+    private final LatencyHistogram intervalLatency = new LatencyHistogram();
+
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder games = new LongAdder();
+    private final LongAdder player1Wins = new LongAdder();
+    private final LongAdder player2Wins = new LongAdder();
+    private final LongAdder draws = new LongAdder();
+    private final LongAdder illegalMoves = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    /** Deadline for a soak, as a System.nanoTime() value **/
+    private long deadline;
+
+    /**
+     * Parse the command line and run the test.
+     * @param args see the class description
+     * @throws Exception if the embedded server can't be started or the run is interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        LoadTester tester = new LoadTester();
+        tester.parse(args);
+        tester.run();
+    }
+
+    /**
+     * Read options from the command line.
+     * @param args the arguments given to main
+     */
+    private void parse(String[] args) {
+        for(int i=0; i<args.length; i++) {
+            switch(args[i]) {
+                case "--host":     host = args[++i]; break;
+                case "--port":     port = Integer.parseInt(args[++i]); break;
+                case "--clients":  clients = Integer.parseInt(args[++i]); break;
+                case "--mode":     mode = args[++i]; break;
+                case "--games":    gamesPerClient = Integer.parseInt(args[++i]); break;
+                case "--duration": durationSeconds = Integer.parseInt(args[++i]); break;
+                case "--rate":     moveRate = Double.parseDouble(args[++i]); break;
+                case "--script":   script = parseScript(args[++i]); break;
+                case "--report":   reportSeconds = Integer.parseInt(args[++i]); break;
+                case "--timeout":  timeoutSeconds = Integer.parseInt(args[++i]); break;
+                case "--embedded": embedded = true; break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if(!mode.equals("pvp") && !mode.equals("pvc") && !mode.equals("mixed") && !mode.equals("lobby"))
+            throw new IllegalArgumentException("Mode must be pvp, pvc, mixed or lobby");
+    }
+
+    /**
+     * Turn a string of 1-based column digits into 0-based columns.
+     * @param moves a string such as "4453"
+     * @return the columns to play, in order
+     */
+    private static int[] parseScript(String moves) {
+        int[] columns = new int[moves.length()];
+        for(int i=0; i<moves.length(); i++) columns[i] = moves.charAt(i) - '1';
+        return columns;
+    }
+
+    /**
+     * Start all clients, wait for them to finish and print the results.
+     * @throws Exception if the embedded server doesn't start or the run is interrupted
+     */
+    private void run() throws Exception {
+        if(embedded && !new Connect4Server(port).awaitStarted(5, TimeUnit.SECONDS)) {
+            throw new IOException("Embedded server did not start on port " + port);
+        }
+
+        System.out.println("Load test: " + clients + " " + mode + " clients against " + host + ":" + port
+                + (durationSeconds > 0 ? " for " + durationSeconds + "s" : ", " + gamesPerClient + " games each")
+                + (moveRate > 0 ? " at " + moveRate + " moves/s per client" : ""));
+
+        long start = System.nanoTime();
+        deadline = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        for(int c=0; c<clients; c++) {
+            int choice = choiceFor(c);
+            pool.execute(() -> runClient(choice));
+        }
+        pool.shutdown();
+
+        long lastReport = start;
+        long lastMoves = 0;
+        while(!pool.awaitTermination(reportSeconds, TimeUnit.SECONDS)) {
+            long now = System.nanoTime();
+            long totalMoves = moves.sum();
+            double seconds = (now - lastReport) / 1e9;
+            System.out.println(String.format("[%6.0fs] %8.1f moves/s  p50 %8.1fus  p99 %8.1fus  p999 %8.1fus  games %d  errors %d",
+                    (now - start) / 1e9, (totalMoves - lastMoves) / seconds,
+                    intervalLatency.getValueAtPercentile(50) / 1e3,
+                    intervalLatency.getValueAtPercentile(99) / 1e3,
+                    intervalLatency.getValueAtPercentile(99.9) / 1e3,
+                    games.sum(), errors.sum()));
+            intervalLatency.reset();
+            lastReport = now;
+            lastMoves = totalMoves;
+        }
+
+        report((System.nanoTime() - start) / 1e9);
+        System.exit(0);
+    }
+
+    /**
+     * Decide which kind of game a client asks for.
+     * @param client the index of the client
+     * @return PLAY_AGAINST_PERSON, PLAY_AGAINST_COMPUTER, LOBBY_CREATE or LOBBY_JOIN
+     */
+    private int choiceFor(int client) {
+        switch(mode) {
+            case "pvp": return PLAY_AGAINST_PERSON;
+            case "pvc": return PLAY_AGAINST_COMPUTER;
+            case "lobby": return client % 2 == 0 ? LOBBY_CREATE : LOBBY_JOIN;
+            default:    return client % 2 == 0 ? PLAY_AGAINST_PERSON : PLAY_AGAINST_COMPUTER;
+        }
+    }
+
+    /**
+     * Get into a game through the lobby: either open one in a random seat and wait for a joiner, or list the open
+     * games until there are some and join a random one from the first page, trying again if someone else gets it
+     * first.
+     * @param in from the server
+     * @param out to the server
+     * @param host true to open a game, false to join one
+     * @return the player number the server assigns, or ERROR_SERVER_BUSY
+     * @throws IOException if the connection fails or times out
+     */
+    private int enterLobby(DataInputStream in, DataOutputStream out, boolean host) throws IOException {
+        if(host) {
+            out.writeInt(LOBBY_CREATE);
+            out.writeInt(ThreadLocalRandom.current().nextBoolean() ? PLAYER1 : PLAYER2);
+            out.writeInt(0);
+            out.flush();
+            int reply = nextFrame(in, out);
+            if(reply != LOBBY_CREATED) return reply;
+            in.readInt(); // its id
+            return nextFrame(in, out);
+        }
+
+        long giveUp = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        while(System.nanoTime() < giveUp) {
+            out.writeInt(LOBBY_LIST);
+            out.writeInt(UNDEFINED);
+            out.writeInt(UNDEFINED);
+            out.writeInt(0);
+            out.writeInt(8);
+            out.flush();
+            int reply = nextFrame(in, out);
+            if(reply != LOBBY_GAMES) return reply;
+            int count = in.readInt();
+            int[] ids = new int[count];
+            for(int i=0; i<count; i++) {
+                ids[i] = in.readInt();
+                in.readInt(); // seat
+                in.readInt(); // move clock
+            }
+            if(count > 0) {
+                out.writeInt(LOBBY_JOIN);
+                out.writeInt(ids[ThreadLocalRandom.current().nextInt(count)]);
+                out.flush();
+                reply = nextFrame(in, out);
+                if(reply != ERROR_NO_SUCH_GAME) return reply;
+            }
+            // nothing open, or someone else got there first; don't spend the whole message rate on asking again
+            try {
+                TimeUnit.MILLISECONDS.sleep(count > 0 ? 10 : 100);
+            } catch(InterruptedException ex) {
+                throw new IOException("Interrupted while waiting for a game");
+            }
+        }
+        throw new IOException("No open game to join");
+    }
+
+    /**
+     * Read the next int from the server which isn't a heartbeat, answering any heartbeats on the way so a host
+     * waiting for a joiner isn't taken for dead
+     * @param in from the server
+     * @param out to the server
+     * @return the int
+     * @throws IOException if the connection fails or times out
+     */
+    private int nextFrame(DataInputStream in, DataOutputStream out) throws IOException {
+        while(true) {
+            int value = in.readInt();
+            if(value != HEARTBEAT) return value;
+            out.writeInt(HEARTBEAT);
+            out.flush();
+        }
+    }
+
+    /**
+     * Play games back to back until the game count or soak deadline is reached.
+     * @param choice the kind of game to ask the server for
+     */
+    private void runClient(int choice) {
+        int played = 0;
+        while(durationSeconds > 0 ? System.nanoTime() < deadline : played < gamesPerClient) {
+            try {
+                playGame(choice);
+            } catch(IOException ex) {
+                errors.increment();
+            }
+            played++;
+        }
+    }
+
+    /**
+     * Connect to the server and play a single game to completion.
+     * @param choice the kind of game to ask the server for
+     * @throws IOException if the connection fails or times out
+     */
+    private void playGame(int choice) throws IOException {
+        try(Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeoutSeconds * 1000);
+            socket.connect(new InetSocketAddress(host, port), timeoutSeconds * 1000);
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            int playerNumber;
+            if(choice == LOBBY_CREATE || choice == LOBBY_JOIN) {
+                playerNumber = enterLobby(in, out, choice == LOBBY_CREATE);
+            } else {
+                out.writeInt(choice);
+                out.flush();
+                playerNumber = in.readInt();
+            }
+            if(playerNumber == ERROR_SERVER_BUSY) throw new IOException("Server busy");
+            char myToken = playerNumber == PLAYER1 ? PLAYER1_TOKEN : PLAYER2_TOKEN;
+
+            Board board = new Board();
+            int ply = 0;
+            int lastColumn = -1;
+            long sentAt = 0;
+            boolean waitingForResult = false;
+
+            while(true) {
+                int status = in.readInt();
+                switch(status) {
+                    case START:
+                        break;
+                    case HEARTBEAT:
+                        out.writeInt(HEARTBEAT);
+                        out.flush();
+                        break;
+                    case PROMPT_FOR_MOVE:
+                        think();
+                        lastColumn = chooseMove(board, ply);
+                        sentAt = System.nanoTime();
+                        out.writeInt(lastColumn);
+                        out.flush();
+                        waitingForResult = true;
+                        break;
+                    case ERROR_ILLEGAL_MOVE:
+                        illegalMoves.increment();
+                        lastColumn = chooseMove(board, -1);
+                        sentAt = System.nanoTime();
+                        out.writeInt(lastColumn);
+                        out.flush();
+                        break;
+                    case MOVE:
+                        int player = in.readInt();
+                        int column = in.readInt();
+                        in.readInt(); // row, which the local board works out for itself
+                        board.insertAt(player == PLAYER1 ? PLAYER1_TOKEN : PLAYER2_TOKEN, column);
+                        ply++;
+                        break;
+                    case WIN:
+                        if(in.readInt() == PLAYER1) player1Wins.increment();
+                        else player2Wins.increment();
+                        games.increment();
+                        return;
+                    case DRAW:
+                        draws.increment();
+                        games.increment();
+                        return;
+                    default:
+                        if(waitingForResult) {
+                            long elapsed = System.nanoTime() - sentAt;
+                            moveLatency.record(elapsed);
+                            intervalLatency.record(elapsed);
+                            moves.increment();
+                            board.insertAt(myToken, lastColumn);
+                            ply++;
+                            waitingForResult = false;
+                        }
+                }
+            }
+        }
+    }
+
+    /**
+     * Pause between moves to hold each client to the configured move rate.
+     */
+    private void think() {
+        if(moveRate <= 0) return;
+        try {
+            Thread.sleep((long) (1000 / moveRate));
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Pick the scripted move for this ply if there is one and it's legal, otherwise a random legal column.
+     * @param board the client's copy of the game board
+     * @param ply the number of moves played so far, or -1 to force a random move
+     * @return the 0-based column to play
+     */
+    private int chooseMove(Board board, int ply) {
+        if(script != null && ply >= 0 && ply < script.length && board.playableCellInColumn(script[ply]) > -1) {
+            return script[ply];
+        }
+        int[] columns = board.getPlayableColumnsArray();
+        return columns[ThreadLocalRandom.current().nextInt(columns.length)];
+    }
+
+    /**
+     * Print the final summary and the full latency distribution.
+     * @param seconds the length of the run
+     */
+    private void report(double seconds) {
+        long totalGames = games.sum();
+        System.out.println();
+        System.out.println(String.format("Elapsed:     %.1fs", seconds));
+        System.out.println(String.format("Games:       %d (player 1 %d, player 2 %d, draws %d)",
+                totalGames, player1Wins.sum(), player2Wins.sum(), draws.sum()));
+        System.out.println(String.format("Errors:      %d connection errors, %d illegal moves", errors.sum(), illegalMoves.sum()));
+        System.out.println(String.format("Throughput:  %.1f moves/s, %.2f games/s", moves.sum() / seconds, totalGames / seconds));
+        System.out.println(String.format("Move RTT:    p50 %.1fus  p99 %.1fus  p999 %.1fus  max %.1fus",
+                moveLatency.getValueAtPercentile(50) / 1e3,
+                moveLatency.getValueAtPercentile(99) / 1e3,
+                moveLatency.getValueAtPercentile(99.9) / 1e3,
+                moveLatency.getMax() / 1e3));
+        System.out.println();
+        System.out.println("Move round-trip latency distribution (microseconds):");
+        moveLatency.outputPercentileDistribution(System.out, 5, 1000.0);
+    }
+}
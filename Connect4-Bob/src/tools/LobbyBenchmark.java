@@ -0,0 +1,118 @@
+package tools;
+
+import metrics.LatencyHistogram;
+import metrics.ServerMetrics;
+import online.Connect4Constants;
+import online.Connection;
+import online.LobbyIndex;
+import online.TokenBucket;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures a LobbyIndex under churn: updater threads open games and take random ones, as hosts and joiners would,
+ * while lister threads page through the open games. Reports updates per second and the latency of each page.
+ *
+ * Options, all optional:
+ *   --updaters n      threads opening and taking games (default 2)
+ *   --listers n       threads listing pages (default 2)
+ *   --open n          games kept open, roughly (default 10000)
+ *   --seconds s       how long to run (default 10)
+ *
+ * @version 1.0
+ */
+public class LobbyBenchmark implements Connect4Constants {
+
+    /**
+     * Run the benchmark.
+     * @param args see the class description
+     * @throws Exception if the loopback connection every game shares can't be made
+     */
+    public static void main(String[] args) throws Exception {
+        int updaters = 2;
+        int listers = 2;
+        int open = 10000;
+        int seconds = 10;
+
+        for(int i=0; i<args.length; i++) {
+            switch(args[i]) {
+                case "--updaters": updaters = Integer.parseInt(args[++i]); break;
+                case "--listers":  listers = Integer.parseInt(args[++i]); break;
+                case "--open":     open = Integer.parseInt(args[++i]); break;
+                case "--seconds":  seconds = Integer.parseInt(args[++i]); break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        // every game needs a host; one open loopback connection stands in for all of them
+        ServerSocket serverSocket = new ServerSocket(0);
+        Socket client = new Socket("127.0.0.1", serverSocket.getLocalPort());
+        Connection host = new Connection(serverSocket.accept(), new ServerMetrics(), new TokenBucket(1, 1),
+                Executors.newSingleThreadExecutor(), 4096, closed -> { });
+
+        LobbyIndex lobby = new LobbyIndex();
+        for(int i=0; i<open; i++) lobby.open(i % 2 == 0 ? PLAYER1 : PLAYER2, i % 3 * 30, host, 0);
+        int window = open;
+
+        LongAdder updates = new LongAdder();
+        LongAdder pages = new LongAdder();
+        LatencyHistogram pageLatency = new LatencyHistogram();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> threads = new ArrayList<>();
+
+        for(int u=0; u<updaters; u++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while(System.nanoTime() < end) {
+                    LobbyIndex.OpenGame game = lobby.open(random.nextBoolean() ? PLAYER1 : PLAYER2,
+                            random.nextInt(3) * 30, host, 0);
+                    // take the game opened a window ago, so each game is taken once and the number open holds steady
+                    lobby.take(game.id - window);
+                    updates.add(2);
+                }
+            }));
+        }
+        for(int l=0; l<listers; l++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while(System.nanoTime() < end) {
+                    int seat = random.nextInt(3) == 0 ? UNDEFINED : random.nextBoolean() ? PLAYER1 : PLAYER2;
+                    int afterId = 0;
+                    for(int page=0; page<4; page++) {
+                        long start = System.nanoTime();
+                        List<LobbyIndex.OpenGame> games = lobby.list(seat, UNDEFINED, afterId, 20);
+                        pageLatency.recordSince(start);
+                        pages.increment();
+                        if(games.isEmpty()) break;
+                        afterId = games.get(games.size() - 1).id;
+                    }
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        for(Thread t : threads) t.start();
+        for(Thread t : threads) t.join();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Updaters %d, listers %d, about %d games open, %.1fs%n", updaters, listers, open, elapsed);
+        System.out.printf("Updates:  %,.0f/s%n", updates.sum() / elapsed);
+        System.out.printf("Pages:    %,.0f/s  p50 %.1fus  p99 %.1fus  p999 %.1fus  max %.1fus%n",
+                pages.sum() / elapsed,
+                pageLatency.getValueAtPercentile(50) / 1e3,
+                pageLatency.getValueAtPercentile(99) / 1e3,
+                pageLatency.getValueAtPercentile(99.9) / 1e3,
+                pageLatency.getMax() / 1e3);
+        System.out.printf("Open now: %d%n", lobby.size());
+        client.close();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,111 @@
+package tools;
+
+import online.AdmissionController;
+import online.Connect4Constants;
+import online.Connect4Router;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a sharded deployment on this host: a Connect4Router in this JVM and a number of Connect4Server shard
+ * processes reporting to it, each with its own player port and metrics port. Point Connect4Client or LoadTester at
+ * the router's port to play through it. The shard table is printed periodically; on exit (Ctrl-C) the shards are
+ * sent SIGTERM, so they drain, and are waited for.
+ *
+ * Options, all optional:
+ *   --shards n        number of shard processes (default 2)
+ *   --port p          router port for players (default 8004)
+ *   --control p       router port for shard reports (default 8014)
+ *   --shard-port p    first shard's player port, the rest follow (default 8101)
+ *   --metrics-port p  first shard's metrics port, the rest follow (default 9101)
+ *   --ai spec         connect4.ai for the shards (default random)
+ *   --report s        seconds between printing the shard table (default 10)
+ *
+ * Each shard logs to connect4-shard-N.log in the temporary directory. Every player on this host comes from the same
+ * address, so the router's per-address limit defaults to its total limit, connect4.connections.max (default 10000),
+ * unless connect4.connections.per.address is set.
+ *
+ * @version 1.0
+ */
+public class LocalCluster implements Connect4Constants {
+
+    /**
+     * Start the router and shards, then print the shard table until killed.
+     * @param args see the class description
+     * @throws IOException if a shard can't be started
+     * @throws InterruptedException if interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int shardCount = 2;
+        int port = SERVER_PORT;
+        int control = 8014;
+        int shardPort = 8101;
+        int metricsPort = 9101;
+        String ai = "random";
+        int reportSeconds = 10;
+
+        for(int i=0; i<args.length; i++) {
+            switch(args[i]) {
+                case "--shards":       shardCount = Integer.parseInt(args[++i]); break;
+                case "--port":         port = Integer.parseInt(args[++i]); break;
+                case "--control":      control = Integer.parseInt(args[++i]); break;
+                case "--shard-port":   shardPort = Integer.parseInt(args[++i]); break;
+                case "--metrics-port": metricsPort = Integer.parseInt(args[++i]); break;
+                case "--ai":           ai = args[++i]; break;
+                case "--report":       reportSeconds = Integer.parseInt(args[++i]); break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        int maxConnections = Integer.getInteger("connect4.connections.max", 10000);
+        AdmissionController admission = new AdmissionController(maxConnections,
+                Integer.getInteger("connect4.connections.per.address", maxConnections), new AtomicLong());
+        Connect4Router router = new Connect4Router(port, control, 300000, admission);
+        if(!router.awaitStarted(10, TimeUnit.SECONDS)) throw new IllegalStateException("Router didn't start");
+
+        String java = ProcessHandle.current().info().command().orElse("java");
+        List<Process> shards = new ArrayList<>();
+        for(int i=0; i<shardCount; i++) {
+            File log = new File(System.getProperty("java.io.tmpdir"), "connect4-shard-" + i + ".log");
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            // only neural players use the Vector API; asking for the module otherwise just adds a warning
+            if(ai.startsWith("neural:")) command.addAll(List.of("--add-modules", "jdk.incubator.vector"));
+            command.addAll(List.of("-cp", System.getProperty("java.class.path"),
+                    "-Dconnect4.port=" + (shardPort + i),
+                    "-Dconnect4.metrics.port=" + (metricsPort + i),
+                    "-Dconnect4.router=127.0.0.1:" + control,
+                    "-Dconnect4.ai=" + ai,
+                    "online.Connect4Server"));
+            ProcessBuilder builder = new ProcessBuilder(command);
+            builder.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.to(log));
+            shards.add(builder.start());
+            System.out.printf("Shard %d on port %d, metrics on %d, logging to %s%n", i, shardPort + i,
+                    metricsPort + i, log);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for(Process shard : shards) shard.destroy();
+            for(Process shard : shards) {
+                try {
+                    shard.waitFor(60, TimeUnit.SECONDS);
+                } catch(InterruptedException ex) {
+                    return;
+                }
+            }
+        }));
+
+        System.out.printf("Router accepting players on port %d%n", port);
+        while(true) {
+            TimeUnit.SECONDS.sleep(reportSeconds);
+            System.out.print(router.describeShards());
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package tools;
+
+import core.Board;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A perft-style move generation yardstick: counts every line of play, or every distinct position, reachable from a
+ * position within a number of plies, using Board's own move generation, and reports nodes per second. The counts for
+ * a given position and depth never change, so any new board representation must reproduce them exactly.
+ *
+ * Options:
+ *   --depth n      plies to search (default 8)
+ *   --moves s      starting position as 1-based column digits (default empty board)
+ *   --mode m       tree to count every line of play (classic perft), or unique to count distinct positions,
+ *                  merging transpositions and mirror images through a concurrent set of canonical keys (default tree)
+ *   --threads n    fork-join parallelism (default: available processors)
+ *   --split n      plies below the root that are forked as separate tasks (default 3)
+ *
+ * @version 1.0
+ */
+public class Perft {
+
+    /** Plies to search **/
+    private final int depth;
+    /** Plies below the root at which tasks are forked **/
+    private final int splitDepth;
+    /** Whether to merge transpositions and mirror images **/
+    private final boolean unique;
+    /** For each ply, the canonical keys of positions seen so far when counting unique positions **/
+    private final List<Set<Long>> seen;
+
+    /**
+     * Set up a count.
+     * @param depth plies to search
+     * @param splitDepth plies below the root at which tasks are forked
+     * @param unique true to count distinct positions rather than lines of play
+     */
+    public Perft(int depth, int splitDepth, boolean unique) {
+        this.depth = depth;
+        this.splitDepth = splitDepth;
+        this.unique = unique;
+        seen = new ArrayList<>(depth + 1);
+        for(int d=0; d<=depth; d++) seen.add(ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * Count from a position.
+     * @param root the starting position, which is not modified
+     * @param pool the pool to run in
+     * @return per ply: [0] positions reached, [1] of which ended the game
+     */
+    public long[][] run(Board root, ForkJoinPool pool) {
+        return pool.invoke(new Count(root.copy(), 0));
+    }
+
+    /**
+     * Counts the subtree below a position, forking a task per move near the root and walking sequentially with
+     * make/unmake below that.
+     */
+    private class Count extends RecursiveTask<long[][]> {
+        private static final long serialVersionUID = 1L;
+
+        private final Board board;
+        private final int ply;
+
+        Count(Board board, int ply) {
+            this.board = board;
+            this.ply = ply;
+        }
+
+        @Override
+        protected long[][] compute() {
+            long[][] counts = new long[depth + 1][2];
+            if(ply >= splitDepth) {
+                walk(board, ply, counts);
+                return counts;
+            }
+
+            int[] columns = board.getPlayableColumnsArray();
+            Count[] children = new Count[columns.length];
+            int forked = 0;
+            for(int column : columns) {
+                Board child = board.copy();
+                child.insertAt(child.getNextPlayer(), column);
+                if(visit(child, ply + 1, counts)) {
+                    children[forked] = new Count(child, ply + 1);
+                    children[forked++].fork();
+                }
+            }
+            for(int i=forked-1; i>=0; i--) add(counts, children[i].join());
+            return counts;
+        }
+    }
+
+    /**
+     * Count the subtree below a position sequentially.
+     * @param board the position, restored before returning
+     * @param ply the ply of this position
+     * @param counts where to add counts
+     */
+    private void walk(Board board, int ply, long[][] counts) {
+        if(ply >= depth) return;
+        for(int column : board.getPlayableColumnsArray()) {
+            board.insertAt(board.getNextPlayer(), column);
+            if(visit(board, ply + 1, counts)) walk(board, ply + 1, counts);
+            board.unmake(column);
+        }
+    }
+
+    /**
+     * Count a newly reached position.
+     * @param board the position
+     * @param ply its ply
+     * @param counts where to add counts
+     * @return true if the search should continue below this position
+     */
+    private boolean visit(Board board, int ply, long[][] counts) {
+        if(unique && !seen.get(ply).add(board.getCanonicalKey())) return false;
+        counts[ply][0]++;
+        if(!board.isPlayable()) {
+            counts[ply][1]++;
+            return false;
+        }
+        return ply < depth;
+    }
+
+    /**
+     * Add one set of counts to another.
+     * @param into the running totals
+     * @param from the counts to add
+     */
+    private static void add(long[][] into, long[][] from) {
+        for(int d=0; d<into.length; d++) {
+            into[d][0] += from[d][0];
+            into[d][1] += from[d][1];
+        }
+    }
+
+    /**
+     * Run a count from the command line.
+     * @param args see the class description
+     */
+    public static void main(String[] args) {
+        int depth = 8;
+        int split = 3;
+        String moves = "";
+        boolean unique = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for(int i=0; i<args.length; i++) {
+            switch(args[i]) {
+                case "--depth":   depth = Integer.parseInt(args[++i]); break;
+                case "--moves":   moves = args[++i]; break;
+                case "--mode":    unique = args[++i].equals("unique"); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--split":   split = Integer.parseInt(args[++i]); break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Board root = new Board();
+        if(root.playMoves(moves) == -1) throw new IllegalArgumentException("Illegal move sequence " + moves);
+
+        System.out.println("Perft (" + (unique ? "unique positions" : "tree") + ") from \"" + moves + "\" to depth "
+                + depth + " on " + threads + " threads");
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        long[][] counts = new Perft(depth, split, unique).run(root, pool);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        long total = 0;
+        System.out.println(String.format("%5s %16s %16s", "Ply", "Nodes", "Game over"));
+        for(int d=1; d<=depth; d++) {
+            System.out.println(String.format("%5d %16d %16d", d, counts[d][0], counts[d][1]));
+            total += counts[d][0];
+        }
+        System.out.println(String.format("%d nodes in %.3fs: %.0f nodes/s", total, seconds, total / seconds));
+    }
+}
@@ -0,0 +1,236 @@
+package tools;
+
+import ai.Tablebase;
+import core.Board;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Builds an endgame tablebase by retrograde analysis. Every position still in play which can be reached from a root
+ * position is enumerated level by level (a level being all positions with the same number of chips), merging
+ * transpositions and mirror images through their canonical keys. The levels are then solved backwards, starting from
+ * the fullest: a position's result follows from its children, which are either decided on the spot (a win or a full
+ * board) or were solved in the level below. The results for positions with at most --max-empty empty cells are
+ * written to a file that ai.Tablebase maps and probes.
+ *
+ * Positions with a dozen or so empty cells are far too many to enumerate from the empty board, so a tablebase always
+ * covers the endgames of one opening line, given with --moves.
+ *
+ * Options:
+ *   --moves s        root position as 1-based column digits (default empty board)
+ *   --max-empty n    store positions with at most n empty cells (default 12)
+ *   --out file       where to write the tablebase (default connect4.tb)
+ *   --threads n      fork-join parallelism (default: available processors)
+ *
+ * @version 1.0
+ */
+public class TablebaseGenerator {
+    /** Positions below this many are handled by a single task **/
+    private static final int GRAIN = 1024;
+
+    /** The pool every level is expanded and solved in **/
+    private final ForkJoinPool pool;
+
+    /**
+     * Set up a generator.
+     * @param pool the pool to run in
+     */
+    public TablebaseGenerator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Enumerate the canonical keys of every position still in play reachable from a root.
+     * @param root the root position, which must still be in play
+     * @return per chip count, the sorted keys of the positions with that many chips, or null before the root
+     */
+    public long[][] enumerate(Board root) {
+        int cells = root.getColumns() * root.getRows();
+        long[][] levels = new long[cells + 1][];
+        levels[root.getMoveCount()] = new long[] { root.getCanonicalKey() };
+        for(int m=root.getMoveCount(); m<cells; m++) {
+            long[] level = levels[m];
+            Set<Long> next = ConcurrentHashMap.newKeySet(level.length * 2);
+            forEach(level.length, i -> {
+                Board board = Board.fromKey(level[i]);
+                for(int column : board.getPlayableColumnsArray()) {
+                    board.insertAt(board.getNextPlayer(), column);
+                    if(board.isPlayable()) next.add(board.getCanonicalKey());
+                    board.unmake(column);
+                }
+            });
+            levels[m+1] = toSortedArray(next);
+        }
+        return levels;
+    }
+
+    /**
+     * Solve enumerated levels backwards from the fullest.
+     * @param levels the result of enumerate()
+     * @param lowest the smallest chip count to solve
+     * @return per chip count, the result of each position in levels, or null for levels not solved
+     */
+    public byte[][] solve(long[][] levels, int lowest) {
+        byte[][] results = new byte[levels.length][];
+        for(int m=levels.length-1; m>=lowest && levels[m] != null; m--) {
+            long[] level = levels[m];
+            long[] below = m + 1 < levels.length ? levels[m+1] : null;
+            byte[] belowResults = m + 1 < levels.length ? results[m+1] : null;
+            byte[] solved = new byte[level.length];
+            forEach(level.length, i -> solved[i] = (byte) solve(Board.fromKey(level[i]), below, belowResults));
+            results[m] = solved;
+        }
+        return results;
+    }
+
+    /**
+     * Work out a position's result from its children's.
+     * @param board the position
+     * @param below the sorted keys of the positions one chip fuller
+     * @param belowResults their results
+     * @return WIN, DRAW or LOSS for the player to move
+     */
+    private static int solve(Board board, long[] below, byte[] belowResults) {
+        int best = Tablebase.LOSS;
+        for(int column : board.getPlayableColumnsArray()) {
+            board.insertAt(board.getNextPlayer(), column);
+            int result;
+            if(board.getWinner() != board.NONE) result = Tablebase.WIN;
+            else if(!board.isPlayable()) result = Tablebase.DRAW;
+            else result = Tablebase.negate(belowResults[Arrays.binarySearch(below, board.getCanonicalKey())]);
+            board.unmake(column);
+
+            if(result == Tablebase.WIN) return result;
+            if(result == Tablebase.DRAW) best = result;
+        }
+        return best;
+    }
+
+    /**
+     * Run an action for every index in [0, count) in the pool.
+     * @param count the number of indexes
+     * @param action what to do for each index
+     */
+    private void forEach(int count, IntConsumer action) {
+        pool.invoke(new Range(0, count, action));
+    }
+
+    /**
+     * Applies an action to a range of indexes, splitting in half until the range is small.
+     */
+    private static class Range extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+        private final IntConsumer action;
+
+        Range(int from, int to, IntConsumer action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= GRAIN) {
+                for(int i=from; i<to; i++) action.accept(i);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Range(from, mid, action), new Range(mid, to, action));
+        }
+    }
+
+    /**
+     * Copy a set of keys into a sorted array, ready for binary search.
+     * @param keys the keys
+     * @return the keys in ascending order
+     */
+    private static long[] toSortedArray(Set<Long> keys) {
+        long[] array = new long[keys.size()];
+        int i = 0;
+        for(long key : keys) array[i++] = key;
+        Arrays.parallelSort(array);
+        return array;
+    }
+
+    /**
+     * Build a tablebase from the command line.
+     * @param args see the class description
+     * @throws IOException if the tablebase can't be written
+     */
+    public static void main(String[] args) throws IOException {
+        String moves = "";
+        int maxEmpty = 12;
+        Path out = Paths.get("connect4.tb");
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for(int i=0; i<args.length; i++) {
+            switch(args[i]) {
+                case "--moves":     moves = args[++i]; break;
+                case "--max-empty": maxEmpty = Integer.parseInt(args[++i]); break;
+                case "--out":       out = Paths.get(args[++i]); break;
+                case "--threads":   threads = Integer.parseInt(args[++i]); break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Board root = new Board();
+        if(root.playMoves(moves) == -1 || !root.isPlayable()) {
+            throw new IllegalArgumentException("Not a position in play: " + moves);
+        }
+        int cells = root.getColumns() * root.getRows();
+        int lowest = Math.max(root.getMoveCount(), cells - maxEmpty);
+
+        System.out.println("Tablebase from \"" + moves + "\" (" + (cells - root.getMoveCount())
+                + " empty) storing positions with at most " + maxEmpty + " empty on " + threads + " threads");
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        TablebaseGenerator generator = new TablebaseGenerator(pool);
+        long start = System.nanoTime();
+        long[][] levels = generator.enumerate(root);
+        double enumerated = (System.nanoTime() - start) / 1e9;
+        byte[][] results = generator.solve(levels, lowest);
+        double solved = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        int total = 0;
+        System.out.println(String.format("%6s %12s %12s %12s %12s", "Empty", "Positions", "Win", "Draw", "Loss"));
+        for(int m=lowest; m<=cells; m++) {
+            if(levels[m] == null || levels[m].length == 0) continue;
+            int[] counts = new int[4];
+            for(byte result : results[m]) counts[result]++;
+            System.out.println(String.format("%6d %12d %12d %12d %12d", cells - m, levels[m].length,
+                    counts[Tablebase.WIN], counts[Tablebase.DRAW], counts[Tablebase.LOSS]));
+            total += levels[m].length;
+        }
+
+        long[] keys = new long[total];
+        byte[] values = new byte[total];
+        int at = 0;
+        for(int m=lowest; m<=cells; m++) {
+            if(levels[m] == null) continue;
+            System.arraycopy(levels[m], 0, keys, at, levels[m].length);
+            System.arraycopy(results[m], 0, values, at, results[m].length);
+            at += levels[m].length;
+        }
+        Tablebase.write(out, maxEmpty, keys, values);
+        double written = (System.nanoTime() - start) / 1e9;
+
+        System.out.println(String.format("Enumerated in %.3fs, solved in %.3fs, wrote %d positions to %s in %.3fs",
+                enumerated, solved - enumerated, total, out, written - solved));
+        if(lowest == root.getMoveCount()) {
+            String[] names = { "unknown", "win", "draw", "loss" };
+            System.out.println("Root position is a " + names[results[lowest][0]] + " for the player to move");
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package tools;
+
+import ai.PlayerSpecs;
+import core.Connect4;
+import core.Player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A headless self-play tournament runner built directly on Connect4 and Player, with no network or UI involved.
+ * Games are spread over a work-stealing ForkJoinPool using every core by default.
+ *
+ * Options:
+ *   --players a,b,...   player specs understood by PlayerSpecs (default random,random)
+ *   --format f          roundrobin (every pair) or gauntlet (the first player against each of the others)
+ *   --games n           games per pairing, alternating who moves first (default 1000)
+ *   --threads n         worker threads (default: available processors)
+ *
+ * For every pairing it reports wins, draws and losses, the score with a 95% confidence interval and the implied Elo
+ * difference; for every player the average time per move; and overall games per second.
+ *
+ * @version 1.0
+ */
+public class Tournament {
+    /** Games played by a single task before it stops splitting **/
+    private static final int GAMES_PER_TASK = 16;
+
+    /** A participant and its accumulated move timings **/
+    static class Entrant {
+        final String spec;
+        final Supplier<Player> factory;
+        final LongAdder moveNanos = new LongAdder();
+        final LongAdder moves = new LongAdder();
+        double score;
+        int games;
+
+        Entrant(String spec) {
+            this.spec = spec;
+            this.factory = PlayerSpecs.parse(spec);
+        }
+    }
+
+    /** Two entrants and the results of their games, counted from a's point of view **/
+    static class Pairing {
+        final Entrant a, b;
+        final LongAdder wins = new LongAdder();
+        final LongAdder draws = new LongAdder();
+        final LongAdder losses = new LongAdder();
+
+        Pairing(Entrant a, Entrant b) {
+            this.a = a;
+            this.b = b;
+        }
+    }
+
+    /**
+     * Plays a range of a pairing's games, splitting in half until the range is small enough to play directly.
+     */
+    static class PlayGames extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final Pairing pairing;
+        final int from, to;
+
+        PlayGames(Pairing pairing, int from, int to) {
+            this.pairing = pairing;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= GAMES_PER_TASK) {
+                for(int g=from; g<to; g++) playGame(pairing, g % 2 == 0);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new PlayGames(pairing, from, mid), new PlayGames(pairing, mid, to));
+            }
+        }
+    }
+
+    /**
+     * Run a tournament from the command line.
+     * @param args see the class description
+     */
+    public static void main(String[] args) {
+        String players = "random,random";
+        String format = "roundrobin";
+        int games = 1000;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for(int i=0; i<args.length; i++) {
+            switch(args[i]) {
+                case "--players": players = args[++i]; break;
+                case "--format":  format = args[++i]; break;
+                case "--games":   games = Integer.parseInt(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        List<Entrant> entrants = new ArrayList<>();
+        for(String spec : players.split(",")) entrants.add(new Entrant(spec.trim()));
+        if(entrants.size() < 2) throw new IllegalArgumentException("A tournament needs at least two players");
+
+        List<Pairing> pairings = new ArrayList<>();
+        if(format.equals("gauntlet")) {
+            for(int j=1; j<entrants.size(); j++) pairings.add(new Pairing(entrants.get(0), entrants.get(j)));
+        } else if(format.equals("roundrobin")) {
+            for(int i=0; i<entrants.size(); i++)
+                for(int j=i+1; j<entrants.size(); j++) pairings.add(new Pairing(entrants.get(i), entrants.get(j)));
+        } else {
+            throw new IllegalArgumentException("Format must be roundrobin or gauntlet");
+        }
+
+        System.out.println("Tournament: " + format + ", " + pairings.size() + " pairings x " + games + " games on "
+                + threads + " threads");
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        List<PlayGames> tasks = new ArrayList<>();
+        for(Pairing p : pairings) tasks.add(new PlayGames(p, 0, games));
+        for(PlayGames task : tasks) pool.execute(task);
+        for(PlayGames task : tasks) task.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        report(entrants, pairings, seconds);
+    }
+
+    /**
+     * Play one game of a pairing and record the result.
+     * @param pairing the two entrants
+     * @param aFirst true if entrant a moves first
+     */
+    static void playGame(Pairing pairing, boolean aFirst) {
+        Entrant first = aFirst ? pairing.a : pairing.b;
+        Entrant second = aFirst ? pairing.b : pairing.a;
+        Player p1 = first.factory.get();
+        Player p2 = second.factory.get();
+        Connect4 game = new Connect4(p1, p2);
+
+        Player forfeited = null;
+        while(game.isPlayable()) {
+            Player current = game.getCurrentPlayer();
+            Entrant entrant = current == p1 ? first : second;
+            long moveStart = System.nanoTime();
+            int column = current.getMove();
+            entrant.moveNanos.add(System.nanoTime() - moveStart);
+            entrant.moves.increment();
+            if(game.makeMove(column) == -1) {
+                forfeited = current;
+                break;
+            }
+        }
+
+        Player aPlayer = aFirst ? p1 : p2;
+        if(forfeited != null) {
+            if(forfeited == aPlayer) pairing.losses.increment();
+            else pairing.wins.increment();
+        } else if(game.isDraw()) {
+            pairing.draws.increment();
+        } else if(game.getWinner() == aPlayer) {
+            pairing.wins.increment();
+        } else {
+            pairing.losses.increment();
+        }
+    }
+
+    /**
+     * Print per-pairing results, standings and timings.
+     * @param entrants every player in the tournament
+     * @param pairings every pairing that was played
+     * @param seconds wall-clock time for the whole tournament
+     */
+    static void report(List<Entrant> entrants, List<Pairing> pairings, double seconds) {
+        long totalGames = 0;
+        System.out.println();
+        System.out.println(String.format("%-20s %-20s %8s %8s %8s %18s %12s",
+                "Player A", "Player B", "Win", "Draw", "Loss", "Score (95% CI)", "Elo diff"));
+        for(Pairing p : pairings) {
+            long w = p.wins.sum(), d = p.draws.sum(), l = p.losses.sum();
+            long n = w + d + l;
+            totalGames += n;
+            double score = (w + 0.5 * d) / n;
+            double variance = (w * Math.pow(1 - score, 2) + d * Math.pow(0.5 - score, 2) + l * Math.pow(score, 2)) / n;
+            double margin = 1.96 * Math.sqrt(variance / n);
+            System.out.println(String.format("%-20s %-20s %8d %8d %8d %9.1f%% +/-%4.1f %12s",
+                    p.a.spec, p.b.spec, w, d, l, score * 100, margin * 100, elo(score)));
+
+            p.a.score += w + 0.5 * d;
+            p.b.score += l + 0.5 * d;
+            p.a.games += n;
+            p.b.games += n;
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-20s %8s %8s %16s", "Player", "Games", "Score", "Time/move (us)"));
+        for(Entrant e : entrants) {
+            long moves = e.moves.sum();
+            System.out.println(String.format("%-20s %8d %7.1f%% %16.2f", e.spec, e.games,
+                    e.games == 0 ? 0 : 100 * e.score / e.games, moves == 0 ? 0 : e.moveNanos.sum() / 1e3 / moves));
+        }
+
+        System.out.println();
+        System.out.println(String.format("%d games in %.2fs: %.1f games/s", totalGames, seconds, totalGames / seconds));
+    }
+
+    /**
+     * Convert a score fraction into an Elo difference.
+     * @param score the fraction of points scored, between 0 and 1
+     * @return the Elo difference as text, or +inf/-inf at the extremes
+     */
+    private static String elo(double score) {
+        if(score <= 0) return "-inf";
+        if(score >= 1) return "+inf";
+        return String.format("%+.0f", -400 * Math.log10(1 / score - 1));
+    }
+}
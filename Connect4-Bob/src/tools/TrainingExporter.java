@@ -0,0 +1,398 @@
+package tools;
+
+import ai.AlphaBeta;
+import ai.MoveOrdering;
+import ai.ThreatEvaluator;
+import ai.TranspositionTable;
+import core.Board;
+import core.ComputerPlayer;
+import core.Connect4;
+import core.GameCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Exports training rows (position, side to move, search score, best move, game result) to a TrainingFile, from
+ * self-play or from replaying a journal of games. Games are played through core.Connect4.
+ *
+ * Export is a pipeline: worker threads play or replay games, search every position, fill columnar chunks and
+ * compress them, while a single writer appends finished chunks to the file. Bounded queues between the stages keep
+ * memory flat, so the export can run to hundreds of millions of rows; the only sequential stage is the write.
+ *
+ * A journal is a file of games back to back in GameCodec's game encoding. Self-play can save one with --save-games.
+ * Journal games which stop before a win or a full board are skipped, since they have no result to label rows with.
+ *
+ * If a worker fails, the export stops: the other workers are interrupted, the training file is closed without its
+ * index, so it can't be read as if it were complete, and the failure is thrown from selfPlay() or replay().
+ *
+ * Options:
+ *   --out file          training file to write (default training.c4td)
+ *   --games n           self-play games to export (default 10000)
+ *   --journal file      replay the games in a journal instead of playing new ones
+ *   --save-games file   also write the self-play games to a journal
+ *   --depth d           search depth for scores and best moves (default 6)
+ *   --random p          probability of a random move in self-play, for variety (default 0.1)
+ *   --chunk n           rows per chunk (default 65536)
+ *   --level n           Deflater compression level, 1 (fastest) to 9 (smallest) (default 1)
+ *   --threads n         worker threads (default: available processors)
+ *   --seed s            seed for self-play randomness (default 42)
+ *
+ * @version 1.0
+ */
+public class TrainingExporter {
+    /** Marks the end of a worker's chunks on the writer queue **/
+    private static final byte[] DONE = new byte[0];
+    /** Marks the end of the journal on the game queue **/
+    private static final int[] END = new int[0];
+
+    /** Search depth for every position **/
+    private final int depth;
+    /** Probability of a random move in self-play **/
+    private final double randomMoves;
+    /** Rows per chunk **/
+    private final int chunkRows;
+    /** Deflater level **/
+    private final int level;
+    /** Compressed chunks waiting to be written **/
+    private final BlockingQueue<byte[]> chunks;
+    /** Finished self-play games, or null **/
+    private final OutputStream savedGames;
+    /** Journal games skipped for ending before a result **/
+    private final AtomicLong unfinished = new AtomicLong();
+
+    /**
+     * Set up an export.
+     * @param depth search depth for every position
+     * @param randomMoves probability of a random move in self-play
+     * @param chunkRows rows per chunk
+     * @param level Deflater level
+     * @param threads the number of workers, which sizes the queue to the writer
+     * @param savedGames where to journal self-play games, or null
+     */
+    public TrainingExporter(int depth, double randomMoves, int chunkRows, int level, int threads,
+                            OutputStream savedGames) {
+        this.depth = depth;
+        this.randomMoves = randomMoves;
+        this.chunkRows = chunkRows;
+        this.level = level;
+        this.chunks = new ArrayBlockingQueue<>(threads * 2);
+        this.savedGames = savedGames;
+    }
+
+    /**
+     * A worker's state: its own searcher and the chunk it's filling.
+     */
+    private class Worker {
+        /** Scores every position **/
+        final AlphaBeta search = new AlphaBeta(new ThreatEvaluator(), new TranspositionTable(20), new MoveOrdering());
+        /** Chooses random self-play moves **/
+        final Random random;
+        /** The chunk being filled **/
+        TrainingFile.Chunk chunk = new TrainingFile.Chunk(chunkRows);
+        /** Rows of the game in progress, held until its result is known **/
+        final long[] positions = new long[42];
+        final byte[] sides = new byte[42];
+        final int[] scores = new int[42];
+        final byte[] bestMoves = new byte[42];
+        /** Columns played in the game in progress **/
+        final int[] played = new int[42];
+
+        Worker(long seed) {
+            random = new Random(seed);
+        }
+
+        /**
+         * Play a game, or replay one, and add a row for every position in it.
+         * @param moves the moves to replay, or null for self-play
+         * @throws InterruptedException if interrupted while handing on a chunk
+         */
+        void game(int[] moves) throws InterruptedException {
+            Connect4 game = new Connect4(new ComputerPlayer(), new ComputerPlayer());
+            Board board = game.getBoard();
+            int count = 0;
+            while(game.isPlayable() && (moves == null || count < moves.length)) {
+                Board position = board.copy();
+                int best = search.search(position, depth);
+                positions[count] = board.getKey();
+                sides[count] = (byte) (board.getNextPlayer() == board.PLAYER1 ? 1 : 2);
+                scores[count] = search.getLastScore();
+                bestMoves[count] = (byte) best;
+
+                int column;
+                if(moves != null) {
+                    column = moves[count];
+                } else if(random.nextDouble() < randomMoves) {
+                    int[] columns = board.getPlayableColumnsArray();
+                    column = columns[random.nextInt(columns.length)];
+                } else {
+                    column = best;
+                }
+                if(game.makeMove(column) == -1) return; // a corrupt journal entry
+                played[count++] = column;
+            }
+            if(game.isPlayable()) {
+                // a journal game which stops before a win or a full board has no result, and isn't a draw
+                unfinished.incrementAndGet();
+                return;
+            }
+
+            char winner = board.getWinner();
+            for(int i=0; i<count; i++) {
+                char side = sides[i] == 1 ? board.PLAYER1 : board.PLAYER2;
+                int n = chunk.size++;
+                chunk.positions[n] = positions[i];
+                chunk.sides[n] = sides[i];
+                chunk.scores[n] = scores[i];
+                chunk.bestMoves[n] = bestMoves[i];
+                chunk.results[n] = (byte) (winner == board.NONE ? 0 : winner == side ? 1 : -1);
+                if(chunk.isFull()) flush();
+            }
+            if(moves == null && savedGames != null) save(played, count);
+        }
+
+        /**
+         * Compress the current chunk and queue it for the writer.
+         * @throws InterruptedException if interrupted while waiting for room in the queue
+         */
+        void flush() throws InterruptedException {
+            if(chunk.size == 0) return;
+            chunks.put(TrainingFile.encode(chunk, level));
+            chunk = new TrainingFile.Chunk(chunkRows);
+        }
+    }
+
+    /**
+     * Append a self-play game to the journal.
+     * @param moves the columns played
+     * @param count the number of moves
+     */
+    private void save(int[] moves, int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(GameCodec.gameBytes(count));
+        GameCodec.putGame(buffer, moves, count);
+        synchronized(savedGames) {
+            try {
+                savedGames.write(buffer.array());
+            } catch(IOException ex) {
+                throw new IllegalStateException("Could not save game", ex);
+            }
+        }
+    }
+
+    /**
+     * Get the number of journal games skipped so far because they ended before a win or a full board
+     * @return the count
+     */
+    public long getUnfinishedGames() { return unfinished.get(); }
+
+    /**
+     * Export self-play games.
+     * @param games the number of games
+     * @param threads the number of workers
+     * @param seed seed for move randomness
+     * @param out the training file
+     * @throws IOException if the file can't be written
+     * @throws InterruptedException if interrupted
+     */
+    public void selfPlay(long games, int threads, long seed, TrainingFile.Writer out)
+            throws IOException, InterruptedException {
+        AtomicLong claimed = new AtomicLong();
+        run(threads, seed, worker -> {
+            while(claimed.getAndIncrement() < games) worker.game(null);
+        }, out);
+    }
+
+    /**
+     * Export the games in a journal. A reader thread streams games to the workers, so the journal can be any size.
+     * @param journal the journal file
+     * @param threads the number of workers
+     * @param out the training file
+     * @throws IOException if a file can't be read or written
+     * @throws InterruptedException if interrupted
+     */
+    public void replay(Path journal, int threads, TrainingFile.Writer out) throws IOException, InterruptedException {
+        BlockingQueue<int[]> games = new ArrayBlockingQueue<>(threads * 64);
+        Thread reader = new Thread(() -> {
+            try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journal)))) {
+                readJournal(in, games);
+            } catch(IOException ex) {
+                System.err.println("Stopped reading " + journal + ": " + ex.getMessage());
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    for(int i=0; i<threads; i++) games.put(END);
+                } catch(InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "journal-reader");
+        reader.start();
+
+        try {
+            run(threads, 0, worker -> {
+                int[] moves;
+                while((moves = games.take()) != END) worker.game(moves);
+            }, out);
+        } finally {
+            // after a failure nobody takes games any more; don't leave the reader waiting for room
+            reader.interrupt();
+            reader.join();
+        }
+    }
+
+    /**
+     * Read games from a journal onto a queue.
+     * @param in the journal
+     * @param games the queue
+     * @throws IOException if the journal can't be read
+     * @throws InterruptedException if interrupted while waiting for room in the queue
+     */
+    private static void readJournal(DataInputStream in, BlockingQueue<int[]> games)
+            throws IOException, InterruptedException {
+        byte[] bytes = new byte[GameCodec.MAX_GAME_BYTES];
+        while(true) {
+            int count = in.read();
+            if(count < 0) return;
+            bytes[0] = (byte) count;
+            int length = GameCodec.gameBytes(count);
+            if(length > bytes.length) throw new IOException("Corrupt journal: game of " + count + " moves");
+            try {
+                in.readFully(bytes, 1, length - 1);
+            } catch(EOFException ex) {
+                return;
+            }
+            int[] moves = new int[count];
+            GameCodec.getGame(ByteBuffer.wrap(bytes, 0, length), moves);
+            games.put(moves);
+        }
+    }
+
+    /**
+     * The body of a worker thread.
+     */
+    private interface Job {
+        /**
+         * Feed games to a worker until there are no more
+         * @param worker the worker
+         * @throws InterruptedException if interrupted
+         */
+        void run(Worker worker) throws InterruptedException;
+    }
+
+    /**
+     * Run workers and write their chunks until they have all finished.
+     * @param threads the number of workers
+     * @param seed base seed for the workers' randomness
+     * @param job what each worker does
+     * @param out the training file, which is aborted if a worker fails
+     * @throws IOException if the file can't be written
+     * @throws InterruptedException if interrupted
+     * @throws IllegalStateException if a worker failed, with the first failure as its cause
+     */
+    private void run(int threads, long seed, Job job, TrainingFile.Writer out)
+            throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for(int t=0; t<threads; t++) {
+            Worker worker = new Worker(seed + t);
+            pool.execute(() -> {
+                try {
+                    job.run(worker);
+                    worker.flush();
+                } catch(InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch(RuntimeException | Error ex) {
+                    failure.compareAndSet(null, ex);
+                } finally {
+                    try {
+                        chunks.put(DONE);
+                    } catch(InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+
+        int running = threads;
+        while(running > 0 && failure.get() == null) {
+            byte[] chunk = chunks.take();
+            if(chunk == DONE) running--;
+            else out.append(chunk);
+        }
+        if(failure.get() != null) {
+            pool.shutdownNow();
+            out.abort();
+            throw new IllegalStateException("Export failed", failure.get());
+        }
+    }
+
+    /**
+     * Run an export from the command line.
+     * @param args see the class description
+     * @throws IOException if a file can't be read or written
+     * @throws InterruptedException if interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path out = Paths.get("training.c4td");
+        long games = 10000;
+        Path journal = null;
+        Path saveGames = null;
+        int depth = 6;
+        double random = 0.1;
+        int chunk = 65536;
+        int level = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = 42;
+
+        for(int i=0; i<args.length; i++) {
+            switch(args[i]) {
+                case "--out":        out = Paths.get(args[++i]); break;
+                case "--games":      games = Long.parseLong(args[++i]); break;
+                case "--journal":    journal = Paths.get(args[++i]); break;
+                case "--save-games": saveGames = Paths.get(args[++i]); break;
+                case "--depth":      depth = Integer.parseInt(args[++i]); break;
+                case "--random":     random = Double.parseDouble(args[++i]); break;
+                case "--chunk":      chunk = Integer.parseInt(args[++i]); break;
+                case "--level":      level = Integer.parseInt(args[++i]); break;
+                case "--threads":    threads = Integer.parseInt(args[++i]); break;
+                case "--seed":       seed = Long.parseLong(args[++i]); break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        long start = System.nanoTime();
+        long rows;
+        long unfinished;
+        try(OutputStream saved = saveGames == null ? null
+                    : new BufferedOutputStream(Files.newOutputStream(saveGames), 1 << 16);
+            TrainingFile.Writer writer = new TrainingFile.Writer(out)) {
+            TrainingExporter exporter = new TrainingExporter(depth, random, chunk, level, threads, saved);
+            if(journal != null) exporter.replay(journal, threads, writer);
+            else exporter.selfPlay(games, threads, seed, writer);
+            rows = writer.getRows();
+            unfinished = exporter.getUnfinishedGames();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("Exported %d rows to %s (%d bytes) in %.3fs: %.0f rows/s",
+                rows, out, Files.size(out), seconds, rows / seconds));
+        if(unfinished > 0) System.out.println("Skipped " + unfinished + " journal games which ended before a result");
+    }
+}
@@ -0,0 +1,350 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A chunked, columnar file of training rows: (position, side to move, search score, best move, game result).
+ *
+ * The file starts with a header (magic "C4TD", version). Each chunk follows as a row count and then one block per
+ * column, each deflated separately so a reader can inflate only the columns it needs:
+ *
+ *   position   8 bytes   GameCodec position key before the move
+ *   side       1 byte    1 if PLAYER1 is to move, 2 for PLAYER2
+ *   score      4 bytes   search score for the side to move
+ *   best       1 byte    best column found by the search, 0-based
+ *   result     1 byte    final result for the side to move: 1 win, 0 draw, -1 loss
+ *
+ * The file ends with an index of every chunk's offset and row count, then the index offset, the chunk count and
+ * the magic "C4TI", so a reader can find any chunk without scanning. All numbers are big-endian.
+ *
+ * @version 1.0
+ */
+public final class TrainingFile {
+    /** Identifies a training file **/
+    static final int MAGIC = 0x43345444; // "C4TD"
+    /** Ends the index **/
+    static final int INDEX_MAGIC = 0x43345449; // "C4TI"
+    /** File format version **/
+    static final int VERSION = 1;
+    /** Bytes per row of each column **/
+    static final int[] COLUMN_WIDTHS = { 8, 1, 4, 1, 1 };
+
+    /** Static helpers and nested types only **/
+    private TrainingFile() {}
+
+    /**
+     * A chunk of rows held column by column.
+     */
+    public static class Chunk {
+        /** Position keys **/
+        public final long[] positions;
+        /** 1 for PLAYER1 to move, 2 for PLAYER2 **/
+        public final byte[] sides;
+        /** Search scores **/
+        public final int[] scores;
+        /** Best columns **/
+        public final byte[] bestMoves;
+        /** Results for the side to move **/
+        public final byte[] results;
+        /** Rows filled **/
+        public int size;
+
+        /**
+         * Create an empty chunk
+         * @param capacity the most rows it can hold
+         */
+        public Chunk(int capacity) {
+            positions = new long[capacity];
+            sides = new byte[capacity];
+            scores = new int[capacity];
+            bestMoves = new byte[capacity];
+            results = new byte[capacity];
+        }
+
+        /**
+         * Check whether the chunk can take another row
+         * @return true if the chunk is full
+         */
+        public boolean isFull() { return size == positions.length; }
+    }
+
+    /**
+     * Compress a chunk into its on-disk form.
+     * @param chunk the rows
+     * @param level the Deflater compression level
+     * @return the encoded chunk
+     */
+    public static byte[] encode(Chunk chunk, int level) {
+        int rows = chunk.size;
+        ByteBuffer raw = ByteBuffer.allocate(rows * 8).order(ByteOrder.BIG_ENDIAN);
+        ByteBuffer out = ByteBuffer.allocate(4 + COLUMN_WIDTHS.length * (4 + rows * 8 + 64));
+        out.putInt(rows);
+        Deflater deflater = new Deflater(level);
+        try {
+            for(int column=0; column<COLUMN_WIDTHS.length; column++) {
+                raw.clear();
+                for(int i=0; i<rows; i++) {
+                    switch(column) {
+                        case 0: raw.putLong(chunk.positions[i]); break;
+                        case 1: raw.put(chunk.sides[i]); break;
+                        case 2: raw.putInt(chunk.scores[i]); break;
+                        case 3: raw.put(chunk.bestMoves[i]); break;
+                        default: raw.put(chunk.results[i]); break;
+                    }
+                }
+                raw.flip();
+                deflater.reset();
+                deflater.setInput(raw);
+                deflater.finish();
+                int lengthAt = out.position();
+                out.putInt(0);
+                while(!deflater.finished()) {
+                    if(!out.hasRemaining()) out = grow(out);
+                    deflater.deflate(out);
+                }
+                out.putInt(lengthAt, out.position() - lengthAt - 4);
+            }
+        } finally {
+            deflater.end();
+        }
+        byte[] encoded = new byte[out.position()];
+        out.flip();
+        out.get(encoded);
+        return encoded;
+    }
+
+    /**
+     * Double a buffer's capacity, keeping its contents.
+     * @param buffer a buffer in write mode
+     * @return a bigger buffer in write mode with the same contents
+     */
+    private static ByteBuffer grow(ByteBuffer buffer) {
+        ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    /**
+     * Appends encoded chunks to a file and writes the index when closed. Not thread-safe; pipelines feed it from a
+     * single writer thread.
+     */
+    public static class Writer implements AutoCloseable {
+        /** The file being written **/
+        private final FileChannel channel;
+        /** Where each chunk starts **/
+        private long[] offsets = new long[1024];
+        /** Rows in each chunk **/
+        private int[] rows = new int[1024];
+        /** Chunks written **/
+        private int chunks;
+        /** Rows written **/
+        private long totalRows;
+        /** Set by abort(), after which close() writes nothing **/
+        private boolean aborted;
+
+        /**
+         * Create a file and write its header
+         * @param file where to write
+         * @throws IOException if the file can't be written
+         */
+        public Writer(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            writeFully(ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION).flip());
+        }
+
+        /**
+         * Append a chunk
+         * @param encoded a chunk from encode()
+         * @throws IOException if the file can't be written
+         */
+        public void append(byte[] encoded) throws IOException {
+            if(chunks == offsets.length) {
+                offsets = Arrays.copyOf(offsets, chunks * 2);
+                rows = Arrays.copyOf(rows, chunks * 2);
+            }
+            offsets[chunks] = channel.position();
+            rows[chunks] = ByteBuffer.wrap(encoded).getInt(0);
+            totalRows += rows[chunks];
+            chunks++;
+            writeFully(ByteBuffer.wrap(encoded));
+        }
+
+        /**
+         * Get the number of rows written so far
+         * @return the row count
+         */
+        public long getRows() { return totalRows; }
+
+        /**
+         * Close the file without writing the index, so that a partial export can't be mistaken for a whole one;
+         * readers reject a file with no index
+         * @throws IOException if the file can't be closed
+         */
+        public void abort() throws IOException {
+            aborted = true;
+            channel.close();
+        }
+
+        /**
+         * Write the index and close the file, unless abort() has been called
+         * @throws IOException if the file can't be written
+         */
+        @Override
+        public void close() throws IOException {
+            if(aborted) return;
+            ByteBuffer index = ByteBuffer.allocate(chunks * 12 + 16);
+            long indexOffset = channel.position();
+            for(int i=0; i<chunks; i++) index.putLong(offsets[i]).putInt(rows[i]);
+            index.putLong(indexOffset).putInt(chunks).putInt(INDEX_MAGIC);
+            writeFully(index.flip());
+            channel.close();
+        }
+
+        /**
+         * Write all of a buffer
+         * @param buffer the bytes to write
+         * @throws IOException if the file can't be written
+         */
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while(buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+
+    /**
+     * Reads chunks back through the index.
+     */
+    public static class Reader implements AutoCloseable {
+        /** The file being read **/
+        private final FileChannel channel;
+        /** Where each chunk starts **/
+        private final long[] offsets;
+        /** Rows in each chunk **/
+        private final int[] rows;
+
+        /**
+         * Open a file and read its index
+         * @param file the file
+         * @throws IOException if the file can't be read or isn't a complete training file
+         */
+        public Reader(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            ByteBuffer header = read(0, 8);
+            ByteBuffer footer = read(channel.size() - 16, 16);
+            if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION || footer.getInt(12) != INDEX_MAGIC) {
+                channel.close();
+                throw new IOException(file + " is not a complete training file");
+            }
+            int chunks = footer.getInt(8);
+            ByteBuffer index = read(footer.getLong(0), chunks * 12);
+            offsets = new long[chunks];
+            rows = new int[chunks];
+            for(int i=0; i<chunks; i++) {
+                offsets[i] = index.getLong();
+                rows[i] = index.getInt();
+            }
+        }
+
+        /**
+         * Get the number of chunks
+         * @return the chunk count
+         */
+        public int getChunks() { return offsets.length; }
+
+        /**
+         * Get the number of rows in a chunk, from the index
+         * @param chunk the chunk number
+         * @return its row count
+         */
+        public int getRows(int chunk) { return rows[chunk]; }
+
+        /**
+         * Read and inflate a whole chunk
+         * @param chunk the chunk number
+         * @return the rows
+         * @throws IOException if the chunk can't be read or is corrupt
+         */
+        public Chunk read(int chunk) throws IOException {
+            long end = chunk + 1 < offsets.length ? offsets[chunk + 1] : indexOffset();
+            ByteBuffer in = read(offsets[chunk], (int) (end - offsets[chunk]));
+            int count = in.getInt();
+            Chunk result = new Chunk(count);
+            result.size = count;
+            Inflater inflater = new Inflater();
+            try {
+                for(int column=0; column<COLUMN_WIDTHS.length; column++) {
+                    int length = in.getInt();
+                    ByteBuffer compressed = in.slice();
+                    compressed.limit(length);
+                    in.position(in.position() + length);
+
+                    ByteBuffer raw = ByteBuffer.allocate(count * COLUMN_WIDTHS[column]);
+                    inflater.reset();
+                    inflater.setInput(compressed);
+                    while(raw.hasRemaining() && !inflater.finished()) {
+                        if(inflater.inflate(raw) == 0 && inflater.needsInput()) break;
+                    }
+                    if(raw.hasRemaining()) throw new IOException("Chunk " + chunk + " is truncated");
+                    raw.flip();
+                    for(int i=0; i<count; i++) {
+                        switch(column) {
+                            case 0: result.positions[i] = raw.getLong(); break;
+                            case 1: result.sides[i] = raw.get(); break;
+                            case 2: result.scores[i] = raw.getInt(); break;
+                            case 3: result.bestMoves[i] = raw.get(); break;
+                            default: result.results[i] = raw.get(); break;
+                        }
+                    }
+                }
+            } catch(DataFormatException ex) {
+                throw new IOException("Chunk " + chunk + " is corrupt", ex);
+            } finally {
+                inflater.end();
+            }
+            return result;
+        }
+
+        /**
+         * Find where the index starts
+         * @return the index offset
+         * @throws IOException if the file can't be read
+         */
+        private long indexOffset() throws IOException {
+            return read(channel.size() - 16, 8).getLong(0);
+        }
+
+        /**
+         * Read a range of the file
+         * @param offset where to start
+         * @param length how many bytes
+         * @return the bytes, ready to read
+         * @throws IOException if the file can't be read
+         */
+        private ByteBuffer read(long offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while(buffer.hasRemaining()) {
+                if(channel.read(buffer, offset + buffer.position()) < 0) throw new IOException("Unexpected end of file");
+            }
+            return buffer.flip();
+        }
+
+        /**
+         * Close the file
+         * @throws IOException if closing fails
+         */
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package ui;
 
 import core.Board;
+import logging.Log;
 import online.Connect4Client;
 import online.Connect4Constants;
 import online.Connect4OnlineInterface;
@@ -77,7 +78,7 @@ public class Connect4TextConsole implements Connect4OnlineInterface, Connect4Con
      */
     @Override
     public void receiveMoveResult(int row) {
-        System.out.println("move result received: " + row);
+        Log.debug("Move result received: {}", row);
         if(row != UNDEFINED && row != ERROR_ILLEGAL_MOVE) {
             board.setCell(token, lastMoveColumn, row);
             System.out.println(renderer.render());
@@ -10,6 +10,8 @@ import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Ellipse;
 import javafx.scene.shape.Line;
+import logging.Log;
+import metrics.LatencyHistogram;
 import online.Connect4Client;
 import online.Connect4Constants;
 import online.Connect4OnlineInterface;
@@ -20,6 +22,12 @@ import java.util.ResourceBundle;
 
 /**
  * A controller for the main game view, where all logic for the interface resides
+ *
+ * Moves are predicted: a click plays the chip on the local board and draws it at once, instead of waiting a round
+ * trip for the server to say where it landed. When the server's answer arrives the prediction is confirmed, or taken
+ * back with Board.unmake() if the server refused the move or put it somewhere else. The board is only ever changed
+ * on the JavaFX thread, so predicted moves and moves from the server can't interleave. How long confirmations take,
+ * which is the latency prediction hides, and how many predictions are taken back are logged after every game.
  */
 public class Controller implements Initializable, Connect4OnlineInterface, Connect4Constants {
 
@@ -32,6 +40,15 @@ public class Controller implements Initializable, Connect4OnlineInterface, Conne
     private char myToken;
     private int lastMoveColumn;
 
+    /** The row our predicted move was drawn in, or UNDEFINED when no prediction is waiting for the server **/
+    private int predictedRow = UNDEFINED;
+    /** When the pending prediction was drawn, as a System.nanoTime() value **/
+    private long predictedAt;
+    /** Nanoseconds from drawing a predicted move to the server confirming it, for the current game **/
+    private final LatencyHistogram confirmLatency = new LatencyHistogram();
+    /** Predictions taken back in the current game **/
+    private int rollbacks;
+
     /** The pane housing all the player select controls **/
     @FXML
     public Pane panePlayerSelect;
@@ -83,8 +100,11 @@ public class Controller implements Initializable, Connect4OnlineInterface, Conne
      * Hide player select, setup the game, make the game board visible.
      */
     private void setupStatePlay() {
-        client = new Connect4Client(this,twoPlayers);
         board = new Board();
+        predictedRow = UNDEFINED;
+        confirmLatency.reset();
+        rollbacks = 0;
+        client = new Connect4Client(this,twoPlayers);
         gameBoard = new GameBoard();
         gameBoardContainer.getChildren().clear();
         gameBoardContainer.getChildren().add(gameBoard);
@@ -130,9 +150,11 @@ public class Controller implements Initializable, Connect4OnlineInterface, Conne
      */
     @Override
     public void receiveMove(int player, int column, int row) {
-        System.out.println("Received player move: c"+column+"r"+row);
-        board.setCell((player == PLAYER1 ? PLAYER1_TOKEN : PLAYER2_TOKEN), column, row);
-        Platform.runLater(() -> gameBoard.columns[column].update());
+        Log.debug("Received player move: c{}r{}", column, row);
+        Platform.runLater(() -> {
+            board.setCell((player == PLAYER1 ? PLAYER1_TOKEN : PLAYER2_TOKEN), column, row);
+            gameBoard.columns[column].update();
+        });
     }
 
     /**
@@ -152,11 +174,14 @@ public class Controller implements Initializable, Connect4OnlineInterface, Conne
     public void receiveWin(int playerNumber) {
         playing = false;
         Platform.runLater(() -> {
-            // Highlight the winning series
+            logPredictions();
+            // Highlight the winning series; a game won on time has none
             int[][] winSeries = board.getWinSeries();
-            for (int s = 0; s < winSeries.length; s++) {
-                int[] spot = winSeries[s];
-                gameBoard.columns[spot[0]].cells[spot[1]].highlight();
+            if (winSeries != null) {
+                for (int s = 0; s < winSeries.length; s++) {
+                    int[] spot = winSeries[s];
+                    gameBoard.columns[spot[0]].cells[spot[1]].highlight();
+                }
             }
 
             statusLabel.setText("Player " + (playerNumber == PLAYER1 ? PLAYER1_TOKEN : PLAYER2_TOKEN) + " wins!");
@@ -171,6 +196,7 @@ public class Controller implements Initializable, Connect4OnlineInterface, Conne
     public void receiveDraw() {
         playing = false;
         Platform.runLater(() -> {
+            logPredictions();
             statusLabel.setText("Alright, we'll call it a draw!");
             playAgainButton.setVisible(true);
         });
@@ -210,13 +236,71 @@ public class Controller implements Initializable, Connect4OnlineInterface, Conne
      */
     @Override
     public void receiveMoveResult(int row) {
-        if(row != ERROR_ILLEGAL_MOVE && row != UNDEFINED) {
-            board.setCell(myToken, lastMoveColumn, row);
-            gameBoard.columns[lastMoveColumn].update();
-            System.out.println("Board updated");
+        Platform.runLater(() -> reconcile(row));
+    }
+
+    /**
+     * Play our move on the local board and draw it straight away, before the server has seen it. Must be called on
+     * the JavaFX thread.
+     * @param column the column clicked
+     * @return false if the local board says the move is illegal, in which case nothing is drawn or sent
+     */
+    private boolean predict(int column) {
+        int row = board.insertAt(myToken, column);
+        if(row == -1) return false;
+        lastMoveColumn = column;
+        predictedRow = row;
+        predictedAt = System.nanoTime();
+        gameBoard.columns[column].update();
+        return true;
+    }
+
+    /**
+     * Settle the pending prediction against the server's answer: keep it if the chip landed where we drew it,
+     * otherwise take it back and, if the move was accepted after all, play it where the server says. Must be called
+     * on the JavaFX thread.
+     * @param row the row the server put our chip in, or ERROR_ILLEGAL_MOVE
+     */
+    private void reconcile(int row) {
+        if(predictedRow == UNDEFINED) {
+            // nothing predicted, so nothing to check; just apply the server's answer
+            if(row != ERROR_ILLEGAL_MOVE && row != UNDEFINED) {
+                board.setCell(myToken, lastMoveColumn, row);
+                gameBoard.columns[lastMoveColumn].update();
+            } else {
+                myTurn = true;
+            }
+            return;
+        }
+
+        if(row == predictedRow) {
+            confirmLatency.recordSince(predictedAt);
+            Log.debug("Prediction c{}r{} confirmed", lastMoveColumn, row);
         } else {
-            myTurn = true;
+            rollbacks++;
+            board.unmake(lastMoveColumn);
+            if(row != ERROR_ILLEGAL_MOVE && row != UNDEFINED) {
+                Log.warn("Server put our chip in c{}r{}, not the predicted row", lastMoveColumn, row);
+                board.setCell(myToken, lastMoveColumn, row);
+            } else {
+                Log.debug("Server refused the move to column {}", lastMoveColumn);
+                statusLabel.setText("That move wasn't allowed. It's still your turn.");
+                myTurn = true;
+            }
+            gameBoard.columns[lastMoveColumn].update();
         }
+        predictedRow = UNDEFINED;
+    }
+
+    /**
+     * Log how long the server took to confirm this game's predicted moves, which is the latency they hid, and how
+     * many had to be taken back.
+     */
+    private void logPredictions() {
+        if(confirmLatency.getCount() == 0 && rollbacks == 0) return;
+        Log.info("Predicted moves confirmed after p50 {} us, p99 {} us",
+                confirmLatency.getValueAtPercentile(50) / 1000, confirmLatency.getValueAtPercentile(99) / 1000);
+        Log.info("Predicted moves taken back: {} of {}", rollbacks, confirmLatency.getCount() + rollbacks);
     }
 
     /**
@@ -291,13 +375,16 @@ public class Controller implements Initializable, Connect4OnlineInterface, Conne
              * Handle a click event by attempting to put a marker in the current column
              */
             private void handleMouseClick() {
-                // The move will succeed if this column is in play
-                if(myTurn) {
+                // Draw the move at once if the local board allows it, then tell the server
+                if(myTurn && predictedRow == UNDEFINED && predict(columnNumber)) {
                     try {
-                        client.sendMove(columnNumber);
-                        lastMoveColumn = columnNumber;
                         myTurn = false;
+                        client.sendMove(columnNumber);
                     } catch (IOException ex) {
+                        board.unmake(columnNumber);
+                        predictedRow = UNDEFINED;
+                        update();
+                        myTurn = true;
                         System.out.println("There was a problem communicating with the server. Try again.");
                     }
                 }